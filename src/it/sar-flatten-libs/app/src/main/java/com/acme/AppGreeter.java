@@ -0,0 +1,7 @@
+package com.acme;
+
+public class AppGreeter {
+    public String greet() {
+        return "Hello from the application";
+    }
+}
@@ -0,0 +1,7 @@
+package com.acme.a;
+
+public class GreeterA {
+    public String greet() {
+        return "Hello from Provider A";
+    }
+}
@@ -0,0 +1,7 @@
+package com.acme.b;
+
+public class GreeterB {
+    public String greet() {
+        return "Hello from Provider B";
+    }
+}
@@ -24,23 +24,38 @@ import org.apache.maven.archiver.MavenArchiver;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.handler.ArtifactHandler;
 import org.apache.maven.artifact.handler.manager.ArtifactHandlerManager;
+import org.apache.maven.artifact.resolver.filter.AndArtifactFilter;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
 import org.apache.maven.artifact.resolver.filter.ScopeArtifactFilter;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
 import org.codehaus.plexus.archiver.jar.JarArchiver;
-import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.archiver.manager.ArchiverManager;
+import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
+import org.codehaus.plexus.util.PropertyUtils;
 import org.codehaus.plexus.util.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Abstract super class for all the packaging mojos. This class contains the logic for actually building the packaging
@@ -50,6 +65,52 @@ public abstract class AbstractPackagingMojo
     extends AbstractMojo
 {
 
+    /**
+     * Selects the non-optional artifacts of the runtime classpath.
+     */
+    private static final ArtifactFilter RUNTIME_CANDIDATES = new ArtifactFilter()
+    {
+        private final ScopeArtifactFilter scopeFilter = new ScopeArtifactFilter( Artifact.SCOPE_RUNTIME );
+
+        public boolean include( Artifact artifact )
+        {
+            return !artifact.isOptional() && scopeFilter.include( artifact );
+        }
+    };
+
+    /**
+     * Selects the artifacts whose type is added to the classpath.
+     */
+    private static final ArtifactFilter CLASSPATH_ARTIFACTS = new ArtifactFilter()
+    {
+        public boolean include( Artifact artifact )
+        {
+            return artifact.getArtifactHandler().isAddedToClasspath();
+        }
+    };
+
+    /**
+     * The class of the listener emitting Java Flight Recorder events.
+     */
+    private static final String FLIGHT_RECORDER_LISTENER =
+        "org.codehaus.mojo.jboss.packaging.FlightRecorderListener";
+
+    /**
+     * The path of the bill of materials within the packaging.
+     */
+    private static final String SBOM_PATH = "META-INF/bom.json";
+
+    /**
+     * Rejects every artifact.
+     */
+    private static final ArtifactFilter EXCLUDE_ALL = new ArtifactFilter()
+    {
+        public boolean include( Artifact artifact )
+        {
+            return false;
+        }
+    };
+
     /**
      * The maven project.
      * 
@@ -117,13 +178,51 @@ public abstract class AbstractPackagingMojo
     private boolean excludeAll;
 
     /**
-     * Dependency Artifacts excluded from packaging within the generated archive file. Use artifactId:groupId in nested
-     * exclude tags.
+     * Dependency Artifacts excluded from packaging within the generated archive file. Use groupId:artifactId in nested
+     * exclude tags, wildcards are accepted as for <code>artifactExcludes</code>.
      * 
      * @parameter
      */
     private Set excludes;
 
+    /**
+     * Patterns selecting the dependencies to package, in the form <code>groupId:artifactId:type:classifier</code>.
+     * Each segment may use the <code>*</code> and <code>?</code> wildcards and trailing segments may be omitted.
+     * Patterns prefixed by <code>regex:</code> are regular expressions matched against the full coordinates. By
+     * default all runtime dependencies are included.
+     * 
+     * @parameter
+     * @since 2.3
+     */
+    private List artifactIncludes;
+
+    /**
+     * Patterns of dependencies to leave out of the packaging, using the same syntax as <code>artifactIncludes</code>.
+     * 
+     * @parameter
+     * @since 2.3
+     */
+    private List artifactExcludes;
+
+    /**
+     * A comma separated list of Ant-style patterns of the files of the classes directory to package, for example
+     * <code>**&#47;*.class,META-INF/**</code>. By default every file is packaged.
+     * 
+     * @parameter expression="${packagingIncludes}"
+     * @since 2.3
+     */
+    private String packagingIncludes;
+
+    /**
+     * A comma separated list of Ant-style patterns of the files of the classes directory to leave out of the
+     * packaging, for example <code>**&#47;test/**,**&#47;*.java</code>. Directories matched by a pattern ending in
+     * <code>/**</code> are not walked at all.
+     * 
+     * @parameter expression="${packagingExcludes}"
+     * @since 2.3
+     */
+    private String packagingExcludes;
+
     /**
      * The Jar archiver.
      * 
@@ -191,6 +290,316 @@ public abstract class AbstractPackagingMojo
      */
     private boolean explodedOnly;
 
+    /**
+     * The size, in bytes, of each buffer used to copy files into the packaging directory.
+     * 
+     * @parameter default-value="65536" expression="${stagingBufferSize}"
+     * @since 2.3
+     */
+    private int stagingBufferSize = BufferPool.DEFAULT_BUFFER_SIZE;
+
+    /**
+     * The maximum number of bytes of copy buffers held at any one time by the packaging goals running in this build,
+     * including parallel module builds. Copies wait for a buffer to be released once this budget is reached. The
+     * buffers are shared by the whole build: the first module to package sets the buffer size and budget, and a module
+     * configured differently logs a warning and uses the shared buffers.
+     * 
+     * @parameter default-value="4194304" expression="${stagingMemoryBudget}"
+     * @since 2.3
+     */
+    private int stagingMemoryBudget = BufferPool.DEFAULT_BUDGET;
+
+    /**
+     * The filter selecting the dependencies to package, created on first use.
+     */
+    private ArtifactFilter artifactFilter;
+
+    /**
+     * The <code>groupId:artifactId</code> of the dependencies left out, as passed to
+     * {@link #buildExplodedPackaging(Set)}.
+     */
+    private Set dependencyExcludes = Collections.EMPTY_SET;
+
+    /**
+     * Whether to package each distinct dependency content only once. Dependency files are hashed in parallel, the
+     * hashes being cached between builds by path, size and modification time, and a dependency whose content is identical to an
+     * already packaged one, such as a relocated artifact or the same jar under another classifier, is skipped and
+     * reported.
+     * 
+     * @parameter default-value="false" expression="${deduplicateDependencies}"
+     * @since 2.3
+     */
+    private boolean deduplicateDependencies;
+
+    /**
+     * The directory holding the persistent index of dependency digests, shared by concurrent builds. The digests of
+     * unchanged files are read from the index instead of being computed again.
+     * 
+     * @parameter default-value="${settings.localRepository}/.cache/jboss-packaging-maven-plugin"
+     *            expression="${digestCacheDirectory}"
+     * @since 2.3
+     */
+    private File digestCacheDirectory;
+
+    /**
+     * Classified variants of the archive written from the same packaging directory, each with its own
+     * <code>classifier</code>, <code>overlays</code> directories and comma separated <code>excludes</code> patterns,
+     * such as the archives of several deployment environments. A variant with <code>properties</code> gets its
+     * deployment descriptors interpolated again with those properties first. The variants are written in parallel
+     * once the main archive has been generated and are attached to the project.
+     * 
+     * @parameter
+     * @since 2.3
+     */
+    private Variant[] variants;
+
+    /**
+     * JBoss archives (<code>sar</code>, <code>har</code> or <code>aop</code>) embedded in the packaged archive, each
+     * built from a staged <code>directory</code> tree. Nested archives are streamed straight into the packaged archive
+     * without being written to disk; with <code>explodedOnly</code> they are staged as exploded nested deployments.
+     * 
+     * @parameter
+     * @since 2.3
+     */
+    private NestedArchive[] nestedArchives;
+
+    /**
+     * The number of threads used by the parallel packaging stages. Defaults to the number of available processors.
+     * 
+     * @parameter default-value="0" expression="${packagingThreads}"
+     * @since 2.3
+     */
+    private int packagingThreads;
+
+    /**
+     * Whether to look for classes provided by more than one of the classes directory and the packaged dependencies.
+     * Such classes shadow each other depending on the class loader order. The jars are read in parallel through their
+     * central directory, and classes identical in two jars are not reported.
+     * 
+     * @parameter default-value="false" expression="${detectClassConflicts}"
+     * @since 2.3
+     */
+    private boolean detectClassConflicts;
+
+    /**
+     * Whether to fail the build when class conflicts are found. Implies <code>detectClassConflicts</code>.
+     * 
+     * @parameter default-value="false" expression="${failOnClassConflicts}"
+     * @since 2.3
+     */
+    private boolean failOnClassConflicts;
+
+    /**
+     * Whether to merge the content of the packaged jar dependencies into the root of the archive instead of nesting
+     * them under <code>lib/</code>, as the <code>par</code> goal does, so the deployment has a single flat classpath.
+     * Jar manifests and signature files are left out and the <code>META-INF/services</code> files are merged. The
+     * project classes take precedence over the dependency classes, and earlier dependencies over later ones.
+     * 
+     * @parameter default-value="false" expression="${flattenLibs}"
+     * @since 2.3
+     */
+    private boolean flattenLibs;
+
+    /**
+     * The engine building the packaging of this execution.
+     */
+    private PackagingEngine engine;
+
+    /**
+     * Component that creates the archivers of the additional archives.
+     * 
+     * @component
+     */
+    private ArchiverManager archiverManager;
+
+    /**
+     * The character encoding of the filtered files.
+     * 
+     * @parameter expression="${encoding}" default-value="${project.build.sourceEncoding}"
+     */
+    private String encoding;
+
+    /**
+     * @parameter expression="${session}"
+     * @readonly
+     * @required
+     */
+    private MavenSession session;
+
+    /**
+     * The filters used when copying the resource files and the filtered deployment descriptors. By default this will
+     * use the resource filters specified in the POM.
+     * 
+     * @parameter default-value="${project.build.filters}"
+     */
+    private List filters;
+
+    /**
+     * The extensions of the files copied unchanged even when filtering is enabled, in addition to jpg, jpeg, gif, bmp
+     * and png.
+     * 
+     * @parameter
+     * @since 2.3
+     */
+    private List nonFilteredFileExtensions;
+
+    /**
+     * Whether to interpolate the <code>${...}</code> and <code>@...@</code> expressions of the deployment
+     * descriptors, against the same properties as filtered resources. A descriptor is only rewritten when its content
+     * or the properties changed since the last build.
+     * 
+     * @parameter default-value="false" expression="${filterDeploymentDescriptor}"
+     * @since 2.3
+     */
+    private boolean filterDeploymentDescriptor;
+
+    /**
+     * The file recording the filtered deployment descriptors, so unchanged ones are not rewritten.
+     * 
+     * @parameter default-value="${project.build.directory}/jboss-packaging/descriptors.manifest"
+     * @since 2.3
+     */
+    private File descriptorManifestFile;
+
+    /**
+     * The filter of the resources and deployment descriptors, created on first use.
+     */
+    private ResourceFilter resourceFilter;
+
+    /**
+     * Whether to report the packaging progress on the console: the duration of each stage and, at most every two
+     * seconds, the number of files staged so far.
+     * 
+     * @parameter default-value="true" expression="${packagingProgress}"
+     * @since 2.3
+     */
+    private boolean packagingProgress;
+
+    /**
+     * A file the packaging events are appended to, one JSON object per line, for build analytics.
+     * 
+     * @parameter expression="${packagingEventLog}"
+     * @since 2.3
+     */
+    private File eventLog;
+
+    /**
+     * Whether to emit Java Flight Recorder events for the packaging stages, dependencies and archives, when the JVM
+     * provides the <code>jdk.jfr</code> API. The events cost next to nothing while no recording is running.
+     * 
+     * @parameter default-value="true" expression="${flightRecorderEvents}"
+     * @since 2.3
+     */
+    private boolean flightRecorderEvents;
+
+    /**
+     * Whether to stage the classes and dependencies in the packaging daemon when one is running, see the
+     * <code>daemon</code> goal. The daemon keeps what it staged in memory across builds and only copies the files
+     * changed since. The packaging is staged in the build when no daemon of the same plugin version is running, when
+     * it does not answer in time, or when <code>flattenLibs</code> is set.
+     * 
+     * @parameter default-value="false" expression="${packagingDaemon}"
+     * @since 2.3
+     */
+    private boolean packagingDaemon;
+
+    /**
+     * The time to wait for each answer of the packaging daemon, in seconds, before staging in the build instead. 0
+     * waits forever.
+     * 
+     * @parameter default-value="120" expression="${packagingDaemonTimeout}"
+     * @since 2.3
+     */
+    private int daemonTimeout;
+
+    /**
+     * The file where the running packaging daemon publishes its port.
+     * 
+     * @parameter default-value="${user.home}/.m2/jboss-packaging-daemon.properties"
+     *            expression="${packagingDaemonPortFile}"
+     * @since 2.3
+     */
+    private File daemonPortFile;
+
+    /**
+     * Whether to check each written archive: every entry is inflated in parallel and compared with the size and CRC of
+     * the central directory, entry paths are checked, and the deployment descriptor and nested archives must be
+     * present. The build fails when a problem is found.
+     * 
+     * @parameter default-value="false" expression="${verifyArchive}"
+     * @since 2.3
+     */
+    private boolean verifyArchive;
+
+    /**
+     * Whether to write a CycloneDX bill of materials of the packaged dependencies, as <code>META-INF/bom.json</code>
+     * in the main archive, or in the packaging directory of the exploded goals, and as
+     * <code>[archiveName]-[classifier].cdx.json</code> next to the archive. The variants get none, as they may leave
+     * out some of the dependencies. The digests of the dependencies are computed while they are staged.
+     * 
+     * @parameter default-value="false" expression="${generateSbom}"
+     * @since 2.3
+     */
+    private boolean generateSbom;
+
+    /**
+     * Comma separated digest algorithms computed on every staged class and dependency as it is copied, such as
+     * <code>SHA-256,CRC32C</code>. The digests are recorded in the staging manifest and used by the later steps
+     * instead of reading the files again. None are computed by default.
+     * 
+     * @parameter expression="${stagingDigests}"
+     * @since 2.3
+     */
+    private String stagingDigests;
+
+    /**
+     * The staging manifest recording the size and digests of the staged files, rewritten by each build.
+     * 
+     * @parameter default-value="${project.build.directory}/jboss-packaging/staging-digests.txt"
+     * @since 2.3
+     */
+    private File stagingDigestsFile;
+
+    /**
+     * Whether to store the dependency jars of the lib directory uncompressed. The jars are appended to the archive by a
+     * direct writer, using the CRC32 computed while they were staged, so they are copied once without being deflated
+     * or checksummed again. Applies to the main archive, not to the variants.
+     * 
+     * @parameter default-value="false" expression="${storeLibraries}"
+     * @since 2.3
+     */
+    private boolean storeLibraries;
+
+    /**
+     * The packaged dependencies, by identifier.
+     */
+    private final Map packagedArtifacts = new LinkedHashMap();
+
+    /**
+     * The bill of materials of the packaging, null unless generated.
+     */
+    private CycloneDxBom sbom;
+
+    /**
+     * The dispatcher of the packaging events.
+     */
+    private final PackagingEvents events = new PackagingEvents();
+
+    /**
+     * Whether the configured listeners were registered.
+     */
+    private boolean listenersRegistered;
+
+    /**
+     * The listener writing the event log, null unless open.
+     */
+    private JsonLinesListener eventLogListener;
+
+    /**
+     * The copier used to stage files, created on first use.
+     */
+    private FileCopier fileCopier;
+
     /**
      * @return Whether only the exploded format should be created
      */
@@ -246,6 +655,102 @@ public abstract class AbstractPackagingMojo
      */
     public abstract String getArtifactType();
 
+    /**
+     * @return Component that determines how to create and extract archive files
+     */
+    protected ArchiverManager getArchiverManager()
+    {
+        return archiverManager;
+    }
+
+    /**
+     * @return The copier used to stage files into the packaging directory
+     */
+    protected FileCopier getFileCopier()
+    {
+        if ( fileCopier == null )
+        {
+            BufferPool pool = BufferPool.getSharedPool( stagingBufferSize, stagingMemoryBudget );
+            if ( !pool.hasConfiguration( stagingBufferSize, stagingMemoryBudget ) )
+            {
+                getLog().warn( "Ignoring stagingBufferSize " + stagingBufferSize + " and stagingMemoryBudget "
+                                   + stagingMemoryBudget + ": the staging buffers shared by this build use "
+                                   + pool.getBufferSize() + " byte buffers within " + pool.getBudget() + " bytes" );
+            }
+            fileCopier = new FileCopier( pool, events );
+        }
+        return fileCopier;
+    }
+
+    /**
+     * @return The cache of the digests of dependency files
+     */
+    protected DigestCache getDigestCache()
+    {
+        return DigestCache.getShared( new FileDigester( getFileCopier().getPool(), FileDigester.DEFAULT_ALGORITHM ),
+                                      digestCacheDirectory );
+    }
+
+    /**
+     * @return The filter of the resources and deployment descriptors, built once per execution
+     * @throws IOException if a filter file could not be read.
+     * @throws MojoExecutionException if a filter file does not exist.
+     */
+    protected ResourceFilter getResourceFilter()
+        throws IOException, MojoExecutionException
+    {
+        if ( resourceFilter == null )
+        {
+            resourceFilter = createResourceFilter();
+        }
+        return resourceFilter;
+    }
+
+    /**
+     * Create the filter of the resources and deployment descriptors. Expressions are resolved against the execution
+     * properties, then the filter files, then the project properties and finally the project model.
+     * 
+     * @return The resource filter.
+     * @throws IOException if a filter file could not be read.
+     * @throws MojoExecutionException if a filter file does not exist.
+     */
+    protected ResourceFilter createResourceFilter()
+        throws IOException, MojoExecutionException
+    {
+        ResourceFilter filter = new ResourceFilter( getFileCopier(), encoding );
+        if ( nonFilteredFileExtensions != null )
+        {
+            filter.addNonFilteredFileExtensions( nonFilteredFileExtensions );
+        }
+        if ( session != null )
+        {
+            filter.addProperties( session.getExecutionProperties() );
+        }
+        if ( filters != null )
+        {
+            Properties filterProperties = new Properties();
+            for ( Iterator iter = filters.iterator(); iter.hasNext(); )
+            {
+                String path = (String) iter.next();
+                File file = new File( path );
+                if ( !file.isAbsolute() )
+                {
+                    file = new File( getProject().getBasedir(), path );
+                }
+                Properties properties = PropertyUtils.loadProperties( file );
+                if ( properties == null )
+                {
+                    throw new MojoExecutionException( "Could not read filter file " + file );
+                }
+                filterProperties.putAll( properties );
+            }
+            filter.addProperties( filterProperties );
+        }
+        filter.addProperties( getProject().getProperties() );
+        filter.addProject( getProject() );
+        return filter;
+    }
+
     /**
      * @return The directory where to write the archive
      */
@@ -277,15 +782,28 @@ public abstract class AbstractPackagingMojo
         throws MojoExecutionException
     {
         getLog().info( "Assembling JBoss packaging " + project.getArtifactId() + " in " + packagingDirectory );
+        registerListeners();
 
         if ( excludes == null )
         {
             excludes = Collections.EMPTY_SET;
         }
+        if ( !excludes.equals( dependencyExcludes ) )
+        {
+            dependencyExcludes = excludes;
+            artifactFilter = null;
+        }
 
-        packagingDirectory.mkdirs();
-        libDirectory.mkdirs();
+        try
+        {
+            getEngine().prepare();
+        }
+        catch ( PackagingException e )
+        {
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
 
+        long start = events.stageStarted( "resources" );
         try
         {
             packageResources();
@@ -294,118 +812,727 @@ public abstract class AbstractPackagingMojo
         {
             throw new MojoExecutionException( "Failed while packaging resources", e1 );
         }
+        events.stageFinished( "resources", start );
 
-        if ( classesDirectory.exists() && !classesDirectory.equals( packagingDirectory ) )
+        boolean classesHook = overrides( "packageClasses", new Class[0] );
+        DaemonClient daemon = classesHook || engine instanceof LibraryHookEngine ? null : findDaemon();
+        try
         {
-            try
+            start = events.stageStarted( "classes" );
+            if ( daemon != null && !stageInDaemon( daemon, false ) )
             {
-                packageClasses();
+                daemon = null;
             }
-            catch ( Exception e )
+            if ( classesHook )
             {
-                throw new MojoExecutionException( "Unable to copy classes directory", e );
+                try
+                {
+                    packageClasses();
+                }
+                catch ( Exception e )
+                {
+                    throw new MojoExecutionException( "Failed while packaging classes", e );
+                }
             }
-        }
+            else if ( daemon == null )
+            {
+                engine.stageClasses();
+            }
+            events.stageFinished( "classes", start );
+
+            engine.stageDescriptor();
 
-        File deploymentDescriptorFile = this.getDeploymentDescriptor();
-        if ( deploymentDescriptorFile == null || !deploymentDescriptorFile.exists() )
+            start = events.stageStarted( "dependencies" );
+            addLibraries( engine.getRequest() );
+            if ( daemon == null || !stageInDaemon( daemon, true ) )
+            {
+                engine.stageLibraries();
+            }
+        }
+        catch ( PackagingException e )
         {
-            throw new MojoExecutionException( "Could not find descriptor file: " + deploymentDescriptorFile );
+            throw new MojoExecutionException( e.getMessage(), e );
         }
-
-        String destName = this.getDeploymentDescriptorDestName();
-        if ( destName == null )
+        finally
         {
-            destName = deploymentDescriptorFile.getName();
+            if ( daemon != null )
+            {
+                daemon.close();
+            }
         }
-        File deploymentDescriptorTarget = new File( getDeploymentDescriptorDest(), destName );
 
-        if ( !deploymentDescriptorTarget.exists() )
+        PackagingResult result = engine.getResult();
+        if ( engine.getRequest().isDetectClassConflicts() )
         {
-            deploymentDescriptorTarget.getParentFile().mkdirs();
+            reportClassConflicts( result.getClassConflicts() );
+        }
+        events.stageFinished( "dependencies", start );
 
-            try
+        start = events.stageStarted( getArtifactType() );
+        buildSpecificPackaging( excludes );
+
+        try
+        {
+            if ( isExplodedOnly() )
             {
-                FileUtils.copyFile( deploymentDescriptorFile, deploymentDescriptorTarget );
+                stageNestedArchives();
             }
-            catch ( IOException e )
+            engine.completeStaging();
+        }
+        catch ( PackagingException e )
+        {
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+        File stagedSbom = new File( packagingDirectory, SBOM_PATH );
+        if ( generateSbom )
+        {
+            writeSbom( result );
+        }
+        if ( !( generateSbom && isExplodedOnly() ) && stagedSbom.isFile() )
+        {
+            // left by an earlier build, it would be archived with every variant
+            stagedSbom.delete();
+        }
+        if ( flattenLibs )
+        {
+            getLog().debug( "Merged " + result.getMergedServices() + " service provider files" );
+        }
+        events.stageFinished( getArtifactType(), start );
+
+        if ( isExplodedOnly() )
+        {
+            closeListeners();
+        }
+    }
+
+    /**
+     * Write the bill of materials of the packaged dependencies, into the packaging directory when it is not archived,
+     * otherwise beside it to be added to the main archive only.
+     * 
+     * @param result The result of the staging, holding the digests of the dependencies.
+     * @throws MojoExecutionException if the bill of materials could not be written
+     */
+    private void writeSbom( PackagingResult result )
+        throws MojoExecutionException
+    {
+        sbom = new CycloneDxBom( project.getGroupId(), project.getArtifactId(), project.getVersion(),
+                                 getArtifactType() );
+        Map digests = result.getLibraryDigests();
+        for ( Iterator iter = packagedArtifacts.values().iterator(); iter.hasNext(); )
+        {
+            Artifact artifact = (Artifact) iter.next();
+            sbom.addComponent( artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(),
+                               artifact.getClassifier(), artifact.getType(),
+                               (String) digests.get( artifact.getId() ) );
+        }
+        File sbomFile = isExplodedOnly() ? new File( packagingDirectory, SBOM_PATH ) : getSbomFile();
+        try
+        {
+            sbom.write( sbomFile );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not write the bill of materials " + sbomFile, e );
+        }
+        getLog().debug( "Listed " + sbom.getComponentCount() + " dependencies in " + sbomFile );
+    }
+
+    /**
+     * @return The bill of materials added to the main archive.
+     */
+    private File getSbomFile()
+    {
+        return new File( outputDirectory, "jboss-packaging/bom.json" );
+    }
+
+    /**
+     * @return The client of the running packaging daemon, null when there is none or it is not used
+     */
+    private DaemonClient findDaemon()
+    {
+        if ( !packagingDaemon || flattenLibs )
+        {
+            return null;
+        }
+        return DaemonClient.find( daemonPortFile, daemonTimeout * 1000 );
+    }
+
+    /**
+     * Stage the classes, or then the libraries, in the packaging daemon. The files it stages are notified to the
+     * listeners of the build.
+     * 
+     * @param daemon The client of the daemon.
+     * @param libraries Whether to stage the libraries, over the connection the classes were staged over.
+     * @return Whether the daemon staged them, false when it could not be reached or did not answer in time.
+     * @throws PackagingException if the daemon could not stage the packaging
+     */
+    private boolean stageInDaemon( DaemonClient daemon, boolean libraries )
+        throws PackagingException
+    {
+        try
+        {
+            if ( libraries )
             {
-                throw new MojoExecutionException( "Could not copy deployment descriptor", e );
+                daemon.stageLibraries( engine, events );
             }
+            else
+            {
+                getLog().info( "Staging classes and dependencies in the packaging daemon on port "
+                                   + daemon.getPort() );
+                daemon.stageClasses( engine, events );
+            }
+            engine.mergeStagingDigests();
+            return true;
+        }
+        catch ( IOException e )
+        {
+            getLog().warn( "The packaging daemon is not available, staging in the build: " + e.getMessage() );
+            return false;
         }
+    }
 
-        Set artifacts = project.getArtifacts();
-        List rejects = new ArrayList();
+    /**
+     * Select the runtime dependencies to package and add them to the libraries of the packaging request.
+     * 
+     * @param request The packaging request.
+     * @throws MojoExecutionException if a dependency could not be hashed
+     */
+    private void addLibraries( PackagingRequest request )
+        throws MojoExecutionException
+    {
+        final boolean debug = getLog().isDebugEnabled();
+        final List rejects = debug ? new ArrayList() : null;
         final Set includedArtifacts = new HashSet();
-        final ScopeArtifactFilter filter = new ScopeArtifactFilter( Artifact.SCOPE_RUNTIME );
-        getLog().debug( "" );
-        getLog().debug( "    Including artifacts: " );
-        getLog().debug( "    -------------------" );
-        for ( Iterator iter = artifacts.iterator(); iter.hasNext(); )
+        final ArtifactFilter filter = getArtifactFilter();
+        final Map packagedDigests = deduplicateDependencies ? new HashMap() : null;
+        long duplicateBytes = 0;
+        int duplicateCount = 0;
+        if ( debug )
+        {
+            getLog().debug( "" );
+            getLog().debug( "    Including artifacts: " );
+            getLog().debug( "    -------------------" );
+        }
+        if ( packagedDigests != null )
+        {
+            prefetchDigests( filter );
+        }
+
+        Iterator iter = new FilteringIterator( project.getArtifacts().iterator(), RUNTIME_CANDIDATES );
+        while ( iter.hasNext() )
         {
             Artifact artifact = (Artifact) iter.next();
-            if ( !artifact.isOptional() && filter.include( artifact ) )
+            if ( filter.include( artifact ) )
             {
-                String descriptor = artifact.getGroupId() + ":" + artifact.getArtifactId();
-
-                if ( !excludeAll && artifact.getArtifactHandler().isAddedToClasspath()
-                    && !excludes.contains( descriptor ) )
+                if ( debug )
                 {
-                    getLog().debug( "        o " + descriptor );
+                    getLog().debug( "        o " + artifact.getGroupId() + ":" + artifact.getArtifactId() );
+                }
 
-                    String name = getArtifactName( artifact );
-                    if ( !includedArtifacts.add( name ) )
+                if ( packagedDigests != null )
+                {
+                    Artifact original = findDuplicate( packagedDigests, artifact );
+                    if ( original != null )
                     {
-                        name = artifact.getGroupId() + "-" + name;
-                        getLog().info( "Duplicate artifact discovered, using full name: " + name );
+                        getLog().info( "Skipping duplicate artifact " + artifact.getId() + ", identical to "
+                                           + original.getId() );
+                        if ( events.isEnabled() )
+                        {
+                            events.artifactSkipped( artifact.getId(), "identical to " + original.getId() );
+                        }
+                        duplicateCount++;
+                        duplicateBytes += artifact.getFile().length();
+                        continue;
                     }
+                }
 
-                    try
-                    {
-                        packageLib( artifact, name );
-                    }
-                    catch ( Exception e )
-                    {
-                        throw new MojoExecutionException( "Could not copy dependency", e );
-                    }
+                String name = getArtifactName( artifact );
+                if ( !includedArtifacts.add( name ) )
+                {
+                    name = artifact.getGroupId() + "-" + name;
+                    getLog().info( "Duplicate artifact discovered, using full name: " + name );
                 }
-                else
+                request.addLibrary( artifact.getId(), artifact.getFile(), name );
+                packagedArtifacts.put( artifact.getId(), artifact );
+            }
+            else
+            {
+                if ( debug )
                 {
                     rejects.add( artifact );
                 }
+                if ( events.isEnabled() )
+                {
+                    events.artifactSkipped( artifact.getId(), "excluded" );
+                }
             }
         }
 
-        if ( !excludes.isEmpty() )
+        if ( duplicateCount > 0 )
+        {
+            getLog().info( "Skipped " + duplicateCount + " duplicate artifacts (" + duplicateBytes + " bytes)" );
+        }
+
+        if ( debug )
         {
+            if ( !rejects.isEmpty() )
+            {
+                getLog().debug( "" );
+                getLog().debug( "    Excluded artifacts: " );
+                getLog().debug( "    ------------------" );
+                for ( int ii = 0; ii < rejects.size(); ii++ )
+                {
+                    getLog().debug( "        o " + rejects.get( ii ) );
+                }
+            }
+            else
+            {
+                getLog().debug( "No artifacts have been excluded." );
+            }
+
             getLog().debug( "" );
-            getLog().debug( "    Excluded artifacts: " );
-            getLog().debug( "    ------------------" );
-            for ( int ii = 0; ii < rejects.size(); ii++ )
+        }
+    }
+
+    /**
+     * @return The engine building the packaging of this execution, created from the request of
+     *         {@link #createPackagingRequest()} on first use
+     * @throws MojoExecutionException if the request could not be created
+     */
+    protected PackagingEngine getEngine()
+        throws MojoExecutionException
+    {
+        if ( engine == null )
+        {
+            if ( overrides( "packageLib", new Class[] { Artifact.class, String.class } ) )
             {
-                getLog().debug( "        o " + rejects.get( ii ) );
+                engine = new LibraryHookEngine( createPackagingRequest(), getFileCopier(), events );
+            }
+            else
+            {
+                engine = new PackagingEngine( createPackagingRequest(), getFileCopier(), events );
             }
         }
-        else
+        return engine;
+    }
+
+    /**
+     * Whether a subclass overrides a routine of this class.
+     * 
+     * @param name The name of the routine.
+     * @param parameterTypes The types of its parameters.
+     * @return Whether a class between the class of this mojo and this class declares the routine.
+     */
+    private boolean overrides( String name, Class[] parameterTypes )
+    {
+        for ( Class type = getClass(); type != AbstractPackagingMojo.class; type = type.getSuperclass() )
         {
-            getLog().debug( "No artifacts have been excluded." );
+            try
+            {
+                type.getDeclaredMethod( name, parameterTypes );
+                return true;
+            }
+            catch ( NoSuchMethodException e )
+            {
+                // look in the superclass
+            }
         }
+        return false;
+    }
 
-        getLog().debug( "" );
+    /**
+     * Create the request of the packaging engine from the parameters of the mojo. The libraries are added once the
+     * dependencies are selected. Subclasses staging the classes or the libraries elsewhere adjust the request.
+     * 
+     * @return The packaging request.
+     * @throws MojoExecutionException if the request could not be created
+     */
+    protected PackagingRequest createPackagingRequest()
+        throws MojoExecutionException
+    {
+        PackagingRequest request = new PackagingRequest();
+        request.setPackagingDirectory( packagingDirectory );
+        request.setClassesDirectory( classesDirectory );
+        request.setPackagingIncludes( packagingIncludes );
+        request.setPackagingExcludes( packagingExcludes );
+        File descriptor = getDeploymentDescriptor();
+        request.setDeploymentDescriptor( descriptor );
+        if ( descriptor != null )
+        {
+            request.setDeploymentDescriptorTarget( getDeploymentDescriptorTarget( descriptor ) );
+        }
+        if ( filterDeploymentDescriptor )
+        {
+            try
+            {
+                request.setDescriptorFilter( getResourceFilter() );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Could not read the filter files", e );
+            }
+        }
+        request.setDescriptorManifestFile( descriptorManifestFile );
+        request.setLibDirectory( libDirectory );
+        request.setFlattenLibs( flattenLibs );
+        request.setExplodedOnly( isExplodedOnly() );
+        request.setDetectClassConflicts( detectClassConflicts || failOnClassConflicts );
+        request.setHashLibraries( generateSbom );
+        String[] algorithms = StringUtils.split( StringUtils.defaultString( stagingDigests ), ", " );
+        if ( storeLibraries && !Arrays.asList( algorithms ).contains( Crc32Digest.ALGORITHM ) )
+        {
+            String[] withCrc = new String[algorithms.length + 1];
+            System.arraycopy( algorithms, 0, withCrc, 0, algorithms.length );
+            withCrc[algorithms.length] = Crc32Digest.ALGORITHM;
+            algorithms = withCrc;
+        }
+        request.setStagingDigestAlgorithms( algorithms );
+        request.setStagingDigestsFile( stagingDigestsFile );
+        request.setStoreLibraries( storeLibraries );
+        if ( nestedArchives != null )
+        {
+            for ( int i = 0; i < nestedArchives.length; i++ )
+            {
+                request.addNestedArchive( getNestedArchiveName( nestedArchives[i] ), nestedArchives[i] );
+            }
+        }
+        request.setManifest( manifest );
+        request.setDigestCacheDirectory( digestCacheDirectory );
+        request.setThreads( getPackagingThreads() );
+        return request;
+    }
 
-        buildSpecificPackaging( excludes );
+    /**
+     * Register a listener of the packaging events.
+     * 
+     * @param listener The listener.
+     */
+    public void addPackagingListener( PackagingListener listener )
+    {
+        events.addListener( listener );
+    }
 
-        if ( libDirectory.isDirectory() )
+    /**
+     * @return The dispatcher of the packaging events
+     */
+    protected PackagingEvents getEvents()
+    {
+        return events;
+    }
+
+    /**
+     * Register the listeners configured by the <code>packagingProgress</code> and <code>eventLog</code> parameters,
+     * once per execution.
+     * 
+     * @throws MojoExecutionException if the event log could not be opened
+     */
+    protected void registerListeners()
+        throws MojoExecutionException
+    {
+        if ( listenersRegistered )
+        {
+            return;
+        }
+        listenersRegistered = true;
+        if ( packagingProgress )
+        {
+            events.addListener( new ConsoleProgressListener( getLog(), ConsoleProgressListener.DEFAULT_INTERVAL ) );
+        }
+        if ( flightRecorderEvents )
         {
-            String[] files = libDirectory.list();
+            PackagingListener listener = createFlightRecorderListener();
+            if ( listener != null )
+            {
+                events.addListener( listener );
+            }
+        }
+        if ( eventLog != null )
+        {
+            try
+            {
+                eventLogListener = new JsonLinesListener( eventLog );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Could not open the event log " + eventLog, e );
+            }
+            events.addListener( eventLogListener );
+        }
+    }
 
-            if ( files.length == 0 )
+    /**
+     * Create the listener emitting Java Flight Recorder events. The listener is loaded by name, so it is never linked
+     * on a JVM without the <code>jdk.jfr</code> API.
+     * 
+     * @return The listener, or null when the JVM does not support Flight Recorder events.
+     */
+    private PackagingListener createFlightRecorderListener()
+    {
+        try
+        {
+            Class.forName( "jdk.jfr.Event" );
+            return (PackagingListener) Class.forName( FLIGHT_RECORDER_LISTENER ).newInstance();
+        }
+        catch ( Exception e )
+        {
+            getLog().debug( "Flight Recorder events are not available: " + e );
+        }
+        catch ( LinkageError e )
+        {
+            getLog().debug( "Flight Recorder events are not available: " + e );
+        }
+        return null;
+    }
+
+    /**
+     * Flush and close the event log, if any.
+     * 
+     * @throws MojoExecutionException if the events could not be written
+     */
+    protected void closeListeners()
+        throws MojoExecutionException
+    {
+        if ( eventLogListener != null )
+        {
+            try
+            {
+                eventLogListener.close();
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Could not write the event log " + eventLog, e );
+            }
+            finally
+            {
+                eventLogListener = null;
+            }
+        }
+    }
+
+    /**
+     * @param deploymentDescriptorFile The deployment descriptor.
+     * @return The file the deployment descriptor is copied to
+     */
+    private File getDeploymentDescriptorTarget( File deploymentDescriptorFile )
+    {
+        String destName = this.getDeploymentDescriptorDestName();
+        if ( destName == null )
+        {
+            destName = deploymentDescriptorFile.getName();
+        }
+        return new File( getDeploymentDescriptorDest(), destName );
+    }
+
+    /**
+     * Collect the descriptors interpolated again with the properties of each variant. The default implementation adds
+     * the deployment descriptor; subclasses packaging other descriptors add them too.
+     * 
+     * @param descriptors The map collecting the descriptor files by path within the archive.
+     */
+    protected void addDescriptors( Map descriptors )
+    {
+        File descriptor = getDeploymentDescriptor();
+        if ( descriptor != null && descriptor.isFile() )
+        {
+            String path =
+                packagingDirectory.toURI().relativize( getDeploymentDescriptorTarget( descriptor ).toURI() ).getPath();
+            if ( !new File( path ).isAbsolute() )
             {
-                libDirectory.delete();
+                descriptors.put( path, descriptor );
             }
         }
     }
 
+    /**
+     * Interpolate the descriptors with the properties of a variant, into a directory overlaid on the packaging
+     * directory when the variant archive is written.
+     * 
+     * @param variant The variant.
+     * @param filter The filter of the variant.
+     * @param descriptors The descriptor files by path within the archive.
+     * @return The directory holding the interpolated descriptors.
+     * @throws IOException if a descriptor could not be interpolated.
+     */
+    private File stageVariantDescriptors( Variant variant, ResourceFilter filter, Map descriptors )
+        throws IOException
+    {
+        File directory = new File( outputDirectory, "jboss-packaging/variants/" + variant.getClassifier() );
+        for ( Iterator iter = descriptors.entrySet().iterator(); iter.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) iter.next();
+            filter.filter( (File) entry.getValue(), new File( directory, (String) entry.getKey() ) );
+        }
+        return directory;
+    }
+
+    /**
+     * Copy a descriptor into the packaging, interpolating its expressions when <code>filterDeploymentDescriptor</code>
+     * is set. The filtered descriptor is not rewritten while its source and the properties are unchanged and the target
+     * was not modified.
+     * 
+     * @param source The descriptor.
+     * @param target The file to write.
+     * @throws MojoExecutionException if the descriptor could not be copied
+     */
+    protected void filterDescriptor( File source, File target )
+        throws MojoExecutionException
+    {
+        try
+        {
+            getEngine().filterDescriptor( source, target );
+        }
+        catch ( PackagingException e )
+        {
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+    }
+
+    /**
+     * Get the filter selecting which of the runtime dependencies are packaged. The filter is only consulted for
+     * non-optional artifacts of the compile and runtime scopes. The default filter combines the
+     * <code>excludeAll</code>, <code>artifactIncludes</code> and <code>artifactExcludes</code> parameters with the
+     * excludes passed to {@link #buildExplodedPackaging(Set)}, which are the <code>excludes</code> parameter for the
+     * archive goals and none for the exploded goals; subclasses may override {@link #createArtifactFilter()} to plug in
+     * their own selection.
+     * 
+     * @return The artifact filter, built once per execution.
+     */
+    protected final ArtifactFilter getArtifactFilter()
+    {
+        if ( artifactFilter == null )
+        {
+            artifactFilter = createArtifactFilter();
+        }
+        return artifactFilter;
+    }
+
+    /**
+     * Create the filter selecting which of the runtime dependencies are packaged. The cheapest checks are added first
+     * so that most artifacts are rejected before any pattern is evaluated.
+     * 
+     * @return The artifact filter.
+     */
+    protected ArtifactFilter createArtifactFilter()
+    {
+        if ( excludeAll )
+        {
+            return EXCLUDE_ALL;
+        }
+
+        AndArtifactFilter filter = new AndArtifactFilter();
+        filter.add( CLASSPATH_ARTIFACTS );
+
+        List patternExcludes = new ArrayList( dependencyExcludes );
+        if ( artifactExcludes != null )
+        {
+            patternExcludes.addAll( artifactExcludes );
+        }
+        ArtifactPatternFilter patterns = new ArtifactPatternFilter( artifactIncludes, patternExcludes );
+        if ( !patterns.isEmpty() )
+        {
+            filter.add( patterns );
+        }
+        return filter;
+    }
+
+    /**
+     * Hash in parallel the files of the packaged dependencies missing from the digest cache.
+     * 
+     * @param filter The filter selecting the packaged dependencies.
+     * @throws MojoExecutionException if a dependency could not be hashed
+     */
+    private void prefetchDigests( ArtifactFilter filter )
+        throws MojoExecutionException
+    {
+        List files = new ArrayList();
+        Iterator iter = new FilteringIterator( project.getArtifacts().iterator(), RUNTIME_CANDIDATES );
+        while ( iter.hasNext() )
+        {
+            Artifact artifact = (Artifact) iter.next();
+            if ( artifact.getFile() != null && filter.include( artifact ) )
+            {
+                files.add( artifact.getFile() );
+            }
+        }
+        try
+        {
+            getDigestCache().prefetch( files, getPackagingThreads() );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not hash dependencies", e );
+        }
+    }
+
+    /**
+     * Report the classes provided by more than one of the packaged sources.
+     * 
+     * @param conflicts The conflicting classes, by pair of sources.
+     * @throws MojoExecutionException if conflicts were found and <code>failOnClassConflicts</code> is set
+     */
+    private void reportClassConflicts( Map conflicts )
+        throws MojoExecutionException
+    {
+        if ( conflicts.isEmpty() )
+        {
+            getLog().debug( "No class conflicts found." );
+            return;
+        }
+
+        int count = 0;
+        for ( Iterator iter = conflicts.entrySet().iterator(); iter.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) iter.next();
+            List classes = (List) entry.getValue();
+            count += classes.size();
+            getLog().warn( "Class conflict between " + entry.getKey() + ": " + classes.size() + " classes, such as "
+                               + classes.get( 0 ) );
+            if ( getLog().isDebugEnabled() )
+            {
+                for ( int i = 0; i < classes.size(); i++ )
+                {
+                    getLog().debug( "        o " + classes.get( i ) );
+                }
+            }
+        }
+        if ( failOnClassConflicts )
+        {
+            throw new MojoExecutionException( count + " classes are provided more than once" );
+        }
+    }
+
+    /**
+     * Check whether the content of an artifact was already packaged, recording it otherwise.
+     * 
+     * @param packagedDigests The artifacts packaged so far, by digest.
+     * @param artifact The artifact.
+     * @return The already packaged artifact with the same content, or null.
+     * @throws MojoExecutionException if the artifact could not be hashed
+     */
+    private Artifact findDuplicate( Map packagedDigests, Artifact artifact )
+        throws MojoExecutionException
+    {
+        File file = artifact.getFile();
+        if ( file == null || !file.isFile() )
+        {
+            return null;
+        }
+        try
+        {
+            String digest = getDigestCache().getDigest( file );
+            Artifact original = (Artifact) packagedDigests.get( digest );
+            if ( original == null )
+            {
+                packagedDigests.put( digest, artifact );
+            }
+            return original;
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not hash dependency " + artifact.getId(), e );
+        }
+    }
+
     /**
      * Perform any packaging specific to this type.
      * 
@@ -444,21 +1571,22 @@ public abstract class AbstractPackagingMojo
 
         // generate archive file
         getLog().debug( "Generating JBoss packaging " + archiveFile.getAbsolutePath() );
-        MavenArchiver archiver = new MavenArchiver();
-        archiver.setArchiver( jarArchiver );
-        archiver.setOutputFile( archiveFile );
-        try
+        if ( sbom != null )
         {
-            jarArchiver.addDirectory( getPackagingDirectory() );
-            if ( manifest != null )
-            {
-                jarArchiver.setManifest( manifest );
-            }
-            archiver.createArchive( getProject(), archive );
+            jarArchiver.addFile( getSbomFile(), SBOM_PATH );
         }
-        catch ( Exception e )
+        createArchive( jarArchiver, archiveFile, null, null );
+        if ( sbom != null )
         {
-            throw new MojoExecutionException( "Problem generating archive file.", e );
+            File sbomFile = calculateFile( outputDirectory, archiveName, classifier, "cdx.json" );
+            try
+            {
+                sbom.write( sbomFile );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Could not write the bill of materials " + sbomFile, e );
+            }
         }
 
         // If there is a classifier, then this archive is not the primary project artifact.
@@ -479,6 +1607,273 @@ public abstract class AbstractPackagingMojo
         }
     }
 
+    /**
+     * Write an archive of the packaging directory.
+     * 
+     * @param jarArchiver The archiver to use, each archive needs its own instance.
+     * @param archiveFile The archive to write.
+     * @param overlays Directories added on top of the packaging directory, may be null.
+     * @param excludes Patterns of the packaging directory files to leave out, may be null.
+     * @throws MojoExecutionException if the archive could not be written
+     */
+    protected void createArchive( JarArchiver jarArchiver, File archiveFile, File[] overlays, String[] excludes )
+        throws MojoExecutionException
+    {
+        MavenArchiver archiver = new MavenArchiver();
+        archiver.setArchiver( jarArchiver );
+        archiver.setOutputFile( archiveFile );
+        try
+        {
+            StoredEntryWriter storedLibraries = getEngine().addArchiveContent( jarArchiver, overlays, excludes );
+            archiver.createArchive( getProject(), archive );
+            if ( storedLibraries != null )
+            {
+                long bytes = storedLibraries.write( archiveFile );
+                getLog().debug( "Stored " + storedLibraries.size() + " libraries (" + bytes + " bytes), "
+                                    + storedLibraries.getComputed() + " without a staged CRC" );
+            }
+            events.archiveWritten( archiveFile );
+        }
+        catch ( Exception e )
+        {
+            throw new MojoExecutionException( "Problem generating archive file.", e );
+        }
+        if ( verifyArchive )
+        {
+            verifyArchive( archiveFile );
+        }
+    }
+
+    /**
+     * Check a written archive, reporting every corrupt or missing entry.
+     * 
+     * @param archiveFile The archive.
+     * @throws MojoExecutionException if the archive could not be read or is not sound
+     */
+    private void verifyArchive( File archiveFile )
+        throws MojoExecutionException
+    {
+        long start = events.stageStarted( "verify" );
+        ArchiveVerifier verifier = getEngine().createVerifier( archiveFile );
+        List problems;
+        try
+        {
+            problems = verifier.verify( getPackagingThreads() );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not verify archive " + archiveFile, e );
+        }
+        events.stageFinished( "verify", start );
+        if ( !problems.isEmpty() )
+        {
+            for ( int i = 0; i < problems.size(); i++ )
+            {
+                getLog().error( archiveFile.getName() + ": " + problems.get( i ) );
+            }
+            throw new MojoExecutionException( "Archive " + archiveFile + " failed verification with "
+                + problems.size() + " problems" );
+        }
+        getLog().info( "Verified " + verifier.getEntryCount() + " entries (" + verifier.getBytes() + " bytes) of "
+                           + archiveFile.getName() );
+    }
+
+    /**
+     * Stage the nested archives as exploded nested deployments of the packaging directory.
+     * 
+     * @throws PackagingException if a nested archive could not be staged
+     */
+    private void stageNestedArchives()
+        throws PackagingException
+    {
+        for ( Iterator iter = engine.getRequest().getNestedArchives().entrySet().iterator(); iter.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) iter.next();
+            getLog().info( "Staging nested " + ( (NestedArchive) entry.getValue() ).getType() + " archive in "
+                               + new File( packagingDirectory, (String) entry.getKey() ) );
+        }
+        engine.stageNestedArchives();
+    }
+
+    /**
+     * Get the path of a nested archive within the packaged archive.
+     * 
+     * @param nested The nested archive.
+     * @return The path.
+     * @throws MojoExecutionException if the nested archive is not correctly configured
+     */
+    private String getNestedArchiveName( NestedArchive nested )
+        throws MojoExecutionException
+    {
+        if ( nested.getType() == null || nested.getDirectory() == null )
+        {
+            throw new MojoExecutionException( "A type and a directory are required for each nested archive" );
+        }
+        if ( nested.getName() != null )
+        {
+            return nested.getName();
+        }
+        ArtifactHandler handler = artifactHandlerManager.getArtifactHandler( "jboss-" + nested.getType() );
+        return nested.getDirectory().getName() + "." + handler.getExtension();
+    }
+
+    /**
+     * Write the archives of the configured variants from the packaging directory, in parallel, and attach them to the
+     * project.
+     * 
+     * @throws MojoExecutionException if a variant could not be written
+     */
+    protected void performVariantPackaging()
+        throws MojoExecutionException
+    {
+        if ( variants == null || variants.length == 0 )
+        {
+            return;
+        }
+
+        final String extension = artifactHandlerManager.getArtifactHandler( getArtifactType() ).getExtension();
+        final File[] archiveFiles = new File[variants.length];
+        for ( int i = 0; i < variants.length; i++ )
+        {
+            String variantClassifier = variants[i].getClassifier();
+            if ( StringUtils.isEmpty( variantClassifier ) )
+            {
+                throw new MojoExecutionException( "A classifier is required for each variant" );
+            }
+            if ( variantClassifier.equals( classifier ) )
+            {
+                throw new MojoExecutionException( "Variant classifier " + variantClassifier
+                    + " is already used by the main archive" );
+            }
+            archiveFiles[i] = calculateFile( outputDirectory, archiveName, variantClassifier, extension );
+        }
+
+        final Map descriptors = new HashMap();
+        addDescriptors( descriptors );
+        final ResourceFilter[] variantFilters = new ResourceFilter[variants.length];
+        try
+        {
+            for ( int i = 0; i < variants.length; i++ )
+            {
+                Properties properties = variants[i].getProperties();
+                if ( properties != null && !properties.isEmpty() )
+                {
+                    variantFilters[i] = getResourceFilter().derive( properties );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not read the filter files", e );
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( Math.min( getPackagingThreads(), variants.length ) );
+        try
+        {
+            List futures = new ArrayList( variants.length );
+            for ( int i = 0; i < variants.length; i++ )
+            {
+                final Variant variant = variants[i];
+                final File archiveFile = archiveFiles[i];
+                final JarArchiver variantArchiver = createJarArchiver();
+                final ResourceFilter variantFilter = variantFilters[i];
+                getLog().info( "Generating JBoss packaging variant " + archiveFile.getName() );
+                futures.add( executor.submit( new Callable()
+                {
+                    public Object call()
+                        throws Exception
+                    {
+                        File[] overlays = variant.getOverlays();
+                        if ( variantFilter != null )
+                        {
+                            File staged = stageVariantDescriptors( variant, variantFilter, descriptors );
+                            File[] all = new File[overlays == null ? 1 : overlays.length + 1];
+                            if ( overlays != null )
+                            {
+                                System.arraycopy( overlays, 0, all, 0, overlays.length );
+                            }
+                            all[all.length - 1] = staged;
+                            overlays = all;
+                        }
+                        createArchive( variantArchiver, archiveFile, overlays,
+                                       PathSelector.split( variant.getExcludes() ) );
+                        return archiveFile;
+                    }
+                } ) );
+            }
+            for ( int i = 0; i < futures.size(); i++ )
+            {
+                await( (Future) futures.get( i ) );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        for ( int i = 0; i < variants.length; i++ )
+        {
+            projectHelper.attachArtifact( project, getArtifactType(), variants[i].getClassifier(), archiveFiles[i] );
+        }
+    }
+
+    /**
+     * Wait for a parallel packaging task, rethrowing its failure.
+     * 
+     * @param future The task.
+     * @return The result of the task.
+     * @throws MojoExecutionException if the task failed or the thread was interrupted
+     */
+    protected static Object await( Future future )
+        throws MojoExecutionException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "Interrupted while packaging", e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof MojoExecutionException )
+            {
+                throw (MojoExecutionException) cause;
+            }
+            throw new MojoExecutionException( cause.getMessage(), cause );
+        }
+    }
+
+    /**
+     * Get a new jar archiver, for archives written alongside the main one.
+     * 
+     * @return The archiver.
+     * @throws MojoExecutionException if no archiver is available
+     */
+    protected JarArchiver createJarArchiver()
+        throws MojoExecutionException
+    {
+        try
+        {
+            return (JarArchiver) archiverManager.getArchiver( "jar" );
+        }
+        catch ( NoSuchArchiverException e )
+        {
+            throw new MojoExecutionException( "Unable to create jar archiver", e );
+        }
+    }
+
+    /**
+     * @return The number of threads used by the parallel packaging stages
+     */
+    protected int getPackagingThreads()
+    {
+        return packagingThreads > 0 ? packagingThreads : Runtime.getRuntime().availableProcessors();
+    }
+
     /**
      * Calculate the name of the archive file.
      * 
@@ -546,12 +1941,27 @@ public abstract class AbstractPackagingMojo
     public void execute()
         throws MojoExecutionException
     {
+        try
+        {
+            buildExplodedPackaging( excludes );
 
-        buildExplodedPackaging( excludes );
+            if ( !isExplodedOnly() )
+            {
+                long start = events.stageStarted( "archive" );
+                performPackaging();
+                events.stageFinished( "archive", start );
 
-        if ( !isExplodedOnly() )
+                if ( variants != null && variants.length > 0 )
+                {
+                    start = events.stageStarted( "variants" );
+                    performVariantPackaging();
+                    events.stageFinished( "variants", start );
+                }
+            }
+        }
+        finally
         {
-            performPackaging();
+            closeListeners();
         }
     }
 
@@ -570,21 +1980,72 @@ public abstract class AbstractPackagingMojo
      * @param artifact
      * @param name
      * @throws Exception
+     * @deprecated Adjust the libraries of the {@link #createPackagingRequest() packaging request} instead. The
+     *             packaging engine stages each packaged dependency through this routine when a subclass overrides
+     *             it, in the build rather than in the packaging daemon.
      */
     protected void packageLib( Artifact artifact, String name )
         throws Exception
     {
-        FileUtils.copyFile( artifact.getFile(), new File( libDirectory, name ) );
+        getEngine().stageLibrary( new PackagingRequest.Library( artifact.getId(), artifact.getFile(), name ) );
     }
 
     /**
      * Routine that includes the generated classes into the exploded packaging.
      * 
      * @throws Exception
+     * @deprecated Adjust the classes directory of the {@link #createPackagingRequest() packaging request} instead.
+     *             The classes are staged through this routine when a subclass overrides it, in the build rather than
+     *             in the packaging daemon.
      */
     protected void packageClasses()
         throws Exception
     {
-        FileUtils.copyDirectoryStructure( classesDirectory, packagingDirectory );
+        getEngine().stageClasses();
+    }
+
+    /**
+     * The packaging engine of the mojos overriding {@link AbstractPackagingMojo#packageLib(Artifact, String)}, staging
+     * the packaged dependencies through that routine.
+     */
+    private class LibraryHookEngine
+        extends PackagingEngine
+    {
+        /**
+         * Whether a library is being staged through the routine, which stages it in this engine unless overridden.
+         */
+        private boolean hooked;
+
+        /**
+         * The digest of the library staged in this engine by the routine, null when it staged it otherwise.
+         */
+        private String digest;
+
+        LibraryHookEngine( PackagingRequest request, FileCopier copier, PackagingEvents events )
+        {
+            super( request, copier, events );
+        }
+
+        String stageLibrary( PackagingRequest.Library library )
+            throws Exception
+        {
+            Artifact artifact = (Artifact) packagedArtifacts.get( library.getId() );
+            if ( hooked || artifact == null )
+            {
+                digest = super.stageLibrary( library );
+                return digest;
+            }
+            hooked = true;
+            digest = null;
+            try
+            {
+                packageLib( artifact, library.getName() );
+            }
+            finally
+            {
+                hooked = false;
+            }
+            return digest;
+        }
     }
 }
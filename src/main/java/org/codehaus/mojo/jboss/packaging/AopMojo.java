@@ -38,6 +38,11 @@ public class AopMojo
      */
     private static final String ARTIFACT_TYPE = "jboss-aop";
 
+    /**
+     * The name of the deployment descriptor.
+     */
+    static final String DEPLOYMENT_DESCRIPTOR_NAME = "jboss-aop.xml";
+
     /**
      * The location of the JBoss AOP descriptor file (jboss-aop.xml). If it is present in src/main/resources/META-INF
      * then it will automatically be included. Otherwise this parameter must be set.
@@ -0,0 +1,91 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Rebuilds a full archive from a previously built archive and a delta archive generated by the <code>delta</code>
+ * goal. Entries are copied without being inflated. The build fails when the previous archive is not the one the delta
+ * was computed against.
+ * 
+ * @goal apply-delta
+ * @requiresProject false
+ * @threadSafe
+ * @since 2.3
+ */
+public class ApplyDeltaMojo
+    extends AbstractMojo
+{
+    /**
+     * The archive the delta was computed against, checked against the digest recorded in the delta.
+     * 
+     * @parameter expression="${baselineArchive}"
+     * @required
+     */
+    private File baselineArchive;
+
+    /**
+     * The delta archive.
+     * 
+     * @parameter expression="${deltaFile}"
+     * @required
+     */
+    private File deltaFile;
+
+    /**
+     * The full archive to write.
+     * 
+     * @parameter expression="${outputFile}"
+     * @required
+     */
+    private File outputFile;
+
+    /**
+     * Main execution for the goal.
+     * 
+     * @throws MojoExecutionException if the archive could not be rebuilt
+     */
+    public void execute()
+        throws MojoExecutionException
+    {
+        if ( outputFile.equals( baselineArchive ) )
+        {
+            throw new MojoExecutionException( "The output file must differ from the baseline archive" );
+        }
+
+        getLog().info( "Applying delta " + deltaFile + " to " + baselineArchive );
+        try
+        {
+            ArchiveDelta delta = ArchiveDelta.apply( baselineArchive, deltaFile, outputFile );
+            getLog().info( "Wrote " + outputFile + ": " + delta.getChanged() + " entries from the delta, "
+                + delta.getUnchanged() + " from the baseline, " + delta.getRemoved().size() + " removed" );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to apply delta archive", e );
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Computes and applies delta archives. A delta archive holds the entries of a new archive which are missing from, or
+ * differ from, a baseline archive, plus a list of the baseline entries removed from the new archive and the digest of
+ * the baseline, so a delta is only ever applied to the archive it was computed against. Entries are compared using
+ * the CRC and size recorded in the central directory and copied in their compressed form, so nothing is ever inflated
+ * or deflated again.
+ */
+public class ArchiveDelta
+{
+    /**
+     * The entry of a delta archive listing the paths removed from the baseline, one per line.
+     */
+    public static final String REMOVED_ENTRY = "META-INF/jboss-packaging-delta.removed";
+
+    /**
+     * The entry of a delta archive holding the digest of the baseline it was computed against.
+     */
+    public static final String BASELINE_ENTRY = "META-INF/jboss-packaging-delta.baseline";
+
+    /**
+     * The encoding of the list of removed paths.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The number of entries of the new archive copied into the delta.
+     */
+    private int changed;
+
+    /**
+     * The number of entries of the new archive identical to the baseline.
+     */
+    private int unchanged;
+
+    /**
+     * The paths of the baseline entries removed from the new archive.
+     */
+    private final List removed = new ArrayList();
+
+    /**
+     * Write the delta between two archives.
+     * 
+     * @param baseline The previous archive.
+     * @param current The new archive.
+     * @param delta The delta archive to write.
+     * @return The statistics of the delta.
+     * @throws IOException if an archive could not be read or written.
+     */
+    public static ArchiveDelta create( File baseline, File current, File delta )
+        throws IOException
+    {
+        ArchiveDelta result = new ArchiveDelta();
+        String baselineDigest = digest( baseline );
+        ZipFile baseZip = new ZipFile( baseline );
+        ZipFile currentZip = null;
+        ZipArchiveOutputStream out = null;
+        try
+        {
+            currentZip = new ZipFile( current );
+            delta.getParentFile().mkdirs();
+            out = new ZipArchiveOutputStream( delta );
+            Set currentNames = new HashSet();
+            for ( Enumeration entries = currentZip.getEntries(); entries.hasMoreElements(); )
+            {
+                ZipArchiveEntry entry = (ZipArchiveEntry) entries.nextElement();
+                currentNames.add( entry.getName() );
+                ZipArchiveEntry previous = baseZip.getEntry( entry.getName() );
+                if ( previous != null && previous.getCrc() == entry.getCrc() && previous.getSize() == entry.getSize() )
+                {
+                    result.unchanged++;
+                }
+                else
+                {
+                    copyRaw( currentZip, entry, out );
+                    result.changed++;
+                }
+            }
+
+            StringBuffer removedList = new StringBuffer();
+            for ( Enumeration entries = baseZip.getEntries(); entries.hasMoreElements(); )
+            {
+                String name = ( (ZipArchiveEntry) entries.nextElement() ).getName();
+                if ( !currentNames.contains( name ) )
+                {
+                    result.removed.add( name );
+                    removedList.append( name ).append( '\n' );
+                }
+            }
+            out.putArchiveEntry( new ZipArchiveEntry( REMOVED_ENTRY ) );
+            out.write( removedList.toString().getBytes( ENCODING ) );
+            out.closeArchiveEntry();
+            out.putArchiveEntry( new ZipArchiveEntry( BASELINE_ENTRY ) );
+            out.write( ( FileDigester.DEFAULT_ALGORITHM + ":" + baselineDigest + "\n" ).getBytes( ENCODING ) );
+            out.closeArchiveEntry();
+            out.finish();
+        }
+        finally
+        {
+            IOUtil.close( out );
+            ZipFile.closeQuietly( currentZip );
+            ZipFile.closeQuietly( baseZip );
+        }
+        return result;
+    }
+
+    /**
+     * Rebuild an archive from a baseline and a delta. Entries keep the order of the baseline, entries added by the
+     * delta are written last. The baseline must be the archive the delta was computed against.
+     * 
+     * @param baseline The previous archive.
+     * @param delta The delta archive.
+     * @param output The archive to write.
+     * @return The statistics of the delta.
+     * @throws IOException if an archive could not be read or written, or the delta was computed against another
+     *             baseline.
+     */
+    public static ArchiveDelta apply( File baseline, File delta, File output )
+        throws IOException
+    {
+        ArchiveDelta result = new ArchiveDelta();
+        ZipFile baseZip = new ZipFile( baseline );
+        ZipFile deltaZip = null;
+        ZipArchiveOutputStream out = null;
+        try
+        {
+            deltaZip = new ZipFile( delta );
+            ZipArchiveEntry removedEntry = deltaZip.getEntry( REMOVED_ENTRY );
+            if ( removedEntry == null )
+            {
+                throw new IOException( delta + " is not a delta archive" );
+            }
+            checkBaseline( deltaZip, baseline );
+            Set removedNames = readRemoved( deltaZip, removedEntry );
+            result.removed.addAll( removedNames );
+
+            output.getParentFile().mkdirs();
+            out = new ZipArchiveOutputStream( output );
+            Set written = new HashSet();
+            for ( Enumeration entries = baseZip.getEntries(); entries.hasMoreElements(); )
+            {
+                ZipArchiveEntry entry = (ZipArchiveEntry) entries.nextElement();
+                String name = entry.getName();
+                if ( removedNames.contains( name ) )
+                {
+                    continue;
+                }
+                ZipArchiveEntry replacement = deltaZip.getEntry( name );
+                if ( replacement != null )
+                {
+                    copyRaw( deltaZip, replacement, out );
+                    result.changed++;
+                }
+                else
+                {
+                    copyRaw( baseZip, entry, out );
+                    result.unchanged++;
+                }
+                written.add( name );
+            }
+            for ( Enumeration entries = deltaZip.getEntries(); entries.hasMoreElements(); )
+            {
+                ZipArchiveEntry entry = (ZipArchiveEntry) entries.nextElement();
+                if ( !REMOVED_ENTRY.equals( entry.getName() ) && !BASELINE_ENTRY.equals( entry.getName() )
+                    && !written.contains( entry.getName() ) )
+                {
+                    copyRaw( deltaZip, entry, out );
+                    result.changed++;
+                }
+            }
+            out.finish();
+        }
+        finally
+        {
+            IOUtil.close( out );
+            ZipFile.closeQuietly( deltaZip );
+            ZipFile.closeQuietly( baseZip );
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of entries written from the delta
+     */
+    public int getChanged()
+    {
+        return changed;
+    }
+
+    /**
+     * @return The number of entries identical to the baseline
+     */
+    public int getUnchanged()
+    {
+        return unchanged;
+    }
+
+    /**
+     * @return The paths of the baseline entries removed
+     */
+    public List getRemoved()
+    {
+        return removed;
+    }
+
+    /**
+     * Copy an entry in its compressed form.
+     * 
+     * @param zip The archive holding the entry.
+     * @param entry The entry.
+     * @param out The archive to write.
+     * @throws IOException if the entry could not be copied.
+     */
+    private static void copyRaw( ZipFile zip, ZipArchiveEntry entry, ZipArchiveOutputStream out )
+        throws IOException
+    {
+        InputStream in = zip.getRawInputStream( entry );
+        try
+        {
+            out.addRawArchiveEntry( entry, in );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * Check that a delta archive was computed against a baseline.
+     * 
+     * @param zip The delta archive.
+     * @param baseline The baseline.
+     * @throws IOException if the delta records another baseline or none.
+     */
+    private static void checkBaseline( ZipFile zip, File baseline )
+        throws IOException
+    {
+        ZipArchiveEntry entry = zip.getEntry( BASELINE_ENTRY );
+        if ( entry == null )
+        {
+            throw new IOException( "The delta archive does not record its baseline" );
+        }
+        String recorded;
+        InputStream in = zip.getInputStream( entry );
+        try
+        {
+            recorded = new BufferedReader( new InputStreamReader( in, ENCODING ) ).readLine();
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+        String actual = FileDigester.DEFAULT_ALGORITHM + ":" + digest( baseline );
+        if ( !actual.equals( recorded ) )
+        {
+            throw new IOException( "The delta archive was computed against another baseline than " + baseline
+                + " (expected " + recorded + ", found " + actual + ")" );
+        }
+    }
+
+    /**
+     * @param file An archive.
+     * @return The digest of the archive, in hexadecimal
+     * @throws IOException if the archive could not be read.
+     */
+    private static String digest( File file )
+        throws IOException
+    {
+        BufferPool pool = BufferPool.getSharedPool();
+        return new FileDigester( pool, FileDigester.DEFAULT_ALGORITHM ).digest( file );
+    }
+
+    /**
+     * Read the list of removed paths of a delta archive.
+     * 
+     * @param zip The delta archive.
+     * @param entry The entry listing the removed paths.
+     * @return The removed paths.
+     * @throws IOException if the list could not be read.
+     */
+    private static Set readRemoved( ZipFile zip, ZipArchiveEntry entry )
+        throws IOException
+    {
+        Set names = new HashSet();
+        InputStream in = zip.getInputStream( entry );
+        try
+        {
+            BufferedReader reader = new BufferedReader( new InputStreamReader( in, ENCODING ) );
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                if ( line.length() > 0 )
+                {
+                    names.add( line );
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+        return names;
+    }
+}
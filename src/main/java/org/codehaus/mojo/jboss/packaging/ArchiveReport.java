@@ -0,0 +1,458 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * The size breakdown of an archive, computed from its central directory alone. The compressed and uncompressed sizes
+ * of the entries are summed by top-level directory, by library of the <code>lib/</code> directory and by Java package.
+ * A report is stored as a text file with one tab separated line per item, so the next build can report the changes.
+ */
+public class ArchiveReport
+{
+    /**
+     * The category of the whole archive.
+     */
+    public static final String TOTAL = "total";
+
+    /**
+     * The category of the top-level directories, the files at the root being reported as <code>/</code>.
+     */
+    public static final String DIRECTORY = "directory";
+
+    /**
+     * The category of the files of the <code>lib/</code> directory.
+     */
+    public static final String LIBRARY = "library";
+
+    /**
+     * The category of the Java packages of the classes.
+     */
+    public static final String PACKAGE = "package";
+
+    /**
+     * The encoding of the report file.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The prefix of the comment lines of the report file.
+     */
+    private static final String COMMENT = "#";
+
+    /**
+     * The directory of the libraries.
+     */
+    private static final String LIB = "lib/";
+
+    /**
+     * Orders the items by decreasing compressed size, then by name.
+     */
+    private static final Comparator BY_SIZE = new Comparator()
+    {
+        public int compare( Object o1, Object o2 )
+        {
+            Item item1 = (Item) o1;
+            Item item2 = (Item) o2;
+            if ( item1.compressed != item2.compressed )
+            {
+                return item1.compressed > item2.compressed ? -1 : 1;
+            }
+            return item1.name.compareTo( item2.name );
+        }
+    };
+
+    /**
+     * The items, by category then by name.
+     */
+    private final Map categories = new TreeMap();
+
+    /**
+     * Compute the report of an archive from its central directory.
+     * 
+     * @param archive The archive.
+     * @return The report.
+     * @throws IOException if the archive could not be read.
+     */
+    public static ArchiveReport read( File archive )
+        throws IOException
+    {
+        ArchiveReport report = new ArchiveReport();
+        ZipFile zip = new ZipFile( archive );
+        try
+        {
+            for ( Enumeration entries = zip.getEntries(); entries.hasMoreElements(); )
+            {
+                ZipArchiveEntry entry = (ZipArchiveEntry) entries.nextElement();
+                if ( !entry.isDirectory() )
+                {
+                    report.addEntry( entry.getName(), Math.max( 0, entry.getCompressedSize() ),
+                                     Math.max( 0, entry.getSize() ) );
+                }
+            }
+        }
+        finally
+        {
+            ZipFile.closeQuietly( zip );
+        }
+        return report;
+    }
+
+    /**
+     * Read a stored report. A missing or unreadable file gives an empty report.
+     * 
+     * @param file The report file.
+     * @return The report.
+     */
+    public static ArchiveReport load( File file )
+    {
+        ArchiveReport report = new ArchiveReport();
+        if ( file == null || !file.isFile() )
+        {
+            return report;
+        }
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), ENCODING ) );
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                if ( line.startsWith( COMMENT ) )
+                {
+                    continue;
+                }
+                String[] fields = StringUtils.split( line, "\t" );
+                if ( fields.length >= 5 )
+                {
+                    Item item = report.getItem( fields[0], fields[1] );
+                    item.entries = Integer.parseInt( fields[2] );
+                    item.compressed = Long.parseLong( fields[3] );
+                    item.size = Long.parseLong( fields[4] );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            report.categories.clear();
+        }
+        catch ( NumberFormatException e )
+        {
+            report.categories.clear();
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+        return report;
+    }
+
+    /**
+     * Write the report, with the changes since a previous report.
+     * 
+     * @param file The report file.
+     * @param previous The previous report, may be null.
+     * @throws IOException if the report could not be written.
+     */
+    public void store( File file, ArchiveReport previous )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter( new FileOutputStream( file ), ENCODING );
+        try
+        {
+            writer.write( COMMENT + "category\tname\tentries\tcompressed\tsize\tcompressed change\tsize change\n" );
+            for ( Iterator iter = categories.keySet().iterator(); iter.hasNext(); )
+            {
+                String category = (String) iter.next();
+                List items = getItems( category );
+                for ( int i = 0; i < items.size(); i++ )
+                {
+                    Item item = (Item) items.get( i );
+                    Item before = previous == null ? null : previous.findItem( category, item.name );
+                    writer.write( category + "\t" + item.name + "\t" + item.entries + "\t" + item.compressed + "\t"
+                        + item.size );
+                    if ( previous != null )
+                    {
+                        writer.write( "\t" + ( item.compressed - ( before == null ? 0 : before.compressed ) ) + "\t"
+                            + ( item.size - ( before == null ? 0 : before.size ) ) );
+                    }
+                    writer.write( "\n" );
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close( writer );
+        }
+    }
+
+    /**
+     * @return Whether the report holds no item
+     */
+    public boolean isEmpty()
+    {
+        return categories.isEmpty();
+    }
+
+    /**
+     * @return The totals of the archive
+     */
+    public Item getTotal()
+    {
+        Item total = findItem( TOTAL, TOTAL );
+        return total == null ? new Item( TOTAL ) : total;
+    }
+
+    /**
+     * Get the items of a category.
+     * 
+     * @param category The category.
+     * @return The items, by decreasing compressed size.
+     */
+    public List getItems( String category )
+    {
+        Map items = (Map) categories.get( category );
+        if ( items == null )
+        {
+            return Collections.EMPTY_LIST;
+        }
+        List list = new ArrayList( items.values() );
+        Collections.sort( list, BY_SIZE );
+        return list;
+    }
+
+    /**
+     * Get the changes since a previous report: the items whose compressed size changed, including the items added or
+     * removed, by decreasing magnitude of the change.
+     * 
+     * @param previous The previous report.
+     * @return The changes, as items holding the differences of their counts and sizes.
+     */
+    public List getChanges( ArchiveReport previous )
+    {
+        List changes = new ArrayList();
+        addChanges( this, previous, 1, changes );
+        addChanges( previous, this, -1, changes );
+        Collections.sort( changes, new Comparator()
+        {
+            public int compare( Object o1, Object o2 )
+            {
+                long change1 = Math.abs( ( (Item) o1 ).compressed );
+                long change2 = Math.abs( ( (Item) o2 ).compressed );
+                if ( change1 != change2 )
+                {
+                    return change1 > change2 ? -1 : 1;
+                }
+                return ( (Item) o1 ).name.compareTo( ( (Item) o2 ).name );
+            }
+        } );
+        return changes;
+    }
+
+    /**
+     * Add the differences of the items of a report with another one.
+     * 
+     * @param report The report whose items are compared.
+     * @param other The report compared with.
+     * @param sign 1 to record the changes of the items of the report, -1 to record the removed items.
+     * @param changes The list collecting the changes.
+     */
+    private static void addChanges( ArchiveReport report, ArchiveReport other, int sign, List changes )
+    {
+        for ( Iterator iter = report.categories.entrySet().iterator(); iter.hasNext(); )
+        {
+            Map.Entry category = (Map.Entry) iter.next();
+            for ( Iterator items = ( (Map) category.getValue() ).values().iterator(); items.hasNext(); )
+            {
+                Item item = (Item) items.next();
+                Item before = other.findItem( (String) category.getKey(), item.name );
+                if ( sign < 0 && before != null )
+                {
+                    continue;
+                }
+                Item change = new Item( category.getKey() + " " + item.name );
+                change.entries = sign * ( item.entries - ( before == null ? 0 : before.entries ) );
+                change.compressed = sign * ( item.compressed - ( before == null ? 0 : before.compressed ) );
+                change.size = sign * ( item.size - ( before == null ? 0 : before.size ) );
+                if ( change.compressed != 0 || change.size != 0 || change.entries != 0 )
+                {
+                    changes.add( change );
+                }
+            }
+        }
+    }
+
+    /**
+     * Account an entry.
+     * 
+     * @param path The path of the entry.
+     * @param compressed The compressed size of the entry.
+     * @param size The uncompressed size of the entry.
+     */
+    void addEntry( String path, long compressed, long size )
+    {
+        getItem( TOTAL, TOTAL ).add( compressed, size );
+        int slash = path.indexOf( '/' );
+        getItem( DIRECTORY, slash < 0 ? "/" : path.substring( 0, slash + 1 ) ).add( compressed, size );
+        if ( path.startsWith( LIB ) && path.length() > LIB.length() )
+        {
+            getItem( LIBRARY, path.substring( LIB.length() ) ).add( compressed, size );
+        }
+        if ( path.endsWith( ".class" ) )
+        {
+            int last = path.lastIndexOf( '/' );
+            String name = last < 0 ? "(default)" : path.substring( 0, last ).replace( '/', '.' );
+            getItem( PACKAGE, name ).add( compressed, size );
+        }
+    }
+
+    /**
+     * @param category The category.
+     * @param name The name of the item.
+     * @return The item, created when missing
+     */
+    private Item getItem( String category, String name )
+    {
+        Map items = (Map) categories.get( category );
+        if ( items == null )
+        {
+            items = new TreeMap();
+            categories.put( category, items );
+        }
+        Item item = (Item) items.get( name );
+        if ( item == null )
+        {
+            item = new Item( name );
+            items.put( name, item );
+        }
+        return item;
+    }
+
+    /**
+     * @param category The category.
+     * @param name The name of the item.
+     * @return The item, null when missing
+     */
+    private Item findItem( String category, String name )
+    {
+        Map items = (Map) categories.get( category );
+        return items == null ? null : (Item) items.get( name );
+    }
+
+    /**
+     * The entries of an archive sharing a directory, library or package.
+     */
+    public static final class Item
+    {
+        /**
+         * The name of the item.
+         */
+        private final String name;
+
+        /**
+         * The number of entries.
+         */
+        private int entries;
+
+        /**
+         * The compressed size of the entries.
+         */
+        private long compressed;
+
+        /**
+         * The uncompressed size of the entries.
+         */
+        private long size;
+
+        /**
+         * @param name The name of the item.
+         */
+        Item( String name )
+        {
+            this.name = name;
+        }
+
+        /**
+         * Account an entry.
+         * 
+         * @param entryCompressed The compressed size of the entry.
+         * @param entrySize The uncompressed size of the entry.
+         */
+        void add( long entryCompressed, long entrySize )
+        {
+            entries++;
+            compressed += entryCompressed;
+            size += entrySize;
+        }
+
+        /**
+         * @return The name of the item
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return The number of entries
+         */
+        public int getEntries()
+        {
+            return entries;
+        }
+
+        /**
+         * @return The compressed size of the entries
+         */
+        public long getCompressed()
+        {
+            return compressed;
+        }
+
+        /**
+         * @return The uncompressed size of the entries
+         */
+        public long getSize()
+        {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Reports what a generated archive is made of: the compressed and uncompressed sizes of its entries by top-level
+ * directory, by library of <code>lib/</code> and by Java package, read from the central directory without extracting
+ * anything. The report is written to a file and compared with the report of the previous build.
+ * 
+ * @goal archive-report
+ * @phase package
+ * @threadSafe
+ * @since 2.3
+ */
+public class ArchiveReportMojo
+    extends AbstractMojo
+{
+    /**
+     * The maven project.
+     * 
+     * @parameter default-value="${project}"
+     * @readonly
+     */
+    private MavenProject project;
+
+    /**
+     * The archive to report on. Defaults to the file of the project artifact generated by the packaging goal.
+     * 
+     * @parameter expression="${archiveFile}"
+     */
+    private File archiveFile;
+
+    /**
+     * The report file to write.
+     * 
+     * @parameter default-value="${project.build.directory}/jboss-packaging/archive-report.txt"
+     *            expression="${archiveReportFile}"
+     */
+    private File reportFile;
+
+    /**
+     * The report of the previous build to compare with. Defaults to the report file left by the previous build; set
+     * it to a file kept outside of the build directory to compare across clean builds.
+     * 
+     * @parameter expression="${baselineReport}"
+     */
+    private File baselineReport;
+
+    /**
+     * The number of items of each category, and of changes, logged.
+     * 
+     * @parameter default-value="10" expression="${archiveReportLimit}"
+     */
+    private int reportLimit;
+
+    /**
+     * Main execution for the goal.
+     * 
+     * @throws MojoExecutionException if the report could not be written
+     */
+    public void execute()
+        throws MojoExecutionException
+    {
+        File current = archiveFile != null ? archiveFile : project.getArtifact().getFile();
+        if ( current == null || !current.isFile() )
+        {
+            throw new MojoExecutionException( "Could not find archive to report on: " + current );
+        }
+
+        ArchiveReport previous = ArchiveReport.load( baselineReport != null ? baselineReport : reportFile );
+        ArchiveReport report;
+        try
+        {
+            report = ArchiveReport.read( current );
+            report.store( reportFile, previous.isEmpty() ? null : previous );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to report on archive " + current, e );
+        }
+
+        ArchiveReport.Item total = report.getTotal();
+        getLog().info( "Archive " + current.getName() + ": " + total.getEntries() + " entries, "
+                           + total.getCompressed() + " bytes compressed, " + total.getSize() + " bytes uncompressed" );
+        logItems( "Top-level directories", report.getItems( ArchiveReport.DIRECTORY ) );
+        logItems( "Libraries", report.getItems( ArchiveReport.LIBRARY ) );
+        logItems( "Packages", report.getItems( ArchiveReport.PACKAGE ) );
+        if ( previous.isEmpty() )
+        {
+            getLog().info( "No previous report to compare with" );
+        }
+        else
+        {
+            List changes = report.getChanges( previous );
+            if ( changes.isEmpty() )
+            {
+                getLog().info( "No change since the previous build" );
+            }
+            else
+            {
+                logItems( "Changes since the previous build", changes );
+            }
+        }
+        getLog().info( "Report written to " + reportFile );
+    }
+
+    /**
+     * Log the largest items of a list.
+     * 
+     * @param title The title of the list.
+     * @param items The items, largest first.
+     */
+    private void logItems( String title, List items )
+    {
+        if ( items.isEmpty() )
+        {
+            return;
+        }
+        getLog().info( title + ( items.size() > reportLimit ? " (largest " + reportLimit + " of " + items.size()
+                        + ")" : "" ) + ":" );
+        for ( int i = 0; i < items.size() && i < reportLimit; i++ )
+        {
+            ArchiveReport.Item item = (ArchiveReport.Item) items.get( i );
+            getLog().info( "    " + StringUtils.leftPad( String.valueOf( item.getCompressed() ), 12 ) + " "
+                               + StringUtils.leftPad( String.valueOf( item.getSize() ), 12 ) + " "
+                               + StringUtils.leftPad( String.valueOf( item.getEntries() ), 6 ) + "  " + item.getName() );
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Checks that a written archive is sound: its central directory can be read, every entry inflates to the size and
+ * CRC recorded for it, no entry path escapes the deployment directory or is listed twice, and the required entries,
+ * such as the deployment descriptor, are present. The entries are read in parallel and nothing is written to disk, so
+ * a verification costs far less than an extraction.
+ */
+public class ArchiveVerifier
+{
+    /**
+     * The size of the read buffer of each thread.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The archive to check.
+     */
+    private final File archive;
+
+    /**
+     * The paths of the entries the archive must contain.
+     */
+    private final Set required = new LinkedHashSet();
+
+    /**
+     * The number of entries read.
+     */
+    private final AtomicInteger entryCount = new AtomicInteger();
+
+    /**
+     * The number of bytes inflated.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Create a verifier.
+     * 
+     * @param archive The archive to check.
+     */
+    public ArchiveVerifier( File archive )
+    {
+        this.archive = archive;
+    }
+
+    /**
+     * Require an entry.
+     * 
+     * @param path The path of the entry the archive must contain.
+     */
+    public void require( String path )
+    {
+        required.add( path );
+    }
+
+    /**
+     * @return The number of entries read by the last verification
+     */
+    public int getEntryCount()
+    {
+        return entryCount.get();
+    }
+
+    /**
+     * @return The number of bytes inflated by the last verification
+     */
+    public long getBytes()
+    {
+        return bytes.get();
+    }
+
+    /**
+     * Check the archive.
+     * 
+     * @param threads The number of threads reading the entries.
+     * @return The problems found, sorted; empty when the archive is sound.
+     * @throws IOException if the archive could not be read.
+     */
+    public List verify( int threads )
+        throws IOException
+    {
+        entryCount.set( 0 );
+        bytes.set( 0 );
+        final List problems = Collections.synchronizedList( new ArrayList() );
+        if ( !archive.isFile() )
+        {
+            throw new IOException( "Archive " + archive + " does not exist" );
+        }
+
+        final ZipFile zip;
+        try
+        {
+            zip = new ZipFile( archive );
+        }
+        catch ( IOException e )
+        {
+            problems.add( "The central directory cannot be read: " + e.getMessage() );
+            return problems;
+        }
+        try
+        {
+            final List entries = new ArrayList();
+            Set names = new HashSet();
+            for ( Enumeration iter = zip.getEntriesInPhysicalOrder(); iter.hasMoreElements(); )
+            {
+                ZipArchiveEntry entry = (ZipArchiveEntry) iter.nextElement();
+                String name = entry.getName();
+                if ( !names.add( name ) )
+                {
+                    problems.add( "Entry " + name + " is listed more than once" );
+                }
+                if ( isUnsafe( name ) )
+                {
+                    problems.add( "Entry " + name + " has a path outside of the archive" );
+                }
+                if ( !entry.isDirectory() )
+                {
+                    entries.add( entry );
+                }
+            }
+            for ( Iterator iter = required.iterator(); iter.hasNext(); )
+            {
+                String path = (String) iter.next();
+                if ( !names.contains( path ) )
+                {
+                    problems.add( "Required entry " + path + " is missing" );
+                }
+            }
+
+            final AtomicInteger next = new AtomicInteger();
+            int workers = Math.max( 1, Math.min( threads, entries.size() ) );
+            ExecutorService executor = Executors.newFixedThreadPool( workers );
+            try
+            {
+                List futures = new ArrayList( workers );
+                for ( int i = 0; i < workers; i++ )
+                {
+                    futures.add( executor.submit( new Callable()
+                    {
+                        public Object call()
+                        {
+                            byte[] buffer = new byte[BUFFER_SIZE];
+                            for ( int index = next.getAndIncrement(); index < entries.size(); index =
+                                next.getAndIncrement() )
+                            {
+                                String problem = check( zip, (ZipArchiveEntry) entries.get( index ), buffer );
+                                if ( problem != null )
+                                {
+                                    problems.add( problem );
+                                }
+                            }
+                            return null;
+                        }
+                    } ) );
+                }
+                for ( int i = 0; i < futures.size(); i++ )
+                {
+                    ( (Future) futures.get( i ) ).get();
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException( "Interrupted while verifying " + archive );
+            }
+            catch ( ExecutionException e )
+            {
+                throw (IOException) new IOException( "Could not verify " + archive ).initCause( e.getCause() );
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+        Collections.sort( problems );
+        return problems;
+    }
+
+    /**
+     * Inflate an entry, checking its size and CRC.
+     * 
+     * @param zip The archive.
+     * @param entry The entry.
+     * @param buffer The read buffer.
+     * @return The problem found, null when the entry is sound.
+     */
+    private String check( ZipFile zip, ZipArchiveEntry entry, byte[] buffer )
+    {
+        String name = entry.getName();
+        if ( !zip.canReadEntryData( entry ) )
+        {
+            return "Entry " + name + " uses an unsupported compression method " + entry.getMethod();
+        }
+        CRC32 crc = new CRC32();
+        long size = 0;
+        InputStream in = null;
+        try
+        {
+            in = zip.getInputStream( entry );
+            for ( int count = in.read( buffer ); count != -1; count = in.read( buffer ) )
+            {
+                crc.update( buffer, 0, count );
+                size += count;
+            }
+        }
+        catch ( IOException e )
+        {
+            return "Entry " + name + " cannot be inflated: " + e.getMessage();
+        }
+        catch ( RuntimeException e )
+        {
+            return "Entry " + name + " cannot be inflated: " + e;
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+        entryCount.incrementAndGet();
+        bytes.addAndGet( size );
+        if ( entry.getSize() != ArchiveEntry.SIZE_UNKNOWN && size != entry.getSize() )
+        {
+            return "Entry " + name + " holds " + size + " bytes instead of " + entry.getSize();
+        }
+        if ( entry.getCrc() != -1 && crc.getValue() != entry.getCrc() )
+        {
+            return "Entry " + name + " has CRC " + Long.toHexString( crc.getValue() ) + " instead of "
+                + Long.toHexString( entry.getCrc() );
+        }
+        return null;
+    }
+
+    /**
+     * @param name The path of an entry.
+     * @return Whether the path is absolute or escapes the root of the archive
+     */
+    private static boolean isUnsafe( String name )
+    {
+        String path = name.replace( '\\', '/' );
+        return path.startsWith( "/" ) || path.equals( ".." ) || path.startsWith( "../" ) || path.indexOf( "/../" ) >= 0
+            || path.endsWith( "/.." ) || path.length() > 1 && path.charAt( 1 ) == ':';
+    }
+}
@@ -0,0 +1,245 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+
+/**
+ * An artifact filter driven by include and exclude patterns. A pattern is either
+ * <code>groupId[:artifactId[:type[:classifier]]]</code>, where each segment may use the <code>*</code> and
+ * <code>?</code> wildcards and missing segments match anything, or a regular expression prefixed by
+ * <code>regex:</code> which is matched against <code>groupId:artifactId:type:classifier</code>. Patterns are compiled
+ * once, and segments without wildcards are compared directly against the artifact fields.
+ */
+public class ArtifactPatternFilter
+    implements ArtifactFilter
+{
+    /**
+     * The prefix of regular expression patterns.
+     */
+    public static final String REGEX_PREFIX = "regex:";
+
+    /**
+     * The compiled include patterns, an empty array includes every artifact.
+     */
+    private final CoordinateMatcher[] includes;
+
+    /**
+     * The compiled exclude patterns.
+     */
+    private final CoordinateMatcher[] excludes;
+
+    /**
+     * Create a filter.
+     * 
+     * @param includes The include patterns, may be null or empty to include all artifacts.
+     * @param excludes The exclude patterns, may be null.
+     */
+    public ArtifactPatternFilter( Collection includes, Collection excludes )
+    {
+        this.includes = compile( includes );
+        this.excludes = compile( excludes );
+    }
+
+    /**
+     * @return Whether this filter has no pattern at all and therefore includes every artifact
+     */
+    public boolean isEmpty()
+    {
+        return includes.length == 0 && excludes.length == 0;
+    }
+
+    public boolean include( Artifact artifact )
+    {
+        if ( includes.length > 0 && !matches( includes, artifact ) )
+        {
+            return false;
+        }
+        return !matches( excludes, artifact );
+    }
+
+    /**
+     * Check an artifact against a set of patterns.
+     * 
+     * @param matchers The compiled patterns.
+     * @param artifact The artifact.
+     * @return Whether any pattern matches the artifact.
+     */
+    private static boolean matches( CoordinateMatcher[] matchers, Artifact artifact )
+    {
+        for ( int i = 0; i < matchers.length; i++ )
+        {
+            if ( matchers[i].matches( artifact ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compile a collection of patterns.
+     * 
+     * @param patterns The patterns, may be null.
+     * @return The compiled patterns.
+     */
+    private static CoordinateMatcher[] compile( Collection patterns )
+    {
+        if ( patterns == null )
+        {
+            return new CoordinateMatcher[0];
+        }
+        List matchers = new ArrayList( patterns.size() );
+        for ( Iterator iter = patterns.iterator(); iter.hasNext(); )
+        {
+            String pattern = ( (String) iter.next() ).trim();
+            if ( pattern.length() == 0 )
+            {
+                continue;
+            }
+            if ( pattern.startsWith( REGEX_PREFIX ) )
+            {
+                matchers.add( new RegexMatcher( Pattern.compile( pattern.substring( REGEX_PREFIX.length() ) ) ) );
+            }
+            else
+            {
+                matchers.add( new SegmentMatcher( pattern ) );
+            }
+        }
+        return (CoordinateMatcher[]) matchers.toArray( new CoordinateMatcher[matchers.size()] );
+    }
+
+    /**
+     * A compiled artifact pattern.
+     */
+    private interface CoordinateMatcher
+    {
+        /**
+         * @param artifact The artifact to check.
+         * @return Whether the artifact matches the pattern.
+         */
+        boolean matches( Artifact artifact );
+    }
+
+    /**
+     * A pattern matching each coordinate separately.
+     */
+    private static class SegmentMatcher
+        implements CoordinateMatcher
+    {
+        /**
+         * The matchers of groupId, artifactId, type and classifier, null when the segment matches anything. Each
+         * element is either the literal String to compare or a compiled Pattern.
+         */
+        private final Object[] segments = new Object[4];
+
+        /**
+         * @param pattern The pattern to compile.
+         */
+        SegmentMatcher( String pattern )
+        {
+            String[] parts = pattern.split( ":", -1 );
+            if ( parts.length > segments.length )
+            {
+                throw new IllegalArgumentException( "Invalid artifact pattern: " + pattern );
+            }
+            for ( int i = 0; i < parts.length; i++ )
+            {
+                String part = parts[i];
+                if ( part.length() == 0 || part.equals( "*" ) )
+                {
+                    segments[i] = null;
+                }
+                else if ( part.indexOf( '*' ) < 0 && part.indexOf( '?' ) < 0 )
+                {
+                    segments[i] = part;
+                }
+                else
+                {
+                    segments[i] = PathSelector.compileGlob( part );
+                }
+            }
+        }
+
+        public boolean matches( Artifact artifact )
+        {
+            return matches( segments[0], artifact.getGroupId() ) && matches( segments[1], artifact.getArtifactId() )
+                && matches( segments[2], artifact.getType() ) && matches( segments[3], artifact.getClassifier() );
+        }
+
+        /**
+         * @param segment The compiled segment.
+         * @param value The artifact field, may be null.
+         * @return Whether the field matches the segment.
+         */
+        private static boolean matches( Object segment, String value )
+        {
+            if ( segment == null )
+            {
+                return true;
+            }
+            if ( value == null )
+            {
+                value = "";
+            }
+            if ( segment instanceof String )
+            {
+                return segment.equals( value );
+            }
+            return ( (Pattern) segment ).matcher( value ).matches();
+        }
+    }
+
+    /**
+     * A regular expression matched against the whole coordinates of the artifact.
+     */
+    private static class RegexMatcher
+        implements CoordinateMatcher
+    {
+        /**
+         * The compiled expression.
+         */
+        private final Pattern pattern;
+
+        /**
+         * @param pattern The compiled expression.
+         */
+        RegexMatcher( Pattern pattern )
+        {
+            this.pattern = pattern;
+        }
+
+        public boolean matches( Artifact artifact )
+        {
+            String classifier = artifact.getClassifier() == null ? "" : artifact.getClassifier();
+            String coordinates =
+                artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' + artifact.getType() + ':' + classifier;
+            return pattern.matcher( coordinates ).matches();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/**
+ * A bounded pool of fixed-size direct buffers used while staging and archiving files. The pool never holds more than
+ * <code>budget</code> bytes of buffers; callers asking for a buffer while the budget is exhausted block until another
+ * worker releases one, which keeps the memory used by the packaging pipeline constant whatever the size of the files
+ * being copied.
+ */
+public class BufferPool
+{
+    /**
+     * The default size of a single buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The default memory budget of a pool.
+     */
+    public static final int DEFAULT_BUDGET = 4 * 1024 * 1024;
+
+    /**
+     * The lock guarding the creation of the shared pool.
+     */
+    private static final Object SHARED_POOL_LOCK = new Object();
+
+    /**
+     * The pool shared by all the mojos running in this JVM, created by the first one asking for it.
+     */
+    private static BufferPool sharedPool;
+
+    /**
+     * The size of each buffer.
+     */
+    private final int bufferSize;
+
+    /**
+     * The maximum number of buffers handed out at any one time.
+     */
+    private final int maxBuffers;
+
+    /**
+     * The buffers which have been released and may be reused.
+     */
+    private final LinkedList free = new LinkedList();
+
+    /**
+     * The number of buffers allocated so far.
+     */
+    private int allocated;
+
+    /**
+     * Create a pool.
+     * 
+     * @param bufferSize The size of each buffer.
+     * @param budget The maximum number of bytes held by the pool, at least one buffer is always allowed.
+     */
+    public BufferPool( int bufferSize, int budget )
+    {
+        if ( bufferSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Buffer size must be positive: " + bufferSize );
+        }
+        this.bufferSize = bufferSize;
+        this.maxBuffers = Math.max( 1, budget / bufferSize );
+    }
+
+    /**
+     * Get the pool shared by all mojos of this JVM, so that parallel module builds stay within a single memory budget.
+     * The pool is created with the configuration of the first caller; later callers get the same pool whatever their
+     * configuration, and may check it with {@link #hasConfiguration(int, int)}.
+     * 
+     * @param bufferSize The size of each buffer, if the pool has not been created yet.
+     * @param budget The maximum number of bytes held by the pool, if the pool has not been created yet.
+     * @return The shared pool.
+     */
+    public static BufferPool getSharedPool( int bufferSize, int budget )
+    {
+        synchronized ( SHARED_POOL_LOCK )
+        {
+            if ( sharedPool == null )
+            {
+                sharedPool = new BufferPool( bufferSize, budget );
+            }
+            return sharedPool;
+        }
+    }
+
+    /**
+     * Get the pool shared by all mojos of this JVM, creating it with the default configuration if no mojo has
+     * configured it yet.
+     * 
+     * @return The shared pool.
+     */
+    public static BufferPool getSharedPool()
+    {
+        return getSharedPool( DEFAULT_BUFFER_SIZE, DEFAULT_BUDGET );
+    }
+
+    /**
+     * @param bufferSize The size of each buffer.
+     * @param budget The maximum number of bytes held by the pool.
+     * @return <code>true</code> if a pool created with this configuration would behave as this pool
+     */
+    public boolean hasConfiguration( int bufferSize, int budget )
+    {
+        return this.bufferSize == bufferSize && bufferSize > 0 && maxBuffers == Math.max( 1, budget / bufferSize );
+    }
+
+    /**
+     * @return The size of each buffer
+     */
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * @return The memory budget of the pool, in bytes
+     */
+    public long getBudget()
+    {
+        return (long) bufferSize * maxBuffers;
+    }
+
+    /**
+     * Take a buffer from the pool, waiting for one to be released if the budget is exhausted.
+     * 
+     * @return A cleared buffer.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized ByteBuffer acquire()
+        throws InterruptedException
+    {
+        while ( free.isEmpty() && allocated >= maxBuffers )
+        {
+            wait();
+        }
+
+        ByteBuffer buffer;
+        if ( free.isEmpty() )
+        {
+            buffer = ByteBuffer.allocateDirect( bufferSize );
+            allocated++;
+        }
+        else
+        {
+            buffer = (ByteBuffer) free.removeFirst();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool.
+     * 
+     * @param buffer A buffer previously obtained from {@link #acquire()}.
+     */
+    public synchronized void release( ByteBuffer buffer )
+    {
+        if ( buffer != null )
+        {
+            free.addFirst( buffer );
+            notify();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * A manifest of the files of a directory tree, recording for each relative path the size, last modification time and
+ * digest of the file. The manifest is stored as a text file with one tab separated line per file, so it can be
+ * reused by the next build to avoid hashing files whose size and modification time did not change.
+ */
+public class ChecksumManifest
+{
+    /**
+     * The encoding of the manifest file.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The prefix of the header line recording the property of the manifest.
+     */
+    private static final String HEADER = "#";
+
+    /**
+     * The entries, by relative path.
+     */
+    private final Map entries = new TreeMap();
+
+    /**
+     * A free form property identifying what the manifest describes, for example the directory it was computed for.
+     */
+    private String property;
+
+    /**
+     * Read a manifest. A missing or unreadable file gives an empty manifest.
+     * 
+     * @param file The manifest file.
+     * @return The manifest.
+     */
+    public static ChecksumManifest load( File file )
+    {
+        ChecksumManifest manifest = new ChecksumManifest();
+        if ( file == null || !file.isFile() )
+        {
+            return manifest;
+        }
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), ENCODING ) );
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                if ( line.startsWith( HEADER ) )
+                {
+                    manifest.property = line.substring( HEADER.length() );
+                    continue;
+                }
+                String[] fields = StringUtils.split( line, "\t" );
+                if ( fields.length == 4 )
+                {
+                    manifest.put( fields[0], Long.parseLong( fields[1] ), Long.parseLong( fields[2] ), fields[3] );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            manifest.entries.clear();
+        }
+        catch ( NumberFormatException e )
+        {
+            manifest.entries.clear();
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+        return manifest;
+    }
+
+    /**
+     * Write the manifest. The file is replaced atomically where the platform allows it.
+     * 
+     * @param file The manifest file.
+     * @throws IOException if the manifest could not be written.
+     */
+    public synchronized void store( File file )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        File temp = new File( file.getParentFile(), file.getName() + ".tmp" );
+        Writer writer = new OutputStreamWriter( new FileOutputStream( temp ), ENCODING );
+        try
+        {
+            if ( property != null )
+            {
+                writer.write( HEADER + property + "\n" );
+            }
+            for ( Iterator iter = entries.values().iterator(); iter.hasNext(); )
+            {
+                Entry entry = (Entry) iter.next();
+                writer.write( entry.path + "\t" + entry.size + "\t" + entry.lastModified + "\t" + entry.digest + "\n" );
+            }
+        }
+        finally
+        {
+            IOUtil.close( writer );
+        }
+        if ( !temp.renameTo( file ) )
+        {
+            file.delete();
+            if ( !temp.renameTo( file ) )
+            {
+                throw new IOException( "Unable to write manifest " + file );
+            }
+        }
+    }
+
+    /**
+     * @return The property identifying what the manifest describes, may be null
+     */
+    public String getProperty()
+    {
+        return property;
+    }
+
+    /**
+     * @param property The property identifying what the manifest describes
+     */
+    public void setProperty( String property )
+    {
+        this.property = property;
+    }
+
+    /**
+     * Get the entry of a path.
+     * 
+     * @param path The relative path.
+     * @return The entry, or null.
+     */
+    public synchronized Entry get( String path )
+    {
+        return (Entry) entries.get( path );
+    }
+
+    /**
+     * Get the digest of a file if the manifest holds it for the current size and modification time of the file.
+     * 
+     * @param path The relative path.
+     * @param file The file.
+     * @return The recorded digest, or null if the file changed since it was recorded.
+     */
+    public String getDigest( String path, File file )
+    {
+        Entry entry = get( path );
+        if ( entry != null && entry.size == file.length() && entry.lastModified == file.lastModified() )
+        {
+            return entry.digest;
+        }
+        return null;
+    }
+
+    /**
+     * Record a file.
+     * 
+     * @param path The relative path.
+     * @param size The size of the file.
+     * @param lastModified The modification time of the file.
+     * @param digest The digest of the file.
+     */
+    public synchronized void put( String path, long size, long lastModified, String digest )
+    {
+        entries.put( path, new Entry( path, size, lastModified, digest ) );
+    }
+
+    /**
+     * Remove a file.
+     * 
+     * @param path The relative path.
+     */
+    public synchronized void remove( String path )
+    {
+        entries.remove( path );
+    }
+
+    /**
+     * @return Whether the manifest has no entry
+     */
+    public synchronized boolean isEmpty()
+    {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return The relative paths recorded, in order
+     */
+    public synchronized String[] getPaths()
+    {
+        return (String[]) entries.keySet().toArray( new String[entries.size()] );
+    }
+
+    /**
+     * A file recorded in the manifest.
+     */
+    public static final class Entry
+    {
+        /**
+         * The relative path.
+         */
+        private final String path;
+
+        /**
+         * The size of the file.
+         */
+        private final long size;
+
+        /**
+         * The modification time of the file.
+         */
+        private final long lastModified;
+
+        /**
+         * The digest of the file.
+         */
+        private final String digest;
+
+        /**
+         * @param path The relative path.
+         * @param size The size of the file.
+         * @param lastModified The modification time of the file.
+         * @param digest The digest of the file.
+         */
+        Entry( String path, long size, long lastModified, String digest )
+        {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+
+        /**
+         * @return The relative path
+         */
+        public String getPath()
+        {
+            return path;
+        }
+
+        /**
+         * @return The size of the file
+         */
+        public long getSize()
+        {
+            return size;
+        }
+
+        /**
+         * @return The modification time of the file
+         */
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        /**
+         * @return The digest of the file
+         */
+        public String getDigest()
+        {
+            return digest;
+        }
+    }
+}
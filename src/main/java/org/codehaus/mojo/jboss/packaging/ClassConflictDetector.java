@@ -0,0 +1,299 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds the classes provided by more than one of the directories and jars making up a packaged archive. The jars are
+ * read in parallel through their central directory only, then merged in the order of the sources into a
+ * {@link ClassIndex}. Classes whose files have the same CRC in two jars are identical and are not reported.
+ */
+public class ClassConflictDetector
+{
+    /**
+     * The suffix of class files.
+     */
+    private static final String CLASS_SUFFIX = ".class";
+
+    /**
+     * The sources, directories or jar files, in order of precedence.
+     */
+    private final List sources = new ArrayList();
+
+    /**
+     * The labels of the sources, used in reports.
+     */
+    private final List labels = new ArrayList();
+
+    /**
+     * Add a source of classes.
+     * 
+     * @param source A directory or a jar file.
+     * @param label The name of the source used in reports.
+     */
+    public void addSource( File source, String label )
+    {
+        if ( source != null && source.exists() )
+        {
+            sources.add( source );
+            labels.add( label );
+        }
+    }
+
+    /**
+     * Index the classes of all the sources and find the conflicts.
+     * 
+     * @param threads The number of threads reading the sources.
+     * @return The conflicts, as a map from a description of the two conflicting sources to the list of the class
+     *         names they both provide.
+     * @throws IOException if a source could not be read.
+     */
+    public Map detect( int threads )
+        throws IOException
+    {
+        ClassList[] lists = readSources( threads );
+        int total = 0;
+        for ( int i = 0; i < lists.length; i++ )
+        {
+            total += lists[i].size;
+        }
+
+        ClassIndex index = new ClassIndex( total );
+        Map conflicts = new LinkedHashMap();
+        for ( int i = 0; i < lists.length; i++ )
+        {
+            ClassList list = lists[i];
+            for ( int j = 0; j < list.size; j++ )
+            {
+                int previous = index.add( list.names[j], i, list.crcs[j] );
+                if ( previous >= 0 )
+                {
+                    String key = labels.get( previous ) + " and " + labels.get( i );
+                    List classes = (List) conflicts.get( key );
+                    if ( classes == null )
+                    {
+                        classes = new ArrayList();
+                        conflicts.put( key, classes );
+                    }
+                    classes.add( list.names[j] );
+                }
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * Read the class names of all the sources in parallel.
+     * 
+     * @param threads The number of threads.
+     * @return The class names of each source, in the order of the sources.
+     * @throws IOException if a source could not be read.
+     */
+    private ClassList[] readSources( int threads )
+        throws IOException
+    {
+        ClassList[] lists = new ClassList[sources.size()];
+        if ( lists.length == 0 )
+        {
+            return lists;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, Math.min( threads, lists.length ) ) );
+        try
+        {
+            Future[] futures = new Future[lists.length];
+            for ( int i = 0; i < lists.length; i++ )
+            {
+                final File source = (File) sources.get( i );
+                futures[i] = executor.submit( new Callable()
+                {
+                    public Object call()
+                        throws Exception
+                    {
+                        ClassList list = new ClassList();
+                        if ( source.isDirectory() )
+                        {
+                            list.addDirectory( source, "" );
+                        }
+                        else
+                        {
+                            list.addArchive( source );
+                        }
+                        return list;
+                    }
+                } );
+            }
+            for ( int i = 0; i < futures.length; i++ )
+            {
+                lists[i] = (ClassList) futures[i].get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while reading classes" );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            IOException ioe = new IOException( "Unable to read classes" );
+            ioe.initCause( e.getCause() );
+            throw ioe;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return lists;
+    }
+
+    /**
+     * Check whether a path is a class file taking part in class loading.
+     * 
+     * @param path The path, using <code>/</code> as separator.
+     * @return Whether the path is a class file.
+     */
+    static boolean isClass( String path )
+    {
+        return path.endsWith( CLASS_SUFFIX ) && !path.startsWith( "META-INF/" )
+            && !path.equals( "module-info.class" );
+    }
+
+    /**
+     * @param path The path of a class file, using <code>/</code> as separator.
+     * @return The name of the class
+     */
+    static String toClassName( String path )
+    {
+        return path.substring( 0, path.length() - CLASS_SUFFIX.length() ).replace( '/', '.' );
+    }
+
+    /**
+     * The classes of a source, in growable parallel arrays.
+     */
+    private static class ClassList
+    {
+        /**
+         * The class names.
+         */
+        private String[] names = new String[64];
+
+        /**
+         * The CRC of each class file.
+         */
+        private long[] crcs = new long[64];
+
+        /**
+         * The number of classes.
+         */
+        private int size;
+
+        /**
+         * @param name The class name.
+         * @param crc The CRC of the class file.
+         */
+        void add( String name, long crc )
+        {
+            if ( size == names.length )
+            {
+                String[] newNames = new String[size * 2];
+                long[] newCrcs = new long[size * 2];
+                System.arraycopy( names, 0, newNames, 0, size );
+                System.arraycopy( crcs, 0, newCrcs, 0, size );
+                names = newNames;
+                crcs = newCrcs;
+            }
+            names[size] = name;
+            crcs[size] = crc;
+            size++;
+        }
+
+        /**
+         * Add the classes of a directory tree.
+         * 
+         * @param dir The directory.
+         * @param prefix The path of the directory, with a trailing separator.
+         */
+        void addDirectory( File dir, String prefix )
+        {
+            File[] files = dir.listFiles();
+            if ( files == null )
+            {
+                return;
+            }
+            for ( int i = 0; i < files.length; i++ )
+            {
+                String path = prefix + files[i].getName();
+                if ( files[i].isDirectory() )
+                {
+                    addDirectory( files[i], path + "/" );
+                }
+                else if ( isClass( path ) )
+                {
+                    add( toClassName( path ), ClassIndex.UNKNOWN_CRC );
+                }
+            }
+        }
+
+        /**
+         * Add the classes of a jar, read from its central directory.
+         * 
+         * @param file The jar.
+         * @throws IOException if the jar could not be read.
+         */
+        void addArchive( File file )
+            throws IOException
+        {
+            ZipFile zip = new ZipFile( file );
+            try
+            {
+                for ( Enumeration entries = zip.entries(); entries.hasMoreElements(); )
+                {
+                    ZipEntry entry = (ZipEntry) entries.nextElement();
+                    if ( !entry.isDirectory() && isClass( entry.getName() ) )
+                    {
+                        add( toClassName( entry.getName() ), entry.getCrc() );
+                    }
+                }
+            }
+            finally
+            {
+                zip.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * An open addressing hash table from class names to the index of the source (directory or jar) providing them. Names
+ * are interned and keyed by their hash code held in a primitive array, so a lookup compares ints before comparing
+ * names, and no entry object is allocated per class.
+ */
+class ClassIndex
+{
+    /**
+     * The marker of an unknown CRC.
+     */
+    static final long UNKNOWN_CRC = -1;
+
+    /**
+     * The hash codes of the names, valid where the name is not null.
+     */
+    private int[] hashes;
+
+    /**
+     * The interned names, null for free slots.
+     */
+    private String[] names;
+
+    /**
+     * The index of the source of each name.
+     */
+    private int[] sources;
+
+    /**
+     * The CRC of each class file, or {@link #UNKNOWN_CRC}.
+     */
+    private long[] crcs;
+
+    /**
+     * The number of names held.
+     */
+    private int size;
+
+    /**
+     * Create an index.
+     * 
+     * @param expectedSize The expected number of names.
+     */
+    ClassIndex( int expectedSize )
+    {
+        int capacity = 16;
+        while ( capacity < expectedSize * 2 )
+        {
+            capacity <<= 1;
+        }
+        allocate( capacity );
+    }
+
+    /**
+     * @return The number of names held
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Add a class, unless a class with the same name is already held.
+     * 
+     * @param name The class name.
+     * @param source The index of the source of the class.
+     * @param crc The CRC of the class file, or {@link #UNKNOWN_CRC}.
+     * @return -1 if the class was added or is identical to the class already held, the index of the source of the
+     *         class already held otherwise.
+     */
+    int add( String name, int source, long crc )
+    {
+        if ( size * 2 >= names.length )
+        {
+            rehash();
+        }
+        int hash = name.hashCode();
+        int mask = names.length - 1;
+        for ( int slot = mix( hash ) & mask;; slot = ( slot + 1 ) & mask )
+        {
+            String existing = names[slot];
+            if ( existing == null )
+            {
+                hashes[slot] = hash;
+                names[slot] = name.intern();
+                sources[slot] = source;
+                crcs[slot] = crc;
+                size++;
+                return -1;
+            }
+            if ( hashes[slot] == hash && existing.equals( name ) )
+            {
+                if ( crc != UNKNOWN_CRC && crc == crcs[slot] )
+                {
+                    return -1;
+                }
+                return sources[slot];
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of a hash code, as class names of a package share long prefixes.
+     * 
+     * @param hash The hash code.
+     * @return The mixed hash code.
+     */
+    private static int mix( int hash )
+    {
+        int h = hash * 0x9E3779B9;
+        return h ^ ( h >>> 16 );
+    }
+
+    /**
+     * Double the capacity of the table.
+     */
+    private void rehash()
+    {
+        int[] oldHashes = hashes;
+        String[] oldNames = names;
+        int[] oldSources = sources;
+        long[] oldCrcs = crcs;
+        allocate( oldNames.length * 2 );
+        int mask = names.length - 1;
+        for ( int i = 0; i < oldNames.length; i++ )
+        {
+            if ( oldNames[i] != null )
+            {
+                int slot = mix( oldHashes[i] ) & mask;
+                while ( names[slot] != null )
+                {
+                    slot = ( slot + 1 ) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                names[slot] = oldNames[i];
+                sources[slot] = oldSources[i];
+                crcs[slot] = oldCrcs[i];
+            }
+        }
+    }
+
+    /**
+     * Allocate empty arrays.
+     * 
+     * @param capacity The capacity, a power of two.
+     */
+    private void allocate( int capacity )
+    {
+        hashes = new int[capacity];
+        names = new String[capacity];
+        sources = new int[capacity];
+        crcs = new long[capacity];
+    }
+}
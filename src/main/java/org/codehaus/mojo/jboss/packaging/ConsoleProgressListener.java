@@ -0,0 +1,124 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Reports the packaging progress on the console. Stage boundaries are always reported, while staged files are
+ * summarized at most once per interval so large archives do not flood the log. The counters are updated without
+ * locking, since the staging threads notify every file.
+ */
+public class ConsoleProgressListener
+    implements PackagingListener
+{
+    /**
+     * The default minimum interval between two progress lines, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL = 2000;
+
+    /**
+     * The log to report to.
+     */
+    private final Log log;
+
+    /**
+     * The minimum interval between two progress lines, in milliseconds.
+     */
+    private final long interval;
+
+    /**
+     * The number of files staged so far.
+     */
+    private final AtomicLong files = new AtomicLong();
+
+    /**
+     * The number of bytes staged so far.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * The time of the last progress line, claimed by the thread reporting the next one.
+     */
+    private final AtomicLong lastReport;
+
+    /**
+     * Create a listener.
+     * 
+     * @param log The log to report to.
+     * @param interval The minimum interval between two progress lines, in milliseconds.
+     */
+    public ConsoleProgressListener( Log log, long interval )
+    {
+        this.log = log;
+        this.interval = interval;
+        this.lastReport = new AtomicLong( System.currentTimeMillis() );
+    }
+
+    public void stageStarted( String stage )
+    {
+        log.debug( "Packaging stage " + stage + " started" );
+    }
+
+    public void stageFinished( String stage, long elapsed )
+    {
+        log.info( "Packaging stage " + stage + " finished in " + elapsed + " ms" );
+    }
+
+    public void fileStaged( File file, long size )
+    {
+        long count = files.incrementAndGet();
+        long total = bytes.addAndGet( size );
+        long last = lastReport.get();
+        long now = System.currentTimeMillis();
+        if ( now - last >= interval && lastReport.compareAndSet( last, now ) )
+        {
+            log.info( "Staged " + count + " files (" + total / 1024 + " KB)" );
+        }
+    }
+
+    public void artifactStarted( String artifactId )
+    {
+    }
+
+    public void artifactPackaged( String artifactId, long size )
+    {
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "Packaged " + artifactId + " (" + size + " bytes)" );
+        }
+    }
+
+    public void archiveWritten( File archive, long size )
+    {
+        log.info( "Wrote " + archive.getName() + " (" + size / 1024 + " KB)" );
+    }
+
+    public void artifactSkipped( String artifactId, String reason )
+    {
+        if ( log.isDebugEnabled() )
+        {
+            log.debug( "Skipped " + artifactId + ": " + reason );
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+/**
+ * The CRC32 checksum of the zip format as a message digest, so it can be computed by the staging copy pipeline. The
+ * digest is the four bytes of the checksum, most significant first.
+ */
+public class Crc32Digest
+    extends MessageDigest
+{
+    /**
+     * The name of the algorithm.
+     */
+    public static final String ALGORITHM = "CRC32";
+
+    /**
+     * The running checksum.
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Create a digest.
+     */
+    public Crc32Digest()
+    {
+        super( ALGORITHM );
+    }
+
+    protected int engineGetDigestLength()
+    {
+        return 4;
+    }
+
+    protected void engineUpdate( byte input )
+    {
+        crc.update( input );
+    }
+
+    protected void engineUpdate( byte[] input, int offset, int length )
+    {
+        crc.update( input, offset, length );
+    }
+
+    protected byte[] engineDigest()
+    {
+        long value = crc.getValue();
+        crc.reset();
+        return new byte[] { (byte) ( value >>> 24 ), (byte) ( value >>> 16 ), (byte) ( value >>> 8 ), (byte) value };
+    }
+
+    protected void engineReset()
+    {
+        crc.reset();
+    }
+}
@@ -0,0 +1,130 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.security.MessageDigest;
+
+/**
+ * The CRC32C (Castagnoli) checksum as a message digest, computed in Java with eight lookup tables so it runs on any
+ * runtime. The digest is the four bytes of the checksum, most significant first.
+ */
+public class Crc32cDigest
+    extends MessageDigest
+{
+    /**
+     * The name of the algorithm.
+     */
+    public static final String ALGORITHM = "CRC32C";
+
+    /**
+     * The reversed Castagnoli polynomial.
+     */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    /**
+     * The lookup tables, processing eight bytes per step.
+     */
+    private static final int[][] TABLES = new int[8][256];
+
+    static
+    {
+        for ( int i = 0; i < 256; i++ )
+        {
+            int crc = i;
+            for ( int bit = 0; bit < 8; bit++ )
+            {
+                crc = ( crc & 1 ) != 0 ? ( crc >>> 1 ) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+        for ( int i = 0; i < 256; i++ )
+        {
+            int crc = TABLES[0][i];
+            for ( int table = 1; table < 8; table++ )
+            {
+                crc = TABLES[0][crc & 0xff] ^ ( crc >>> 8 );
+                TABLES[table][i] = crc;
+            }
+        }
+    }
+
+    /**
+     * The running checksum, inverted.
+     */
+    private int crc = 0xffffffff;
+
+    /**
+     * Create a digest.
+     */
+    public Crc32cDigest()
+    {
+        super( ALGORITHM );
+    }
+
+    /**
+     * @return The checksum of the bytes added so far, without resetting the digest
+     */
+    public long getValue()
+    {
+        return ~crc & 0xffffffffL;
+    }
+
+    protected int engineGetDigestLength()
+    {
+        return 4;
+    }
+
+    protected void engineUpdate( byte input )
+    {
+        crc = TABLES[0][( crc ^ input ) & 0xff] ^ ( crc >>> 8 );
+    }
+
+    protected void engineUpdate( byte[] input, int offset, int length )
+    {
+        int c = crc;
+        int end = offset + length;
+        int i = offset;
+        for ( ; end - i >= 8; i += 8 )
+        {
+            int low = c ^ ( ( input[i] & 0xff ) | ( input[i + 1] & 0xff ) << 8 | ( input[i + 2] & 0xff ) << 16
+                | ( input[i + 3] & 0xff ) << 24 );
+            c = TABLES[7][low & 0xff] ^ TABLES[6][( low >>> 8 ) & 0xff] ^ TABLES[5][( low >>> 16 ) & 0xff]
+                ^ TABLES[4][low >>> 24] ^ TABLES[3][input[i + 4] & 0xff] ^ TABLES[2][input[i + 5] & 0xff]
+                ^ TABLES[1][input[i + 6] & 0xff] ^ TABLES[0][input[i + 7] & 0xff];
+        }
+        for ( ; i < end; i++ )
+        {
+            c = TABLES[0][( c ^ input[i] ) & 0xff] ^ ( c >>> 8 );
+        }
+        crc = c;
+    }
+
+    protected byte[] engineDigest()
+    {
+        int value = ~crc;
+        crc = 0xffffffff;
+        return new byte[] { (byte) ( value >>> 24 ), (byte) ( value >>> 16 ), (byte) ( value >>> 8 ), (byte) value };
+    }
+
+    protected void engineReset()
+    {
+        crc = 0xffffffff;
+    }
+}
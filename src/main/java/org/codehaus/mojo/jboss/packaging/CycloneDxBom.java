@@ -0,0 +1,187 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A CycloneDX bill of materials listing the libraries staged into a packaging, with their digests. The document
+ * holds no timestamp or serial number, so the same packaging always produces the same document.
+ */
+public class CycloneDxBom
+{
+    /**
+     * The version of the CycloneDX specification written.
+     */
+    public static final String SPEC_VERSION = "1.4";
+
+    /**
+     * The package URL of the packaging.
+     */
+    private final String mainPurl;
+
+    /**
+     * The name of the packaging.
+     */
+    private final String mainName;
+
+    /**
+     * The group of the packaging.
+     */
+    private final String mainGroup;
+
+    /**
+     * The version of the packaging.
+     */
+    private final String mainVersion;
+
+    /**
+     * The components, as JSON objects, in staging order.
+     */
+    private final List components = new ArrayList();
+
+    /**
+     * Create a bill of materials.
+     * 
+     * @param groupId The group of the packaging.
+     * @param artifactId The name of the packaging.
+     * @param version The version of the packaging.
+     * @param type The type of the packaging.
+     */
+    public CycloneDxBom( String groupId, String artifactId, String version, String type )
+    {
+        this.mainGroup = groupId;
+        this.mainName = artifactId;
+        this.mainVersion = version;
+        this.mainPurl = toPurl( groupId, artifactId, version, null, type );
+    }
+
+    /**
+     * Add a library.
+     * 
+     * @param groupId The group of the library.
+     * @param artifactId The name of the library.
+     * @param version The version of the library.
+     * @param classifier The classifier of the library, may be null.
+     * @param type The type of the library.
+     * @param sha256 The SHA-256 digest of the library in hexadecimal, may be null.
+     */
+    public void addComponent( String groupId, String artifactId, String version, String classifier, String type,
+                              String sha256 )
+    {
+        String purl = toPurl( groupId, artifactId, version, classifier, type );
+        StringBuffer buffer = new StringBuffer();
+        buffer.append( "    {\"type\":\"library\",\"bom-ref\":" ).append( JsonLinesListener.quote( purl ) );
+        buffer.append( ",\"group\":" ).append( JsonLinesListener.quote( groupId ) );
+        buffer.append( ",\"name\":" ).append( JsonLinesListener.quote( artifactId ) );
+        buffer.append( ",\"version\":" ).append( JsonLinesListener.quote( version ) );
+        buffer.append( ",\"scope\":\"required\"" );
+        if ( sha256 != null )
+        {
+            buffer.append( ",\"hashes\":[{\"alg\":\"SHA-256\",\"content\":" );
+            buffer.append( JsonLinesListener.quote( sha256 ) ).append( "}]" );
+        }
+        buffer.append( ",\"purl\":" ).append( JsonLinesListener.quote( purl ) ).append( '}' );
+        components.add( buffer.toString() );
+    }
+
+    /**
+     * @return The number of components
+     */
+    public int getComponentCount()
+    {
+        return components.size();
+    }
+
+    /**
+     * Write the bill of materials.
+     * 
+     * @param file The file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public void write( File file )
+        throws IOException
+    {
+        File parent = file.getParentFile();
+        if ( parent != null )
+        {
+            parent.mkdirs();
+        }
+        Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) );
+        try
+        {
+            writer.write( "{\n" );
+            writer.write( "  \"bomFormat\":\"CycloneDX\",\n" );
+            writer.write( "  \"specVersion\":\"" + SPEC_VERSION + "\",\n" );
+            writer.write( "  \"version\":1,\n" );
+            writer.write( "  \"metadata\":{\"component\":{\"type\":\"application\",\"bom-ref\":"
+                + JsonLinesListener.quote( mainPurl ) + ",\"group\":" + JsonLinesListener.quote( mainGroup )
+                + ",\"name\":" + JsonLinesListener.quote( mainName ) + ",\"version\":"
+                + JsonLinesListener.quote( mainVersion ) + ",\"purl\":" + JsonLinesListener.quote( mainPurl )
+                + "}},\n" );
+            writer.write( "  \"components\":[" );
+            for ( Iterator iter = components.iterator(); iter.hasNext(); )
+            {
+                writer.write( "\n" );
+                writer.write( (String) iter.next() );
+                if ( iter.hasNext() )
+                {
+                    writer.write( "," );
+                }
+            }
+            writer.write( components.isEmpty() ? "]\n" : "\n  ]\n" );
+            writer.write( "}\n" );
+        }
+        finally
+        {
+            IOUtil.close( writer );
+        }
+    }
+
+    /**
+     * @return The Maven package URL of an artifact
+     */
+    private static String toPurl( String groupId, String artifactId, String version, String classifier, String type )
+    {
+        StringBuffer buffer = new StringBuffer( "pkg:maven/" );
+        buffer.append( groupId ).append( '/' ).append( artifactId ).append( '@' ).append( version );
+        char separator = '?';
+        if ( classifier != null && classifier.length() > 0 )
+        {
+            buffer.append( separator ).append( "classifier=" ).append( classifier );
+            separator = '&';
+        }
+        if ( type != null && !"jar".equals( type ) )
+        {
+            buffer.append( separator ).append( "type=" ).append( type );
+        }
+        return buffer.toString();
+    }
+}
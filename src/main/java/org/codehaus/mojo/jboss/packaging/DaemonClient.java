@@ -0,0 +1,352 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.PropertyUtils;
+
+/**
+ * Sends packaging requests to a running {@link PackagingDaemon}. The classes and then the libraries of a build are
+ * staged over one connection, which stays open in between.
+ */
+public class DaemonClient
+{
+    /**
+     * The time to wait for the daemon to accept a connection, in milliseconds.
+     */
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    /**
+     * The default time to wait for each response of the daemon, in milliseconds.
+     */
+    public static final int DEFAULT_TIMEOUT = 120000;
+
+    /**
+     * The port of the daemon.
+     */
+    private final int port;
+
+    /**
+     * The token of the daemon.
+     */
+    private final String token;
+
+    /**
+     * The time to wait for each response of the daemon, in milliseconds, 0 to wait forever.
+     */
+    private final int timeout;
+
+    /**
+     * The open connection to the daemon, null between builds.
+     */
+    private Socket socket;
+
+    /**
+     * The stream of the responses of the open connection.
+     */
+    private DataInputStream in;
+
+    /**
+     * The stream of the requests of the open connection.
+     */
+    private DataOutputStream out;
+
+    /**
+     * Create a client waiting for the default time for each response.
+     * 
+     * @param port The port of the daemon.
+     * @param token The token of the daemon.
+     */
+    public DaemonClient( int port, String token )
+    {
+        this( port, token, DEFAULT_TIMEOUT );
+    }
+
+    /**
+     * Create a client.
+     * 
+     * @param port The port of the daemon.
+     * @param token The token of the daemon.
+     * @param timeout The time to wait for each response of the daemon, in milliseconds, 0 to wait forever.
+     */
+    public DaemonClient( int port, String token, int timeout )
+    {
+        this.port = port;
+        this.token = token;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Find the daemon published in a port file, waiting for the default time for each response.
+     * 
+     * @param portFile The port file.
+     * @return The client of the daemon, or null when no daemon of this version is published.
+     */
+    public static DaemonClient find( File portFile )
+    {
+        return find( portFile, DEFAULT_TIMEOUT );
+    }
+
+    /**
+     * Find the daemon published in a port file.
+     * 
+     * @param portFile The port file.
+     * @param timeout The time to wait for each response of the daemon, in milliseconds, 0 to wait forever.
+     * @return The client of the daemon, or null when no daemon of this version of the protocol and of the plugin is
+     *         published.
+     */
+    public static DaemonClient find( File portFile, int timeout )
+    {
+        if ( portFile == null || !portFile.isFile() )
+        {
+            return null;
+        }
+        Properties properties;
+        try
+        {
+            properties = PropertyUtils.loadProperties( portFile );
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+        if ( properties == null || !DaemonProtocol.VERSION.equals( properties.getProperty( "version" ) )
+            || !DaemonProtocol.PLUGIN_VERSION.equals( properties.getProperty( "pluginVersion" ) ) )
+        {
+            return null;
+        }
+        try
+        {
+            return new DaemonClient( Integer.parseInt( properties.getProperty( "port" ) ),
+                                     properties.getProperty( "token" ), timeout );
+        }
+        catch ( NumberFormatException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return The port of the daemon
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * Stage the classes of an engine's request in the daemon, opening the connection its libraries are then staged
+     * over by {@link #stageLibraries(PackagingEngine, PackagingEvents)}.
+     * 
+     * @param engine The engine.
+     * @param events The events notified of the files the daemon staged.
+     * @throws IOException if the daemon could not be reached or did not answer in time.
+     * @throws PackagingException if the daemon could not stage the classes.
+     */
+    public void stageClasses( PackagingEngine engine, PackagingEvents events )
+        throws IOException, PackagingException
+    {
+        close();
+        Properties request = new Properties();
+        request.setProperty( "command", "stageClasses" );
+        request.setProperty( "recordEvents", String.valueOf( events.isEnabled() ) );
+        DaemonProtocol.writeRequest( engine.getRequest(), request );
+        boolean staged = false;
+        try
+        {
+            connect();
+            DaemonProtocol.replayEvents( exchange( request ), events );
+            staged = true;
+        }
+        finally
+        {
+            if ( !staged )
+            {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Stage the libraries of an engine's request in the daemon, over the connection its classes were staged over,
+     * recording the outcome in the engine's result. The connection is closed.
+     * 
+     * @param engine The engine.
+     * @param events The events notified of the files and libraries the daemon staged.
+     * @throws IOException if the daemon could not be reached or did not answer in time.
+     * @throws PackagingException if the daemon could not stage the libraries.
+     */
+    public void stageLibraries( PackagingEngine engine, PackagingEvents events )
+        throws IOException, PackagingException
+    {
+        if ( socket == null )
+        {
+            throw new IOException( "The classes were not staged in the daemon" );
+        }
+        try
+        {
+            Properties request = new Properties();
+            request.setProperty( "command", "stageLibraries" );
+            DaemonProtocol.writeLibraries( engine.getRequest(), request );
+            Properties response = exchange( request );
+            DaemonProtocol.replayEvents( response, events );
+            DaemonProtocol.readResult( response, engine.getResult() );
+        }
+        finally
+        {
+            close();
+        }
+    }
+
+    /**
+     * Close the open connection, if any.
+     */
+    public void close()
+    {
+        if ( socket != null )
+        {
+            try
+            {
+                socket.close();
+            }
+            catch ( IOException e )
+            {
+                // already closed
+            }
+            socket = null;
+            in = null;
+            out = null;
+        }
+    }
+
+    /**
+     * Check that the daemon answers.
+     * 
+     * @throws IOException if the daemon could not be reached.
+     * @throws PackagingException if the daemon refused the request.
+     */
+    public void ping()
+        throws IOException, PackagingException
+    {
+        Properties request = new Properties();
+        request.setProperty( "command", "ping" );
+        send( request );
+    }
+
+    /**
+     * Stop the daemon.
+     * 
+     * @throws IOException if the daemon could not be reached.
+     * @throws PackagingException if the daemon refused the request.
+     */
+    public void stop()
+        throws IOException, PackagingException
+    {
+        Properties request = new Properties();
+        request.setProperty( "command", "stop" );
+        send( request );
+    }
+
+    /**
+     * Send a request over a new connection and wait for the response.
+     * 
+     * @param request The request.
+     * @return The response.
+     * @throws IOException if the daemon could not be reached.
+     * @throws PackagingException if the daemon reported a failure.
+     */
+    private Properties send( Properties request )
+        throws IOException, PackagingException
+    {
+        close();
+        try
+        {
+            connect();
+            return exchange( request );
+        }
+        finally
+        {
+            close();
+        }
+    }
+
+    /**
+     * Open a connection to the daemon.
+     * 
+     * @throws IOException if the daemon could not be reached.
+     */
+    private void connect()
+        throws IOException
+    {
+        Socket connection = new Socket();
+        try
+        {
+            connection.connect( new InetSocketAddress( InetAddress.getByName( null ), port ), CONNECT_TIMEOUT );
+            connection.setSoTimeout( timeout );
+            in = new DataInputStream( new BufferedInputStream( connection.getInputStream() ) );
+            out = new DataOutputStream( new BufferedOutputStream( connection.getOutputStream() ) );
+        }
+        catch ( IOException e )
+        {
+            connection.close();
+            throw e;
+        }
+        socket = connection;
+    }
+
+    /**
+     * Send a request over the open connection and wait for the response.
+     * 
+     * @param request The request.
+     * @return The response.
+     * @throws IOException if the daemon could not be reached, did not answer in time or refused a build of another
+     *             version.
+     * @throws PackagingException if the daemon reported a failure.
+     */
+    private Properties exchange( Properties request )
+        throws IOException, PackagingException
+    {
+        request.setProperty( "token", token );
+        request.setProperty( "version", DaemonProtocol.VERSION );
+        request.setProperty( "pluginVersion", DaemonProtocol.PLUGIN_VERSION );
+        DaemonProtocol.write( out, request );
+        Properties response = DaemonProtocol.read( in );
+        String status = response.getProperty( "status" );
+        if ( "refused".equals( status ) )
+        {
+            throw new IOException( "Packaging daemon refused the request: " + response.getProperty( "message" ) );
+        }
+        if ( !"ok".equals( status ) )
+        {
+            throw new PackagingException( "Packaging daemon failure: " + response.getProperty( "message" ) );
+        }
+        return response;
+    }
+}
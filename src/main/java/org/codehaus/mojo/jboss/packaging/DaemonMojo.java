@@ -0,0 +1,183 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Runs the packaging daemon in the foreground until it is interrupted, or stops the running daemon. While the daemon
+ * runs, the packaging goals of the builds of the user that set <code>packagingDaemon</code> stage their classes and
+ * dependencies in it, and only the files changed since the previous build are copied.
+ * 
+ * @goal daemon
+ * @requiresProject false
+ * @since 2.3
+ */
+public class DaemonMojo
+    extends AbstractMojo
+{
+    /**
+     * The file where the daemon publishes its port.
+     * 
+     * @parameter default-value="${user.home}/.m2/jboss-packaging-daemon.properties"
+     *            expression="${packagingDaemonPortFile}"
+     */
+    private File daemonPortFile;
+
+    /**
+     * The port the daemon listens on, on the loopback interface. Any free port is used by default.
+     * 
+     * @parameter default-value="0" expression="${packagingDaemonPort}"
+     */
+    private int daemonPort;
+
+    /**
+     * Whether to stop the running daemon instead of starting one.
+     * 
+     * @parameter default-value="false" expression="${stop}"
+     */
+    private boolean stop;
+
+    /**
+     * The size, in bytes, of each buffer used to copy files into the packaging directories.
+     * 
+     * @parameter default-value="65536" expression="${stagingBufferSize}"
+     */
+    private int stagingBufferSize = BufferPool.DEFAULT_BUFFER_SIZE;
+
+    /**
+     * The maximum number of bytes of copy buffers held at any one time by the daemon, for all the builds it serves.
+     * 
+     * @parameter default-value="4194304" expression="${stagingMemoryBudget}"
+     */
+    private int stagingMemoryBudget = BufferPool.DEFAULT_BUDGET;
+
+    /**
+     * Main execution for the goal.
+     * 
+     * @throws MojoExecutionException if the daemon could not be started or stopped
+     */
+    public void execute()
+        throws MojoExecutionException
+    {
+        if ( stop )
+        {
+            stopDaemon();
+            return;
+        }
+
+        DaemonClient running = DaemonClient.find( daemonPortFile );
+        if ( running != null )
+        {
+            try
+            {
+                running.ping();
+                throw new MojoExecutionException( "A packaging daemon is already running on port "
+                    + running.getPort() );
+            }
+            catch ( IOException e )
+            {
+                getLog().debug( "Replacing stale port file " + daemonPortFile );
+            }
+            catch ( PackagingException e )
+            {
+                getLog().debug( "Replacing port file of another daemon: " + e.getMessage() );
+            }
+        }
+
+        final PackagingDaemon daemon;
+        try
+        {
+            daemon = new PackagingDaemon( daemonPort, new BufferPool( stagingBufferSize, stagingMemoryBudget ) );
+            daemon.writePortFile( daemonPortFile );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to start the packaging daemon", e );
+        }
+        Thread hook = new Thread()
+        {
+            public void run()
+            {
+                daemon.stop();
+                daemonPortFile.delete();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook( hook );
+
+        getLog().info( "Packaging daemon listening on port " + daemon.getPort() + ", published in "
+                           + daemonPortFile );
+        try
+        {
+            daemon.run();
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "The packaging daemon failed", e );
+        }
+        finally
+        {
+            daemonPortFile.delete();
+            try
+            {
+                Runtime.getRuntime().removeShutdownHook( hook );
+            }
+            catch ( IllegalStateException e )
+            {
+                // the JVM is shutting down
+            }
+        }
+        getLog().info( "Packaging daemon stopped" );
+    }
+
+    /**
+     * Stop the running daemon, if any.
+     * 
+     * @throws MojoExecutionException if the daemon refused to stop
+     */
+    private void stopDaemon()
+        throws MojoExecutionException
+    {
+        DaemonClient running = DaemonClient.find( daemonPortFile );
+        if ( running == null )
+        {
+            getLog().info( "No packaging daemon is running" );
+            return;
+        }
+        try
+        {
+            running.stop();
+            getLog().info( "Stopped the packaging daemon on port " + running.getPort() );
+        }
+        catch ( IOException e )
+        {
+            getLog().info( "No packaging daemon is running, removing port file " + daemonPortFile );
+            daemonPortFile.delete();
+        }
+        catch ( PackagingException e )
+        {
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * The messages exchanged with the {@link PackagingDaemon}. Each message is a set of properties, sent as its length
+ * followed by the properties in their file format. A build stages its classes and then its libraries over a single
+ * connection, so it can stage the deployment descriptor in between as when it stages everything itself; each response
+ * carries the events of the files and libraries the daemon staged, replayed to the listeners of the build.
+ */
+final class DaemonProtocol
+{
+    /**
+     * The version of the protocol, a daemon refuses the requests of another version.
+     */
+    static final String VERSION = "2";
+
+    /**
+     * The version of the plugin, a daemon refuses the requests of another version of the plugin.
+     */
+    static final String PLUGIN_VERSION = readPluginVersion();
+
+    /**
+     * The properties of the plugin, written in its jar by the build.
+     */
+    private static final String POM_PROPERTIES =
+        "/META-INF/maven/org.codehaus.mojo/jboss-packaging-maven-plugin/pom.properties";
+
+    /**
+     * The largest message accepted.
+     */
+    private static final int MAX_MESSAGE = 64 * 1024 * 1024;
+
+    /**
+     * Utility class.
+     */
+    private DaemonProtocol()
+    {
+    }
+
+    /**
+     * @return The version of the plugin, <code>unknown</code> when it does not run from its jar
+     */
+    private static String readPluginVersion()
+    {
+        InputStream in = DaemonProtocol.class.getResourceAsStream( POM_PROPERTIES );
+        if ( in == null )
+        {
+            return "unknown";
+        }
+        try
+        {
+            Properties properties = new Properties();
+            properties.load( in );
+            return properties.getProperty( "version", "unknown" );
+        }
+        catch ( IOException e )
+        {
+            return "unknown";
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * Send a message.
+     * 
+     * @param out The stream to the peer.
+     * @param message The message.
+     * @throws IOException if the message could not be sent.
+     */
+    static void write( DataOutputStream out, Properties message )
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        message.store( bytes, null );
+        out.writeInt( bytes.size() );
+        bytes.writeTo( out );
+        out.flush();
+    }
+
+    /**
+     * Receive a message.
+     * 
+     * @param in The stream from the peer.
+     * @return The message.
+     * @throws IOException if the message could not be received.
+     */
+    static Properties read( DataInputStream in )
+        throws IOException
+    {
+        int length = in.readInt();
+        if ( length < 0 || length > MAX_MESSAGE )
+        {
+            throw new IOException( "Invalid message length " + length );
+        }
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        Properties message = new Properties();
+        message.load( new ByteArrayInputStream( bytes ) );
+        return message;
+    }
+
+    /**
+     * Encode the staging part of a packaging request, except its libraries.
+     * 
+     * @param request The request.
+     * @param message The message to fill.
+     */
+    static void writeRequest( PackagingRequest request, Properties message )
+    {
+        put( message, "packagingDirectory", request.getPackagingDirectory() );
+        put( message, "classesDirectory", request.getClassesDirectory() );
+        put( message, "classesTarget", request.getClassesTarget() );
+        put( message, "packagingIncludes", request.getPackagingIncludes() );
+        put( message, "packagingExcludes", request.getPackagingExcludes() );
+        put( message, "libDirectory", request.getLibDirectory() );
+        put( message, "libUnpackDirectory", request.getLibUnpackDirectory() );
+        put( message, "explodedOnly", String.valueOf( request.isExplodedOnly() ) );
+        put( message, "hashLibraries", String.valueOf( request.isHashLibraries() ) );
+        String[] algorithms = request.getStagingDigestAlgorithms();
+        put( message, "stagingDigestAlgorithms", algorithms == null ? null : StringUtils.join( algorithms, "," ) );
+        put( message, "stagingDigestsFile", request.getStagingDigestsFile() );
+        put( message, "detectClassConflicts", String.valueOf( request.isDetectClassConflicts() ) );
+        put( message, "threads", String.valueOf( request.getThreads() ) );
+    }
+
+    /**
+     * Encode the libraries of a packaging request.
+     * 
+     * @param request The request.
+     * @param message The message to fill.
+     */
+    static void writeLibraries( PackagingRequest request, Properties message )
+    {
+        List libraries = request.getLibraries();
+        message.setProperty( "libraries", String.valueOf( libraries.size() ) );
+        for ( int i = 0; i < libraries.size(); i++ )
+        {
+            PackagingRequest.Library library = (PackagingRequest.Library) libraries.get( i );
+            put( message, "library." + i + ".id", library.getId() );
+            put( message, "library." + i + ".file", library.getFile() );
+            put( message, "library." + i + ".name", library.getName() );
+        }
+    }
+
+    /**
+     * Decode the staging part of a packaging request, without its libraries.
+     * 
+     * @param message The message.
+     * @return The request.
+     * @throws IOException if the message is not a valid request.
+     */
+    static PackagingRequest readRequest( Properties message )
+        throws IOException
+    {
+        PackagingRequest request = new PackagingRequest();
+        request.setPackagingDirectory( getFile( message, "packagingDirectory" ) );
+        request.setClassesDirectory( getFile( message, "classesDirectory" ) );
+        request.setClassesTarget( getFile( message, "classesTarget" ) );
+        request.setPackagingIncludes( message.getProperty( "packagingIncludes" ) );
+        request.setPackagingExcludes( message.getProperty( "packagingExcludes" ) );
+        request.setLibDirectory( getFile( message, "libDirectory" ) );
+        request.setLibUnpackDirectory( getFile( message, "libUnpackDirectory" ) );
+        request.setExplodedOnly( Boolean.valueOf( message.getProperty( "explodedOnly" ) ).booleanValue() );
+        request.setHashLibraries( Boolean.valueOf( message.getProperty( "hashLibraries" ) ).booleanValue() );
+        String algorithms = message.getProperty( "stagingDigestAlgorithms" );
+        request.setStagingDigestAlgorithms( algorithms == null ? null : StringUtils.split( algorithms, "," ) );
+        request.setStagingDigestsFile( getFile( message, "stagingDigestsFile" ) );
+        request.setDetectClassConflicts( Boolean.valueOf( message.getProperty( "detectClassConflicts" ) )
+            .booleanValue() );
+        request.setThreads( getInt( message, "threads" ) );
+        if ( request.getPackagingDirectory() == null || request.getLibDirectory() == null )
+        {
+            throw new IOException( "The packaging and lib directories are required" );
+        }
+        return request;
+    }
+
+    /**
+     * Decode the libraries of a packaging request.
+     * 
+     * @param message The message.
+     * @param request The request to add the libraries to.
+     * @throws IOException if the message does not hold valid libraries.
+     */
+    static void readLibraries( Properties message, PackagingRequest request )
+        throws IOException
+    {
+        int libraries = getInt( message, "libraries" );
+        for ( int i = 0; i < libraries; i++ )
+        {
+            File file = getFile( message, "library." + i + ".file" );
+            if ( file == null )
+            {
+                throw new IOException( "Missing file of library " + i );
+            }
+            request.addLibrary( message.getProperty( "library." + i + ".id" ), file,
+                                message.getProperty( "library." + i + ".name" ) );
+        }
+    }
+
+    /**
+     * Encode the events recorded while staging, emptying the recorder.
+     * 
+     * @param recorder The recorder.
+     * @param message The message to fill.
+     */
+    static void writeEvents( EventRecorder recorder, Properties message )
+    {
+        List events = recorder.drain();
+        message.setProperty( "events", String.valueOf( events.size() ) );
+        for ( int i = 0; i < events.size(); i++ )
+        {
+            message.setProperty( "event." + i, (String) events.get( i ) );
+        }
+    }
+
+    /**
+     * Notify the events of a response.
+     * 
+     * @param message The message.
+     * @param events The events to notify.
+     * @throws IOException if the message does not hold valid events.
+     */
+    static void replayEvents( Properties message, PackagingEvents events )
+        throws IOException
+    {
+        int count = getInt( message, "events" );
+        for ( int i = 0; i < count; i++ )
+        {
+            String event = message.getProperty( "event." + i, "" );
+            int type = event.indexOf( '\t' );
+            int next = type == -1 ? -1 : event.indexOf( '\t', type + 1 );
+            if ( next == -1 )
+            {
+                throw new IOException( "Invalid event " + event );
+            }
+            String name = event.substring( 0, type );
+            String value = event.substring( type + 1, next );
+            String argument = event.substring( next + 1 );
+            if ( "file".equals( name ) )
+            {
+                events.fileStaged( new File( argument ), parseLong( "event." + i, value ) );
+            }
+            else if ( "started".equals( name ) )
+            {
+                events.artifactStarted( argument );
+            }
+            else if ( "packaged".equals( name ) )
+            {
+                events.artifactPackaged( argument, parseLong( "event." + i, value ) );
+            }
+            else if ( "skipped".equals( name ) )
+            {
+                events.artifactSkipped( argument, value );
+            }
+        }
+    }
+
+    /**
+     * Encode the outcome of the staging.
+     * 
+     * @param result The outcome.
+     * @param message The message to fill.
+     */
+    static void writeResult( PackagingResult result, Properties message )
+    {
+        message.setProperty( "libraryCount", String.valueOf( result.getLibraryCount() ) );
+        message.setProperty( "libraryBytes", String.valueOf( result.getLibraryBytes() ) );
+        Map digests = result.getLibraryDigests();
+        message.setProperty( "digests", String.valueOf( digests.size() ) );
+        int i = 0;
+        for ( Iterator iter = digests.entrySet().iterator(); iter.hasNext(); i++ )
+        {
+            Map.Entry entry = (Map.Entry) iter.next();
+            message.setProperty( "digest." + i + ".id", (String) entry.getKey() );
+            message.setProperty( "digest." + i + ".value", (String) entry.getValue() );
+        }
+        Map conflicts = result.getClassConflicts();
+        message.setProperty( "conflicts", String.valueOf( conflicts.size() ) );
+        i = 0;
+        for ( Iterator iter = conflicts.entrySet().iterator(); iter.hasNext(); i++ )
+        {
+            Map.Entry entry = (Map.Entry) iter.next();
+            message.setProperty( "conflict." + i + ".sources", (String) entry.getKey() );
+            message.setProperty( "conflict." + i + ".classes", StringUtils.join( ( (List) entry.getValue() )
+                .iterator(), "," ) );
+        }
+    }
+
+    /**
+     * Decode the outcome of the staging.
+     * 
+     * @param message The message.
+     * @param result The outcome to fill.
+     * @throws IOException if the message is not a valid outcome.
+     */
+    static void readResult( Properties message, PackagingResult result )
+        throws IOException
+    {
+        result.addLibraries( getInt( message, "libraryCount" ), getLong( message, "libraryBytes" ) );
+        int digests = getInt( message, "digests" );
+        for ( int i = 0; i < digests; i++ )
+        {
+            result.putLibraryDigest( message.getProperty( "digest." + i + ".id" ),
+                                     message.getProperty( "digest." + i + ".value" ) );
+        }
+        int count = getInt( message, "conflicts" );
+        if ( count > 0 )
+        {
+            Map conflicts = new LinkedHashMap();
+            for ( int i = 0; i < count; i++ )
+            {
+                String[] classes = StringUtils.split( message.getProperty( "conflict." + i + ".classes", "" ), "," );
+                List list = new ArrayList( classes.length );
+                for ( int j = 0; j < classes.length; j++ )
+                {
+                    list.add( classes[j] );
+                }
+                conflicts.put( message.getProperty( "conflict." + i + ".sources" ), list );
+            }
+            result.setClassConflicts( conflicts );
+        }
+    }
+
+    /**
+     * @param message The message.
+     * @param key The property.
+     * @param value The value, not set when null.
+     */
+    private static void put( Properties message, String key, Object value )
+    {
+        if ( value instanceof File )
+        {
+            message.setProperty( key, ( (File) value ).getAbsolutePath() );
+        }
+        else if ( value != null )
+        {
+            message.setProperty( key, value.toString() );
+        }
+    }
+
+    /**
+     * @param message The message.
+     * @param key The property.
+     * @return The file, null when the property is not set
+     */
+    private static File getFile( Properties message, String key )
+    {
+        String path = message.getProperty( key );
+        return path == null ? null : new File( path );
+    }
+
+    /**
+     * @param message The message.
+     * @param key The property.
+     * @return The value, 0 when the property is not set
+     * @throws IOException if the property is not a number.
+     */
+    static int getInt( Properties message, String key )
+        throws IOException
+    {
+        return (int) getLong( message, key );
+    }
+
+    /**
+     * @param message The message.
+     * @param key The property.
+     * @return The value, 0 when the property is not set
+     * @throws IOException if the property is not a number.
+     */
+    private static long getLong( Properties message, String key )
+        throws IOException
+    {
+        String value = message.getProperty( key );
+        return value == null ? 0 : parseLong( key, value );
+    }
+
+    /**
+     * @param key The property.
+     * @param value The value.
+     * @return The value as a number
+     * @throws IOException if the value is not a number.
+     */
+    private static long parseLong( String key, String value )
+        throws IOException
+    {
+        try
+        {
+            return Long.parseLong( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IOException( "Invalid " + key + ": " + value );
+        }
+    }
+
+    /**
+     * Records the file and library events of the daemon, each as its type, a size or reason and a path or library
+     * identifier separated by tabs, to send them with the response.
+     */
+    static final class EventRecorder
+        implements PackagingListener
+    {
+        /**
+         * The events recorded since the last response.
+         */
+        private List events = new ArrayList();
+
+        /**
+         * @return The events recorded since the last call
+         */
+        synchronized List drain()
+        {
+            List drained = events;
+            events = new ArrayList();
+            return drained;
+        }
+
+        /**
+         * @param type The type of the event.
+         * @param value The size or reason of the event.
+         * @param argument The path or library identifier of the event.
+         */
+        private synchronized void record( String type, String value, String argument )
+        {
+            events.add( type + '\t' + value + '\t' + argument );
+        }
+
+        public void stageStarted( String stage )
+        {
+            // the build times its own stages
+        }
+
+        public void stageFinished( String stage, long elapsed )
+        {
+            // the build times its own stages
+        }
+
+        public void fileStaged( File file, long bytes )
+        {
+            record( "file", String.valueOf( bytes ), file.getPath() );
+        }
+
+        public void artifactStarted( String artifactId )
+        {
+            record( "started", "", artifactId );
+        }
+
+        public void artifactPackaged( String artifactId, long bytes )
+        {
+            record( "packaged", String.valueOf( bytes ), artifactId );
+        }
+
+        public void archiveWritten( File archive, long bytes )
+        {
+            // the daemon does not write archives
+        }
+
+        public void artifactSkipped( String artifactId, String reason )
+        {
+            record( "skipped", StringUtils.replace( reason, "\t", " " ), artifactId );
+        }
+    }
+}
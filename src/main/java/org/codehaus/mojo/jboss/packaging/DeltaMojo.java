@@ -0,0 +1,106 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Writes a delta archive holding the entries of the generated archive which differ from a previously built archive,
+ * and the list of the entries removed since. Entries are compared with the CRC and size of the central directories
+ * and copied without being inflated. Use the <code>apply-delta</code> goal to rebuild the full archive from the
+ * previous archive and the delta.
+ * 
+ * @goal delta
+ * @phase package
+ * @threadSafe
+ * @since 2.3
+ */
+public class DeltaMojo
+    extends AbstractMojo
+{
+    /**
+     * The maven project.
+     * 
+     * @parameter default-value="${project}"
+     * @readonly
+     */
+    private MavenProject project;
+
+    /**
+     * The archive to compare. Defaults to the file of the project artifact generated by the packaging goal.
+     * 
+     * @parameter expression="${archiveFile}"
+     */
+    private File archiveFile;
+
+    /**
+     * The previously built archive to compare with. No delta is written when this file does not exist.
+     * 
+     * @parameter expression="${baselineArchive}"
+     * @required
+     */
+    private File baselineArchive;
+
+    /**
+     * The delta archive to write.
+     * 
+     * @parameter default-value="${project.build.directory}/${project.build.finalName}-delta.zip"
+     *            expression="${deltaFile}"
+     */
+    private File deltaFile;
+
+    /**
+     * Main execution for the goal.
+     * 
+     * @throws MojoExecutionException if the delta could not be written
+     */
+    public void execute()
+        throws MojoExecutionException
+    {
+        File current = archiveFile != null ? archiveFile : project.getArtifact().getFile();
+        if ( current == null || !current.isFile() )
+        {
+            throw new MojoExecutionException( "Could not find archive to compare: " + current );
+        }
+        if ( !baselineArchive.isFile() )
+        {
+            getLog().warn( "Baseline archive " + baselineArchive + " does not exist, no delta generated" );
+            return;
+        }
+
+        getLog().info( "Generating delta of " + current.getName() + " in " + deltaFile );
+        try
+        {
+            ArchiveDelta delta = ArchiveDelta.create( baselineArchive, current, deltaFile );
+            getLog().info( "Delta holds " + delta.getChanged() + " changed entries, " + delta.getRemoved().size()
+                + " removed, " + delta.getUnchanged() + " unchanged" );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to generate delta archive", e );
+        }
+    }
+}
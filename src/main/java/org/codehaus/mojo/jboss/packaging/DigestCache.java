@@ -0,0 +1,625 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A cache of file digests keyed by the path, size and modification time of the files, so that dependencies are only
+ * hashed again when they change. The cache is shared by all the mojos running in this JVM and may be backed by an
+ * index file shared by concurrent builds. The index is append-only: it is read once into memory, records appended by
+ * other processes are picked up on a cache miss, and new digests are appended under a file lock, one complete line
+ * at a time, so readers never see a partial record. The index starts with a generation header; a compaction writes a
+ * new generation to a temporary file and renames it over the index, so readers notice the replacement and read the
+ * new index from the start.
+ */
+public class DigestCache
+{
+    /**
+     * The caches shared by all the mojos running in this JVM, by algorithm and index file.
+     */
+    private static final Map SHARED_CACHES = new HashMap();
+
+    /**
+     * The encoding of the index file.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The minimum number of obsolete records before the index file is compacted.
+     */
+    private static final int COMPACTION_THRESHOLD = 1000;
+
+    /**
+     * The prefix of the header line identifying the generation of the index file.
+     */
+    private static final String GENERATION_HEADER = "#generation ";
+
+    /**
+     * The source of the generations of the index files.
+     */
+    private static final Random GENERATIONS = new Random();
+
+    /**
+     * The digester computing the missing digests.
+     */
+    private final FileDigester digester;
+
+    /**
+     * The index file, null for a cache held in memory only.
+     */
+    private final File indexFile;
+
+    /**
+     * The cached digests, by absolute path.
+     */
+    private final Map entries = new HashMap();
+
+    /**
+     * The length of the index file already read.
+     */
+    private long indexOffset;
+
+    /**
+     * The generation of the index file already read, empty for an index without header.
+     */
+    private String indexGeneration = "";
+
+    /**
+     * The number of records read from the index file, including obsolete ones.
+     */
+    private int indexRecords;
+
+    /**
+     * Create a cache held in memory only.
+     * 
+     * @param digester The digester computing the missing digests.
+     */
+    public DigestCache( FileDigester digester )
+    {
+        this( digester, null );
+    }
+
+    /**
+     * Create a cache backed by an index file.
+     * 
+     * @param digester The digester computing the missing digests.
+     * @param indexFile The index file, null to keep the cache in memory only.
+     */
+    public DigestCache( FileDigester digester, File indexFile )
+    {
+        this.digester = digester;
+        this.indexFile = indexFile;
+        if ( indexFile != null )
+        {
+            synchronized ( entries )
+            {
+                readIndex();
+                if ( indexRecords - entries.size() > Math.max( COMPACTION_THRESHOLD, entries.size() ) )
+                {
+                    compactIndex();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the cache shared by all mojos of this JVM for the algorithm of a digester and an index file.
+     * 
+     * @param digester The digester computing the missing digests.
+     * @param indexDirectory The directory holding the index files, null to keep the cache in memory only.
+     * @return The shared cache.
+     */
+    public static DigestCache getShared( FileDigester digester, File indexDirectory )
+    {
+        File indexFile =
+            indexDirectory == null ? null : new File( indexDirectory, "digests-"
+                + digester.getAlgorithm().toLowerCase().replace( '/', '-' ) + ".idx" ).getAbsoluteFile();
+        String key = digester.getAlgorithm() + ":" + indexFile;
+        synchronized ( SHARED_CACHES )
+        {
+            DigestCache cache = (DigestCache) SHARED_CACHES.get( key );
+            if ( cache == null )
+            {
+                cache = new DigestCache( digester, indexFile );
+                SHARED_CACHES.put( key, cache );
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * @return The digest algorithm
+     */
+    public String getAlgorithm()
+    {
+        return digester.getAlgorithm();
+    }
+
+    /**
+     * Get the digest of a file, computing it unless the file is cached with its current size and modification time.
+     * 
+     * @param file The file.
+     * @return The digest, in hexadecimal.
+     * @throws IOException if the file could not be read.
+     */
+    public String getDigest( File file )
+        throws IOException
+    {
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        synchronized ( entries )
+        {
+            String digest = lookup( path, size, lastModified );
+            if ( digest == null && indexFile != null )
+            {
+                // another build may have hashed the file in the meantime
+                readIndex();
+                digest = lookup( path, size, lastModified );
+            }
+            if ( digest != null )
+            {
+                return digest;
+            }
+        }
+
+        String digest = digester.digest( file );
+        synchronized ( entries )
+        {
+            ChecksumManifest.Entry entry = new ChecksumManifest.Entry( path, size, lastModified, digest );
+            entries.put( path, entry );
+            if ( indexFile != null )
+            {
+                appendIndex( entry );
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Record the digest of a file computed elsewhere, for example while the file was copied.
+     * 
+     * @param file The file.
+     * @param size The size of the file when it was hashed.
+     * @param lastModified The modification time of the file when it was hashed.
+     * @param digest The digest, in hexadecimal.
+     */
+    public void put( File file, long size, long lastModified, String digest )
+    {
+        String path = file.getAbsolutePath();
+        synchronized ( entries )
+        {
+            if ( digest.equals( lookup( path, size, lastModified ) ) )
+            {
+                return;
+            }
+            ChecksumManifest.Entry entry = new ChecksumManifest.Entry( path, size, lastModified, digest );
+            entries.put( path, entry );
+            if ( indexFile != null )
+            {
+                appendIndex( entry );
+            }
+        }
+    }
+
+    /**
+     * Compute in parallel the digests of the files missing from the cache, so that later lookups are hits.
+     * 
+     * @param files The files.
+     * @param threads The number of threads to use.
+     * @throws IOException if a file could not be read.
+     */
+    public void prefetch( List files, int threads )
+        throws IOException
+    {
+        List misses = new ArrayList();
+        synchronized ( entries )
+        {
+            for ( Iterator iter = files.iterator(); iter.hasNext(); )
+            {
+                File file = (File) iter.next();
+                if ( file.isFile() && lookup( file.getAbsolutePath(), file.length(), file.lastModified() ) == null )
+                {
+                    misses.add( file );
+                }
+            }
+        }
+        if ( misses.size() < 2 || threads < 2 )
+        {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( Math.min( threads, misses.size() ) );
+        try
+        {
+            List futures = new ArrayList( misses.size() );
+            for ( int i = 0; i < misses.size(); i++ )
+            {
+                final File file = (File) misses.get( i );
+                futures.add( executor.submit( new Callable()
+                {
+                    public Object call()
+                        throws Exception
+                    {
+                        return getDigest( file );
+                    }
+                } ) );
+            }
+            for ( int i = 0; i < futures.size(); i++ )
+            {
+                ( (Future) futures.get( i ) ).get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while hashing files" );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            IOException ioe = new IOException( "Unable to hash files" );
+            ioe.initCause( e.getCause() );
+            throw ioe;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Look up a cached digest, the caller holding the lock on the entries.
+     * 
+     * @param path The absolute path of the file.
+     * @param size The size of the file.
+     * @param lastModified The modification time of the file.
+     * @return The digest, or null if the file is not cached with this size and modification time.
+     */
+    private String lookup( String path, long size, long lastModified )
+    {
+        ChecksumManifest.Entry entry = (ChecksumManifest.Entry) entries.get( path );
+        if ( entry != null && entry.getSize() == size && entry.getLastModified() == lastModified )
+        {
+            return entry.getDigest();
+        }
+        return null;
+    }
+
+    /**
+     * Read the records appended to the index file since the last read. A failure to read the index only disables the
+     * records which could not be read.
+     */
+    private void readIndex()
+    {
+        if ( !indexFile.isFile() )
+        {
+            return;
+        }
+        RandomAccessFile file = null;
+        try
+        {
+            file = new RandomAccessFile( indexFile, "r" );
+            String generation = readGeneration( file );
+            if ( !generation.equals( indexGeneration ) || file.length() < indexOffset )
+            {
+                // the index was compacted or recreated since it was read
+                indexGeneration = generation;
+                indexOffset = 0;
+            }
+            if ( file.length() <= indexOffset )
+            {
+                return;
+            }
+            file.seek( indexOffset );
+            ByteArrayOutputStream line = new ByteArrayOutputStream( 256 );
+            byte[] buffer = new byte[64 * 1024];
+            long offset = indexOffset;
+            for ( int read = file.read( buffer ); read != -1; read = file.read( buffer ) )
+            {
+                for ( int i = 0; i < read; i++ )
+                {
+                    if ( buffer[i] == '\n' )
+                    {
+                        offset += line.size() + 1;
+                        parseRecord( new String( line.toByteArray(), ENCODING ) );
+                        line.reset();
+                    }
+                    else
+                    {
+                        line.write( buffer[i] );
+                    }
+                }
+            }
+            // an incomplete last line is being written by another process and is read next time
+            indexOffset = offset;
+        }
+        catch ( IOException e )
+        {
+            // the cache still works, it only misses the records that could not be read
+        }
+        finally
+        {
+            close( file );
+        }
+    }
+
+    /**
+     * Read the generation header of an index file.
+     * 
+     * @param file The index file.
+     * @return The generation, empty when the file has no header.
+     * @throws IOException if the file could not be read.
+     */
+    private static String readGeneration( RandomAccessFile file )
+        throws IOException
+    {
+        file.seek( 0 );
+        byte[] header = new byte[GENERATION_HEADER.length() + 40];
+        int length = 0;
+        for ( int read = 0; read != -1 && length < header.length; length += read )
+        {
+            read = file.read( header, length, header.length - length );
+            if ( read == -1 )
+            {
+                break;
+            }
+        }
+        String line = new String( header, 0, length, ENCODING );
+        int end = line.indexOf( '\n' );
+        if ( !line.startsWith( GENERATION_HEADER ) || end < 0 )
+        {
+            return "";
+        }
+        return line.substring( GENERATION_HEADER.length(), end );
+    }
+
+    /**
+     * @return The header line of a new generation of the index file
+     */
+    private static String newGenerationHeader()
+    {
+        long generation;
+        synchronized ( GENERATIONS )
+        {
+            generation = GENERATIONS.nextLong();
+        }
+        return GENERATION_HEADER + Long.toHexString( System.currentTimeMillis() ) + "-"
+            + Long.toHexString( generation ) + "\n";
+    }
+
+    /**
+     * Parse a record of the index file: size, modification time, digest and path separated by tabs.
+     * 
+     * @param record The record.
+     */
+    private void parseRecord( String record )
+    {
+        int first = record.indexOf( '\t' );
+        int second = record.indexOf( '\t', first + 1 );
+        int third = record.indexOf( '\t', second + 1 );
+        if ( first < 0 || second < 0 || third < 0 )
+        {
+            return;
+        }
+        try
+        {
+            long size = Long.parseLong( record.substring( 0, first ) );
+            long lastModified = Long.parseLong( record.substring( first + 1, second ) );
+            String digest = record.substring( second + 1, third );
+            String path = record.substring( third + 1 );
+            entries.put( path, new ChecksumManifest.Entry( path, size, lastModified, digest ) );
+            indexRecords++;
+        }
+        catch ( NumberFormatException e )
+        {
+            // skip the corrupted record
+        }
+    }
+
+    /**
+     * @param entry The entry.
+     * @return The record of the entry in the index file, including the line separator.
+     */
+    private static String toRecord( ChecksumManifest.Entry entry )
+    {
+        return entry.getSize() + "\t" + entry.getLastModified() + "\t" + entry.getDigest() + "\t" + entry.getPath()
+            + "\n";
+    }
+
+    /**
+     * Append a record to the index file under an exclusive lock. A failure only loses the persistence of the record.
+     * An empty index file first gets its generation header. When the index was replaced by a compaction between the
+     * opening of the file and the lock, the record is appended to the new index instead.
+     * 
+     * @param entry The entry to record.
+     */
+    private void appendIndex( ChecksumManifest.Entry entry )
+    {
+        for ( int attempt = 0; attempt < 3; attempt++ )
+        {
+            RandomAccessFile file = null;
+            try
+            {
+                indexFile.getParentFile().mkdirs();
+                file = new RandomAccessFile( indexFile, "rw" );
+                FileChannel channel = file.getChannel();
+                FileLock lock = channel.lock();
+                try
+                {
+                    String record = toRecord( entry );
+                    if ( channel.size() == 0 )
+                    {
+                        record = newGenerationHeader() + record;
+                    }
+                    else if ( !isCurrentIndex( file ) )
+                    {
+                        continue;
+                    }
+                    channel.position( channel.size() );
+                    ByteBuffer bytes = ByteBuffer.wrap( record.getBytes( ENCODING ) );
+                    while ( bytes.hasRemaining() )
+                    {
+                        channel.write( bytes );
+                    }
+                    return;
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            catch ( IOException e )
+            {
+                // the digest stays cached in memory
+                return;
+            }
+            finally
+            {
+                close( file );
+            }
+        }
+    }
+
+    /**
+     * Check that an open index file is still the index, not one replaced by a compaction.
+     * 
+     * @param file The open index file.
+     * @return Whether the file has the generation of the file currently at the index path.
+     * @throws IOException if a file could not be read.
+     */
+    private boolean isCurrentIndex( RandomAccessFile file )
+        throws IOException
+    {
+        RandomAccessFile current = new RandomAccessFile( indexFile, "r" );
+        try
+        {
+            return readGeneration( file ).equals( readGeneration( current ) ) && file.length() == current.length();
+        }
+        finally
+        {
+            close( current );
+        }
+    }
+
+    /**
+     * Replace the index file with a new generation holding only the live records. The new generation is written to a
+     * temporary file and renamed over the index while the lock of the old index is held, so appenders wait for the
+     * replacement and readers never see a partially written index. The index is kept as it is where the platform
+     * cannot rename over an existing file.
+     */
+    private void compactIndex()
+    {
+        RandomAccessFile file = null;
+        File temp = new File( indexFile.getParentFile(), indexFile.getName() + ".compact" );
+        try
+        {
+            file = new RandomAccessFile( indexFile, "rw" );
+            FileChannel channel = file.getChannel();
+            FileLock lock = channel.lock();
+            try
+            {
+                // pick up the records appended since the index was read
+                readIndex();
+                String header = newGenerationHeader();
+                StringBuffer content = new StringBuffer( entries.size() * 128 );
+                content.append( header );
+                for ( Iterator iter = entries.values().iterator(); iter.hasNext(); )
+                {
+                    content.append( toRecord( (ChecksumManifest.Entry) iter.next() ) );
+                }
+                byte[] bytes = content.toString().getBytes( ENCODING );
+                FileOutputStream out = new FileOutputStream( temp );
+                try
+                {
+                    out.write( bytes );
+                }
+                finally
+                {
+                    out.close();
+                }
+                if ( !temp.renameTo( indexFile ) )
+                {
+                    temp.delete();
+                    return;
+                }
+                indexGeneration = header.substring( GENERATION_HEADER.length(), header.length() - 1 );
+                indexOffset = bytes.length;
+                indexRecords = entries.size();
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+        catch ( IOException e )
+        {
+            // keep using the index as it is
+            temp.delete();
+        }
+        finally
+        {
+            close( file );
+        }
+    }
+
+    /**
+     * Close a file, ignoring any failure.
+     * 
+     * @param file The file, may be null.
+     */
+    private static void close( RandomAccessFile file )
+    {
+        if ( file != null )
+        {
+            try
+            {
+                file.close();
+            }
+            catch ( IOException e )
+            {
+                // ignore
+            }
+        }
+    }
+}
@@ -44,4 +44,14 @@ public class ESBExplodedMojo
     {
         buildExplodedPackaging();
     }
+
+    /**
+     * This goal only generates the exploded format.
+     * 
+     * @return true
+     */
+    public boolean isExplodedOnly()
+    {
+        return true;
+    }
 }
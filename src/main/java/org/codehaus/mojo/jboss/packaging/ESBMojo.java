@@ -21,10 +21,12 @@ package org.codehaus.mojo.jboss.packaging;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.maven.plugin.MojoExecutionException;
-import org.codehaus.plexus.util.FileUtils;
 
 /**
  * Builds a deployable JBoss ESB Archive.
@@ -60,6 +62,25 @@ public class ESBMojo
      */
     private File deploymentXml;
 
+    /**
+     * Files and directories laid over the staged archive tree, such as environment specific ESB configuration. The
+     * content of a directory is staged at the root of the archive and a file is staged in <code>META-INF</code>. The
+     * first overlay providing a path wins. Only the entries changed since the last build are staged again, and the
+     * <code>esb-overlay</code> goal stages them without rebuilding the whole archive tree.
+     * 
+     * @parameter
+     * @since 2.3
+     */
+    private File[] overlays;
+
+    /**
+     * The file recording the staged overlay entries.
+     * 
+     * @parameter default-value="${project.build.directory}/jboss-packaging/esb-overlays.manifest"
+     * @since 2.3
+     */
+    private File overlayManifestFile;
+
     /**
      * The location of the jboss deployment descriptor file (jboss-esb.xml) If it is present in
      * src/main/resources/META-INF then it will automatically be included. Otherwise this parameter must be set.
@@ -80,17 +101,165 @@ public class ESBMojo
     protected void buildSpecificPackaging( final Set excludes )
         throws MojoExecutionException
     {
-        final File metainfDir = new File( getOutputDirectory(), META_INF );
+        stageOverlays();
+    }
+
+    /**
+     * Stage the deployment file and the overlays into the packaging directory. The overlay entries whose source is
+     * unchanged since they were last staged are skipped, and the entries no longer provided by an overlay are removed
+     * unless the file was staged again from another source since.
+     * 
+     * @return The number of overlay entries staged.
+     * @throws MojoExecutionException if an overlay could not be staged
+     */
+    protected int stageOverlays()
+        throws MojoExecutionException
+    {
+        final File metainfDir = new File( getPackagingDirectory(), META_INF );
         if ( deploymentXml != null )
         {
-            try
+            filterDescriptor( deploymentXml, new File( metainfDir, DEPLOYMENT_XML ) );
+        }
+        if ( overlays == null && ( overlayManifestFile == null || !overlayManifestFile.exists() ) )
+        {
+            return 0;
+        }
+
+        Map entries = new LinkedHashMap();
+        if ( overlays != null )
+        {
+            for ( int i = 0; i < overlays.length; i++ )
             {
-                FileUtils.copyFile( deploymentXml, new File( metainfDir, DEPLOYMENT_XML ) );
+                if ( overlays[i].isDirectory() )
+                {
+                    collectOverlay( overlays[i], "", entries );
+                }
+                else if ( overlays[i].isFile() )
+                {
+                    String path = META_INF + "/" + overlays[i].getName();
+                    if ( !entries.containsKey( path ) )
+                    {
+                        entries.put( path, overlays[i] );
+                    }
+                }
+                else
+                {
+                    getLog().warn( "Overlay " + overlays[i] + " does not exist" );
+                }
             }
-            catch ( IOException e )
+        }
+
+        ChecksumManifest previous = ChecksumManifest.load( overlayManifestFile );
+        ChecksumManifest current = new ChecksumManifest();
+        int staged = 0;
+        try
+        {
+            for ( Iterator iter = entries.entrySet().iterator(); iter.hasNext(); )
             {
-                throw new MojoExecutionException( "Unable to copy deployment file ", e );
+                Map.Entry entry = (Map.Entry) iter.next();
+                String path = (String) entry.getKey();
+                File source = (File) entry.getValue();
+                File target = new File( getPackagingDirectory(), path );
+                ChecksumManifest.Entry recorded = previous.get( path );
+                boolean unchanged =
+                    recorded != null && recorded.getDigest().equals( source.getAbsolutePath() )
+                        && recorded.getSize() == source.length() && recorded.getLastModified() == source.lastModified()
+                        && target.isFile() && target.length() == source.length()
+                        && target.lastModified() == source.lastModified();
+                if ( !unchanged )
+                {
+                    getFileCopier().copy( source, target );
+                    staged++;
+                }
+                current.put( path, source.length(), source.lastModified(), source.getAbsolutePath() );
             }
+
+            String[] paths = previous.getPaths();
+            for ( int i = 0; i < paths.length; i++ )
+            {
+                if ( current.get( paths[i] ) != null )
+                {
+                    continue;
+                }
+                File target = new File( getPackagingDirectory(), paths[i] );
+                if ( !isOverlayCopy( target, previous.get( paths[i] ) ) )
+                {
+                    getLog().debug( "Kept " + paths[i] + ", staged again since it was laid over" );
+                }
+                else if ( target.delete() )
+                {
+                    getLog().info( "Removed overlay entry " + paths[i] );
+                }
+            }
+
+            current.store( overlayManifestFile );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to stage overlays", e );
+        }
+
+        if ( !entries.isEmpty() )
+        {
+            getLog().info( "Staged " + staged + " of " + entries.size() + " overlay entries" );
+        }
+        return staged;
+    }
+
+    /**
+     * Check whether a staged file is still the copy of an overlay entry: copies keep the size and modification time of
+     * their source, which the overlay manifest records. A file staged again since, from the classes or a library,
+     * has those of its own source and is kept.
+     * 
+     * @param target The staged file.
+     * @param recorded The entry recorded when the overlay was staged.
+     * @return Whether the file is unchanged since the overlay was staged.
+     */
+    private static boolean isOverlayCopy( File target, ChecksumManifest.Entry recorded )
+    {
+        return target.isFile() && target.length() == recorded.getSize()
+            && target.lastModified() == recorded.getLastModified();
+    }
+
+    /**
+     * Collect the files of an overlay directory, unless an earlier overlay provides them.
+     * 
+     * @param directory The directory.
+     * @param prefix The path of the directory in the archive, with a trailing separator.
+     * @param entries The map collecting the source files by path in the archive.
+     */
+    private static void collectOverlay( File directory, String prefix, Map entries )
+    {
+        File[] files = directory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+        for ( int i = 0; i < files.length; i++ )
+        {
+            String path = prefix + files[i].getName();
+            if ( files[i].isDirectory() )
+            {
+                collectOverlay( files[i], path + "/", entries );
+            }
+            else if ( !entries.containsKey( path ) )
+            {
+                entries.put( path, files[i] );
+            }
+        }
+    }
+
+    /**
+     * Adds the deployment file to the descriptors interpolated for each variant.
+     * 
+     * @param descriptors The map collecting the descriptor files by path within the archive.
+     */
+    protected void addDescriptors( Map descriptors )
+    {
+        super.addDescriptors( descriptors );
+        if ( deploymentXml != null )
+        {
+            descriptors.put( META_INF + "/" + DEPLOYMENT_XML, deploymentXml );
         }
     }
 
@@ -0,0 +1,62 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Stages the deployment file and the overlays of a JBoss ESB Archive into its existing packaging directory, without
+ * rebuilding the rest of the archive tree. Only the overlay entries changed since they were last staged are copied;
+ * combined with the sync goal this shortens the iterations on the ESB configuration.
+ * 
+ * @goal esb-overlay
+ * @requiresDependencyResolution runtime
+ * @threadSafe
+ * @since 2.3
+ */
+public class ESBOverlayMojo
+    extends ESBMojo
+{
+    /**
+     * Execute the mojo in the current project.
+     * 
+     * @throws MojoExecutionException For plugin failures.
+     */
+    public void execute()
+        throws MojoExecutionException
+    {
+        if ( !getPackagingDirectory().isDirectory() )
+        {
+            throw new MojoExecutionException( "The packaging directory " + getPackagingDirectory()
+                + " does not exist, run the esb goal first" );
+        }
+        stageOverlays();
+    }
+
+    /**
+     * This goal only updates the exploded format.
+     * 
+     * @return true
+     */
+    public boolean isExplodedOnly()
+    {
+        return true;
+    }
+}
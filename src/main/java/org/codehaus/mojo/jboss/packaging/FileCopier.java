@@ -0,0 +1,467 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Copies files into the staging directory through the buffers of a {@link BufferPool}, so the memory used does not
+ * depend on the size of the files being copied.
+ */
+public class FileCopier
+{
+    /**
+     * The pool providing the copy buffers.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The events notified of the staged files, may be null.
+     */
+    private final PackagingEvents events;
+
+    /**
+     * The files staged by previous copies, null to always copy.
+     */
+    private final ChecksumManifest staged;
+
+    /**
+     * The manifest recording the digests of the copied files, null to compute none.
+     */
+    private final StagingDigests digests;
+
+    /**
+     * Create a copier.
+     * 
+     * @param pool The pool providing the copy buffers.
+     */
+    public FileCopier( BufferPool pool )
+    {
+        this( pool, null );
+    }
+
+    /**
+     * Create a copier notifying the files it writes.
+     * 
+     * @param pool The pool providing the copy buffers.
+     * @param events The events notified of the staged files, may be null.
+     */
+    public FileCopier( BufferPool pool, PackagingEvents events )
+    {
+        this( pool, events, null );
+    }
+
+    /**
+     * Create a copier skipping the files left unchanged since it staged them. Each copy is recorded in a manifest, by
+     * destination, with the source path, size and modification time; a file is copied again when the source or the
+     * destination changed since.
+     * 
+     * @param pool The pool providing the copy buffers.
+     * @param events The events notified of the staged files, may be null.
+     * @param staged The manifest of the files staged by previous copies, null to always copy.
+     */
+    public FileCopier( BufferPool pool, PackagingEvents events, ChecksumManifest staged )
+    {
+        this( pool, events, staged, null );
+    }
+
+    /**
+     * Create a copier computing the digests of the files it writes on the bytes as they are copied, and recording them
+     * in a manifest. A skipped copy keeps the digests recorded by the previous build, the destination is only read
+     * when there are none.
+     * 
+     * @param pool The pool providing the copy buffers.
+     * @param events The events notified of the staged files, may be null.
+     * @param staged The manifest of the files staged by previous copies, null to always copy.
+     * @param digests The manifest recording the digests of the copied files, null to compute none.
+     */
+    public FileCopier( BufferPool pool, PackagingEvents events, ChecksumManifest staged, StagingDigests digests )
+    {
+        this.pool = pool;
+        this.events = events;
+        this.staged = staged;
+        this.digests = digests;
+    }
+
+    /**
+     * Create a copier like this one, recording the digests of the files it writes.
+     * 
+     * @param stagingDigests The manifest recording the digests of the copied files.
+     * @return The copier.
+     */
+    public FileCopier withDigests( StagingDigests stagingDigests )
+    {
+        return new FileCopier( pool, events, staged, stagingDigests );
+    }
+
+    /**
+     * @return The manifest recording the digests of the copied files, null when none are computed
+     */
+    public StagingDigests getStagingDigests()
+    {
+        return digests;
+    }
+
+    /**
+     * @return The pool providing the copy buffers
+     */
+    public BufferPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * Copy a file, creating the parent directories of the destination when required. The last modified time of the
+     * source is kept on the destination.
+     * 
+     * @param source The file to copy.
+     * @param destination The file to write.
+     * @return The number of bytes copied, 0 when the destination is up to date.
+     * @throws IOException if the file could not be copied.
+     */
+    public long copy( File source, File destination )
+        throws IOException
+    {
+        return copy( source, destination, null );
+    }
+
+    /**
+     * Copy a file, updating a digest with its content as it is read, so the file is hashed without being read again.
+     * 
+     * @param source The file to copy.
+     * @param destination The file to write.
+     * @param digest The digest to update, may be null.
+     * @return The number of bytes copied, 0 when the destination is up to date and the digest was not updated.
+     * @throws IOException if the file could not be copied.
+     */
+    public long copy( File source, File destination, MessageDigest digest )
+        throws IOException
+    {
+        if ( !source.exists() )
+        {
+            throw new IOException( "File " + source + " does not exist" );
+        }
+        if ( staged != null && isStaged( source, destination ) )
+        {
+            if ( digests != null && !digests.retain( destination ) )
+            {
+                MessageDigest[] fileDigests = digests.newDigests();
+                digests.record( destination, hash( destination, fileDigests ), fileDigests );
+            }
+            return 0;
+        }
+        File parent = destination.getParentFile();
+        if ( parent != null && !parent.isDirectory() && !parent.mkdirs() )
+        {
+            throw new IOException( "Unable to create directory " + parent );
+        }
+
+        MessageDigest[] fileDigests = digests == null ? null : digests.newDigests();
+        ByteBuffer buffer = acquire();
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        long count = 0;
+        try
+        {
+            in = new FileInputStream( source );
+            out = new FileOutputStream( destination );
+            FileChannel inChannel = in.getChannel();
+            FileChannel outChannel = out.getChannel();
+            while ( inChannel.read( buffer ) != -1 )
+            {
+                buffer.flip();
+                count += buffer.remaining();
+                if ( digest != null )
+                {
+                    update( digest, buffer );
+                }
+                if ( fileDigests != null )
+                {
+                    for ( int i = 0; i < fileDigests.length; i++ )
+                    {
+                        update( fileDigests[i], buffer );
+                    }
+                }
+                while ( buffer.hasRemaining() )
+                {
+                    outChannel.write( buffer );
+                }
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            pool.release( buffer );
+            IOUtil.close( in );
+            IOUtil.close( out );
+        }
+
+        destination.setLastModified( source.lastModified() );
+        if ( staged != null )
+        {
+            staged.put( destination.getAbsolutePath(), count, source.lastModified(), source.getAbsolutePath() );
+        }
+        if ( fileDigests != null )
+        {
+            digests.record( destination, count, fileDigests );
+        }
+        if ( events != null )
+        {
+            events.fileStaged( destination, count );
+        }
+        return count;
+    }
+
+    /**
+     * Check whether a destination still holds the copy of a source recorded in the staging manifest.
+     * 
+     * @param source The file to copy.
+     * @param destination The file to write.
+     * @return Whether neither file changed since the copy.
+     */
+    private boolean isStaged( File source, File destination )
+    {
+        ChecksumManifest.Entry entry = staged.get( destination.getAbsolutePath() );
+        if ( entry == null || !source.getAbsolutePath().equals( entry.getDigest() ) )
+        {
+            return false;
+        }
+        long size = entry.getSize();
+        long lastModified = entry.getLastModified();
+        return source.length() == size && source.lastModified() == lastModified && destination.length() == size
+            && destination.lastModified() == lastModified;
+    }
+
+    /**
+     * Copy a stream into a file, creating the parent directories of the destination when required. The stream is not
+     * closed.
+     * 
+     * @param source The stream to copy.
+     * @param destination The file to write.
+     * @return The number of bytes copied.
+     * @throws IOException if the stream could not be copied.
+     */
+    public long copy( InputStream source, File destination )
+        throws IOException
+    {
+        File parent = destination.getParentFile();
+        if ( parent != null && !parent.isDirectory() && !parent.mkdirs() )
+        {
+            throw new IOException( "Unable to create directory " + parent );
+        }
+
+        MessageDigest[] fileDigests = digests == null ? null : digests.newDigests();
+        ByteBuffer buffer = acquire();
+        FileOutputStream out = null;
+        long count = 0;
+        try
+        {
+            out = new FileOutputStream( destination );
+            ReadableByteChannel inChannel = Channels.newChannel( source );
+            FileChannel outChannel = out.getChannel();
+            while ( inChannel.read( buffer ) != -1 )
+            {
+                buffer.flip();
+                count += buffer.remaining();
+                if ( fileDigests != null )
+                {
+                    for ( int i = 0; i < fileDigests.length; i++ )
+                    {
+                        update( fileDigests[i], buffer );
+                    }
+                }
+                while ( buffer.hasRemaining() )
+                {
+                    outChannel.write( buffer );
+                }
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            pool.release( buffer );
+            IOUtil.close( out );
+        }
+        if ( fileDigests != null )
+        {
+            digests.record( destination, count, fileDigests );
+        }
+        if ( events != null )
+        {
+            events.fileStaged( destination, count );
+        }
+        return count;
+    }
+
+    /**
+     * Copy the content of a directory into another one.
+     * 
+     * @param sourceDirectory The directory to copy.
+     * @param destinationDirectory The directory to copy into.
+     * @return The number of bytes copied.
+     * @throws IOException if a file could not be copied.
+     */
+    public long copyDirectory( File sourceDirectory, File destinationDirectory )
+        throws IOException
+    {
+        return copyDirectory( sourceDirectory, destinationDirectory, null );
+    }
+
+    /**
+     * Copy the files of a directory selected by include and exclude patterns into another one. Subdirectories which
+     * cannot contain any selected file are not walked.
+     * 
+     * @param sourceDirectory The directory to copy.
+     * @param destinationDirectory The directory to copy into.
+     * @param selector The selector of the files to copy, null to copy everything.
+     * @return The number of bytes copied.
+     * @throws IOException if a file could not be copied.
+     */
+    public long copyDirectory( File sourceDirectory, File destinationDirectory, PathSelector selector )
+        throws IOException
+    {
+        return copyDirectory( sourceDirectory, destinationDirectory, selector, selector == null ? null
+                        : selector.root() );
+    }
+
+    /**
+     * Copy the selected files of a directory.
+     * 
+     * @param sourceDirectory The directory to copy.
+     * @param destinationDirectory The directory to copy into.
+     * @param selector The selector of the files to copy, null to copy everything.
+     * @param position The position of the directory in the walk of the selector.
+     * @return The number of bytes copied.
+     * @throws IOException if a file could not be copied.
+     */
+    private long copyDirectory( File sourceDirectory, File destinationDirectory, PathSelector selector,
+                                PathSelector.Position position )
+        throws IOException
+    {
+        long count = 0;
+        File[] files = sourceDirectory.listFiles();
+        if ( files == null )
+        {
+            return count;
+        }
+        destinationDirectory.mkdirs();
+        for ( int i = 0; i < files.length; i++ )
+        {
+            String name = files[i].getName();
+            File target = new File( destinationDirectory, name );
+            if ( files[i].isDirectory() )
+            {
+                PathSelector.Position child = selector == null ? null : selector.enter( position, name );
+                if ( selector == null || child != null )
+                {
+                    count += copyDirectory( files[i], target, selector, child );
+                }
+            }
+            else if ( selector == null || selector.isSelected( position, name ) )
+            {
+                count += copy( files[i], target );
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Update a digest with the remaining bytes of a buffer, leaving its position unchanged.
+     * 
+     * @param digest The digest.
+     * @param buffer The buffer.
+     */
+    private static void update( MessageDigest digest, ByteBuffer buffer )
+    {
+        buffer.mark();
+        digest.update( buffer );
+        buffer.reset();
+    }
+
+    /**
+     * Read a file into digests.
+     * 
+     * @param file The file.
+     * @param fileDigests The digests to update.
+     * @return The number of bytes read.
+     * @throws IOException if the file could not be read.
+     */
+    private long hash( File file, MessageDigest[] fileDigests )
+        throws IOException
+    {
+        ByteBuffer buffer = acquire();
+        FileInputStream in = null;
+        long count = 0;
+        try
+        {
+            in = new FileInputStream( file );
+            FileChannel channel = in.getChannel();
+            while ( channel.read( buffer ) != -1 )
+            {
+                buffer.flip();
+                count += buffer.remaining();
+                for ( int i = 0; i < fileDigests.length; i++ )
+                {
+                    update( fileDigests[i], buffer );
+                }
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            pool.release( buffer );
+            IOUtil.close( in );
+        }
+        return count;
+    }
+
+    /**
+     * Take a buffer from the pool, converting an interruption into an IO failure.
+     * 
+     * @return The buffer.
+     * @throws IOException if the thread was interrupted while waiting for a buffer.
+     */
+    private ByteBuffer acquire()
+        throws IOException
+    {
+        try
+        {
+            return pool.acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for a copy buffer" );
+        }
+    }
+}
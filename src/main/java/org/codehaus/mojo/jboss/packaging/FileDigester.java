@@ -0,0 +1,212 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Computes the digest of files, reading them through the buffers of a {@link BufferPool}.
+ */
+public class FileDigester
+{
+    /**
+     * The default digest algorithm.
+     */
+    public static final String DEFAULT_ALGORITHM = "SHA-256";
+
+    /**
+     * The size from which files are read through memory mapped windows rather than copied into a buffer.
+     */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * The size of the memory mapped windows.
+     */
+    private static final long MAP_WINDOW = 64 * 1024 * 1024;
+
+    /**
+     * The hexadecimal digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The pool providing the read buffers.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The digest algorithm.
+     */
+    private final String algorithm;
+
+    /**
+     * Create a digester.
+     * 
+     * @param pool The pool providing the read buffers.
+     * @param algorithm The digest algorithm.
+     */
+    public FileDigester( BufferPool pool, String algorithm )
+    {
+        this.pool = pool;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @return The digest algorithm
+     */
+    public String getAlgorithm()
+    {
+        return algorithm;
+    }
+
+    /**
+     * Compute the digest of a file.
+     * 
+     * @param file The file.
+     * @return The digest, in hexadecimal.
+     * @throws IOException if the file could not be read.
+     */
+    public String digest( File file )
+        throws IOException
+    {
+        if ( file.length() >= MAP_THRESHOLD )
+        {
+            return digestMapped( file );
+        }
+
+        MessageDigest digest = newDigest( algorithm );
+        ByteBuffer buffer;
+        try
+        {
+            buffer = pool.acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for a read buffer" );
+        }
+        FileInputStream in = null;
+        try
+        {
+            in = new FileInputStream( file );
+            FileChannel channel = in.getChannel();
+            while ( channel.read( buffer ) != -1 )
+            {
+                buffer.flip();
+                digest.update( buffer );
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            pool.release( buffer );
+            IOUtil.close( in );
+        }
+        return toHex( digest.digest() );
+    }
+
+    /**
+     * Compute the digest of a large file through memory mapped windows, so the file is hashed straight from the page
+     * cache without being copied into the heap.
+     * 
+     * @param file The file.
+     * @return The digest, in hexadecimal.
+     * @throws IOException if the file could not be read.
+     */
+    private String digestMapped( File file )
+        throws IOException
+    {
+        MessageDigest digest = newDigest( algorithm );
+        FileInputStream in = new FileInputStream( file );
+        try
+        {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            for ( long position = 0; position < size; position += MAP_WINDOW )
+            {
+                digest.update( channel.map( FileChannel.MapMode.READ_ONLY, position,
+                                            Math.min( MAP_WINDOW, size - position ) ) );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+        return toHex( digest.digest() );
+    }
+
+    /**
+     * Create a message digest. Besides the algorithms of the runtime, <code>CRC32</code> and
+     * <code>CRC32C</code> are always available.
+     * 
+     * @param algorithm The digest algorithm.
+     * @return The message digest.
+     * @throws IOException if the algorithm is not supported.
+     */
+    static MessageDigest newDigest( String algorithm )
+        throws IOException
+    {
+        if ( Crc32cDigest.ALGORITHM.equalsIgnoreCase( algorithm ) )
+        {
+            return new Crc32cDigest();
+        }
+        if ( Crc32Digest.ALGORITHM.equalsIgnoreCase( algorithm ) )
+        {
+            return new Crc32Digest();
+        }
+        try
+        {
+            return MessageDigest.getInstance( algorithm );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            IOException ioe = new IOException( "Unsupported digest algorithm " + algorithm );
+            ioe.initCause( e );
+            throw ioe;
+        }
+    }
+
+    /**
+     * Encode bytes in hexadecimal.
+     * 
+     * @param bytes The bytes.
+     * @return The hexadecimal string.
+     */
+    public static String toHex( byte[] bytes )
+    {
+        char[] chars = new char[bytes.length * 2];
+        for ( int i = 0; i < bytes.length; i++ )
+        {
+            chars[i * 2] = HEX[( bytes[i] >> 4 ) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String( chars );
+    }
+}
@@ -0,0 +1,91 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+
+/**
+ * An iterator over the artifacts of another iterator accepted by a filter. Artifacts are filtered one at a time as the
+ * iteration progresses, no intermediate collection is built.
+ */
+public class FilteringIterator
+    implements Iterator
+{
+    /**
+     * The iterator being filtered.
+     */
+    private final Iterator delegate;
+
+    /**
+     * The filter.
+     */
+    private final ArtifactFilter filter;
+
+    /**
+     * The next accepted artifact, null when not yet looked up.
+     */
+    private Artifact next;
+
+    /**
+     * Create an iterator.
+     * 
+     * @param delegate An iterator over artifacts.
+     * @param filter The filter selecting the artifacts to return.
+     */
+    public FilteringIterator( Iterator delegate, ArtifactFilter filter )
+    {
+        this.delegate = delegate;
+        this.filter = filter;
+    }
+
+    public boolean hasNext()
+    {
+        while ( next == null && delegate.hasNext() )
+        {
+            Artifact candidate = (Artifact) delegate.next();
+            if ( filter.include( candidate ) )
+            {
+                next = candidate;
+            }
+        }
+        return next != null;
+    }
+
+    public Object next()
+    {
+        if ( !hasNext() )
+        {
+            throw new NoSuchElementException();
+        }
+        Artifact result = next;
+        next = null;
+        return result;
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+}
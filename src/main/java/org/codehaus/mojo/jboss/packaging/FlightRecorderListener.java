@@ -0,0 +1,240 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.Event;
+
+/**
+ * Emits the packaging events as Java Flight Recorder events, so a recording of a slow build shows which stage or
+ * dependency dominates it. Stages and dependencies are recorded as duration events carrying the number of files and
+ * bytes staged meanwhile; archives and skipped dependencies as instant events. Events are only built when recording is
+ * enabled for them, and staged files are only counted while an event needs them: the files of a dependency are
+ * counted by the thread staging it, those of a stage on lock-free counters.
+ * <p>
+ * This class links against <code>jdk.jfr</code> and must only be loaded when that package is available, see
+ * {@link AbstractPackagingMojo}.
+ */
+public class FlightRecorderListener
+    implements PackagingListener
+{
+    /**
+     * The running stages by name, with the counters when they started.
+     */
+    private final Map stages = new HashMap();
+
+    /**
+     * The running dependency event of each thread, counting the files the thread stages.
+     */
+    private final ThreadLocal artifacts = new ThreadLocal();
+
+    /**
+     * The number of running stage events.
+     */
+    private volatile int runningStages;
+
+    /**
+     * The number of files staged while a stage event was running.
+     */
+    private final AtomicLong files = new AtomicLong();
+
+    /**
+     * The number of bytes staged while a stage event was running.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    public void stageStarted( String stage )
+    {
+        StageEvent event = new StageEvent();
+        if ( !event.isEnabled() )
+        {
+            return;
+        }
+        event.stage = stage;
+        synchronized ( this )
+        {
+            runningStages++;
+            event.files = files.get();
+            event.bytes = bytes.get();
+            stages.put( stage, event );
+        }
+        event.begin();
+    }
+
+    public void stageFinished( String stage, long elapsed )
+    {
+        StageEvent event;
+        synchronized ( this )
+        {
+            event = (StageEvent) stages.remove( stage );
+            if ( event == null )
+            {
+                return;
+            }
+            runningStages--;
+            event.files = files.get() - event.files;
+            event.bytes = bytes.get() - event.bytes;
+        }
+        event.commit();
+    }
+
+    public void fileStaged( File file, long size )
+    {
+        ArtifactEvent artifact = (ArtifactEvent) artifacts.get();
+        if ( artifact != null )
+        {
+            artifact.files++;
+        }
+        if ( runningStages > 0 )
+        {
+            files.incrementAndGet();
+            bytes.addAndGet( size );
+        }
+    }
+
+    public void artifactStarted( String artifactId )
+    {
+        ArtifactEvent event = new ArtifactEvent();
+        if ( !event.isEnabled() )
+        {
+            return;
+        }
+        event.artifact = artifactId;
+        artifacts.set( event );
+        event.begin();
+    }
+
+    public void artifactPackaged( String artifactId, long size )
+    {
+        ArtifactEvent event = (ArtifactEvent) artifacts.get();
+        if ( event == null )
+        {
+            return;
+        }
+        artifacts.set( null );
+        event.end();
+        event.bytes = size;
+        event.commit();
+    }
+
+    public void archiveWritten( File archive, long size )
+    {
+        ArchiveEvent event = new ArchiveEvent();
+        if ( event.isEnabled() )
+        {
+            event.path = archive.getPath();
+            event.bytes = size;
+            event.commit();
+        }
+    }
+
+    public void artifactSkipped( String artifactId, String reason )
+    {
+        ArtifactSkippedEvent event = new ArtifactSkippedEvent();
+        if ( event.isEnabled() )
+        {
+            event.artifact = artifactId;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+
+    /**
+     * A stage of the packaging, such as <code>dependencies</code> or <code>archive</code>.
+     */
+    public static class StageEvent
+        extends Event
+    {
+        /**
+         * The name of the stage.
+         */
+        String stage;
+
+        /**
+         * The number of files staged during the stage.
+         */
+        long files;
+
+        /**
+         * The number of bytes staged during the stage.
+         */
+        long bytes;
+    }
+
+    /**
+     * The packaging of a dependency.
+     */
+    public static class ArtifactEvent
+        extends Event
+    {
+        /**
+         * The coordinates of the dependency.
+         */
+        String artifact;
+
+        /**
+         * The number of files staged for the dependency.
+         */
+        long files;
+
+        /**
+         * The size of the dependency file.
+         */
+        long bytes;
+    }
+
+    /**
+     * An archive written by the packaging.
+     */
+    public static class ArchiveEvent
+        extends Event
+    {
+        /**
+         * The path of the archive.
+         */
+        String path;
+
+        /**
+         * The compressed size of the archive.
+         */
+        long bytes;
+    }
+
+    /**
+     * A dependency left out of the packaging.
+     */
+    public static class ArtifactSkippedEvent
+        extends Event
+    {
+        /**
+         * The coordinates of the dependency.
+         */
+        String artifact;
+
+        /**
+         * Why the dependency was skipped.
+         */
+        String reason;
+    }
+}
@@ -45,4 +45,13 @@ public class HarExplodedMojo
         buildExplodedPackaging();
     }
 
+    /**
+     * This goal only generates the exploded format.
+     * 
+     * @return true
+     */
+    public boolean isExplodedOnly()
+    {
+        return true;
+    }
 }
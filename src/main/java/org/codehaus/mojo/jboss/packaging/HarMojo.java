@@ -71,22 +71,34 @@ public class HarMojo
 
         // Look for deployment descriptor in the standard places
         File metaInf = new File( getProject().getBuild().getOutputDirectory(), "META-INF" );
+        deploymentDescriptorFile = findDeploymentDescriptor( metaInf );
+        return deploymentDescriptorFile;
+    }
 
+    /**
+     * Search a META-INF directory for a hibernate deployment descriptor: "jboss-service.xml",
+     * "hibernate-service.xml" and "*-hibernate.xml", in that order.
+     * 
+     * @param metaInf The META-INF directory.
+     * @return The descriptor, or null if none was found.
+     */
+    static File findDeploymentDescriptor( File metaInf )
+    {
         if ( !metaInf.exists() )
         {
             return null;
         }
 
-        deploymentDescriptorFile = new File( metaInf, "jboss-service.xml" );
-        if ( deploymentDescriptorFile.exists() )
+        File descriptor = new File( metaInf, "jboss-service.xml" );
+        if ( descriptor.exists() )
         {
-            return deploymentDescriptorFile;
+            return descriptor;
         }
 
-        deploymentDescriptorFile = new File( metaInf, "hibernate-service.xml" );
-        if ( deploymentDescriptorFile.exists() )
+        descriptor = new File( metaInf, "hibernate-service.xml" );
+        if ( descriptor.exists() )
         {
-            return deploymentDescriptorFile;
+            return descriptor;
         }
 
         // Look for "*-hibernate.xml" in META-INF
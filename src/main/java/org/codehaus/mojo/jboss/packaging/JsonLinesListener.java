@@ -0,0 +1,182 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Writes the packaging events to a file, one JSON object per line, for build analytics. Each object holds the
+ * <code>time</code> in milliseconds since the epoch, the <code>event</code> name and the event fields.
+ */
+public class JsonLinesListener
+    implements PackagingListener
+{
+    /**
+     * The writer of the event log.
+     */
+    private final Writer writer;
+
+    /**
+     * The first write failure, reported when the log is closed.
+     */
+    private IOException failure;
+
+    /**
+     * Create a listener appending to a file.
+     * 
+     * @param file The event log.
+     * @throws IOException if the file could not be opened.
+     */
+    public JsonLinesListener( File file )
+        throws IOException
+    {
+        File parent = file.getParentFile();
+        if ( parent != null )
+        {
+            parent.mkdirs();
+        }
+        writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file, true ), "UTF-8" ) );
+    }
+
+    public void stageStarted( String stage )
+    {
+        write( "{\"event\":\"stageStarted\",\"stage\":" + quote( stage ) );
+    }
+
+    public void stageFinished( String stage, long elapsed )
+    {
+        write( "{\"event\":\"stageFinished\",\"stage\":" + quote( stage ) + ",\"elapsed\":" + elapsed );
+    }
+
+    public void fileStaged( File file, long bytes )
+    {
+        write( "{\"event\":\"fileStaged\",\"path\":" + quote( file.getPath() ) + ",\"bytes\":" + bytes );
+    }
+
+    public void artifactStarted( String artifactId )
+    {
+    }
+
+    public void artifactPackaged( String artifactId, long bytes )
+    {
+        write( "{\"event\":\"artifactPackaged\",\"artifact\":" + quote( artifactId ) + ",\"bytes\":" + bytes );
+    }
+
+    public void archiveWritten( File archive, long bytes )
+    {
+        write( "{\"event\":\"archiveWritten\",\"path\":" + quote( archive.getPath() ) + ",\"bytes\":" + bytes );
+    }
+
+    public void artifactSkipped( String artifactId, String reason )
+    {
+        write( "{\"event\":\"artifactSkipped\",\"artifact\":" + quote( artifactId ) + ",\"reason\":"
+            + quote( reason ) );
+    }
+
+    /**
+     * Flush and close the event log.
+     * 
+     * @throws IOException if an event could not be written.
+     */
+    public synchronized void close()
+        throws IOException
+    {
+        IOUtil.close( writer );
+        if ( failure != null )
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Write an event line.
+     * 
+     * @param event The JSON object of the event, without the time field and the closing brace.
+     */
+    private synchronized void write( String event )
+    {
+        if ( failure != null )
+        {
+            return;
+        }
+        try
+        {
+            writer.write( "{\"time\":" + System.currentTimeMillis() + "," + event.substring( 1 ) + "}\n" );
+        }
+        catch ( IOException e )
+        {
+            failure = e;
+        }
+    }
+
+    /**
+     * @param value A string.
+     * @return The string as a JSON literal
+     */
+    static String quote( String value )
+    {
+        if ( value == null )
+        {
+            return "null";
+        }
+        StringBuffer buffer = new StringBuffer( value.length() + 2 );
+        buffer.append( '"' );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            switch ( c )
+            {
+                case '"':
+                    buffer.append( "\\\"" );
+                    break;
+                case '\\':
+                    buffer.append( "\\\\" );
+                    break;
+                case '\n':
+                    buffer.append( "\\n" );
+                    break;
+                case '\r':
+                    buffer.append( "\\r" );
+                    break;
+                case '\t':
+                    buffer.append( "\\t" );
+                    break;
+                default:
+                    if ( c < 0x20 )
+                    {
+                        String hex = Integer.toHexString( c );
+                        buffer.append( "\\u0000".substring( 0, 6 - hex.length() ) ).append( hex );
+                    }
+                    else
+                    {
+                        buffer.append( c );
+                    }
+            }
+        }
+        return buffer.append( '"' ).toString();
+    }
+}
@@ -0,0 +1,277 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Merges the content of dependency jars into the root of the packaged archive instead of nesting them under
+ * <code>lib/</code>. The jar manifests and signature files are left out, since the signatures do not hold for the
+ * merged archive, and the <code>META-INF/services</code> provider files of all the jars are concatenated instead of
+ * the first one shadowing the others. When the archive is generated the entries are streamed from the jars straight
+ * into it; when only the exploded format is generated they are extracted into the packaging directory.
+ */
+public class LibFlattener
+{
+    /**
+     * The directory of the service provider files.
+     */
+    static final String SERVICES_PREFIX = "META-INF/services/";
+
+    /**
+     * The entries of the jars not merged into the archive.
+     */
+    static final String[] EXCLUDES =
+        new String[] { "META-INF/MANIFEST.MF", "META-INF/INDEX.LIST", "META-INF/*.SF", "META-INF/*.DSA",
+            "META-INF/*.RSA", "META-INF/*.EC", "META-INF/SIG-*", SERVICES_PREFIX + "**" };
+
+    /**
+     * The selector of the merged entries.
+     */
+    private static final PathSelector SELECTOR = new PathSelector( null, EXCLUDES );
+
+    /**
+     * The jars merged so far, in packaging order.
+     */
+    private final List jars = new ArrayList();
+
+    /**
+     * The paths already extracted, as the first jar providing a path takes precedence.
+     */
+    private final Set extracted = new HashSet();
+
+    /**
+     * Check whether a file may be flattened into the archive.
+     * 
+     * @param file The dependency file.
+     * @return Whether the file is a jar.
+     */
+    public static boolean isFlattenable( File file )
+    {
+        return file != null && file.isFile() && file.getName().endsWith( ".jar" );
+    }
+
+    /**
+     * Record a jar to merge into the generated archive.
+     * 
+     * @param jar The jar.
+     */
+    public void add( File jar )
+    {
+        jars.add( jar );
+    }
+
+    /**
+     * Extract a jar into the exploded packaging, skipping the paths provided by the project classes or by a jar
+     * extracted before.
+     * 
+     * @param jar The jar.
+     * @param directory The packaging directory.
+     * @param classesDirectory The project classes, which take precedence over the jar entries.
+     * @param copier The copier writing the entries.
+     * @throws IOException if the jar could not be extracted.
+     */
+    public void extract( File jar, File directory, File classesDirectory, FileCopier copier )
+        throws IOException
+    {
+        jars.add( jar );
+        ZipFile zip = new ZipFile( jar );
+        try
+        {
+            for ( Enumeration entries = zip.entries(); entries.hasMoreElements(); )
+            {
+                ZipEntry entry = (ZipEntry) entries.nextElement();
+                String path = entry.getName();
+                if ( entry.isDirectory() || isExcluded( path ) || !extracted.add( path )
+                    || classesDirectory != null && new File( classesDirectory, path ).exists() )
+                {
+                    continue;
+                }
+                File target = new File( directory, path );
+                InputStream in = zip.getInputStream( entry );
+                try
+                {
+                    copier.copy( in, target );
+                }
+                finally
+                {
+                    IOUtil.close( in );
+                }
+                if ( entry.getTime() != -1 )
+                {
+                    target.setLastModified( entry.getTime() );
+                }
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    /**
+     * Add the recorded jars to an archive. The archiver skips the paths it already holds, so the jars must be added
+     * after the packaging directory for the project classes to take precedence.
+     * 
+     * @param archiver The archiver.
+     */
+    public void addTo( JarArchiver archiver )
+    {
+        for ( Iterator iter = jars.iterator(); iter.hasNext(); )
+        {
+            archiver.addArchivedFileSet( (File) iter.next(), null, EXCLUDES );
+        }
+    }
+
+    /**
+     * Merge the service provider files of the recorded jars with those of the project classes into the packaging
+     * directory. Each provider is listed once, those of the project first. The files already in the packaging directory
+     * are not read, since they may be the merged output of a previous build listing the providers of dependencies
+     * removed since.
+     * 
+     * @param directory The packaging directory.
+     * @param classesDirectory The project classes, may be null.
+     * @return The number of service provider files written.
+     * @throws IOException if a provider file could not be read or written.
+     */
+    public int mergeServices( File directory, File classesDirectory )
+        throws IOException
+    {
+        Map services = new TreeMap();
+        for ( Iterator iter = jars.iterator(); iter.hasNext(); )
+        {
+            File jar = (File) iter.next();
+            ZipFile zip = new ZipFile( jar );
+            try
+            {
+                for ( Enumeration entries = zip.entries(); entries.hasMoreElements(); )
+                {
+                    ZipEntry entry = (ZipEntry) entries.nextElement();
+                    String path = entry.getName();
+                    if ( !entry.isDirectory() && path.startsWith( SERVICES_PREFIX )
+                        && path.indexOf( '/', SERVICES_PREFIX.length() ) < 0 )
+                    {
+                        Set providers = (Set) services.get( path );
+                        if ( providers == null )
+                        {
+                            providers = new LinkedHashSet();
+                            File existing = classesDirectory == null ? null : new File( classesDirectory, path );
+                            if ( existing != null && existing.isFile() )
+                            {
+                                readProviders( new FileInputStream( existing ), providers );
+                            }
+                            services.put( path, providers );
+                        }
+                        readProviders( zip.getInputStream( entry ), providers );
+                    }
+                }
+            }
+            finally
+            {
+                zip.close();
+            }
+        }
+
+        for ( Iterator iter = services.entrySet().iterator(); iter.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) iter.next();
+            File target = new File( directory, (String) entry.getKey() );
+            target.getParentFile().mkdirs();
+            Writer writer = new OutputStreamWriter( new FileOutputStream( target ), "UTF-8" );
+            try
+            {
+                for ( Iterator providers = ( (Set) entry.getValue() ).iterator(); providers.hasNext(); )
+                {
+                    writer.write( (String) providers.next() );
+                    writer.write( '\n' );
+                }
+            }
+            finally
+            {
+                IOUtil.close( writer );
+            }
+        }
+        return services.size();
+    }
+
+    /**
+     * Read the provider names of a service provider file, without comments and blank lines.
+     * 
+     * @param in The content of the file, closed once read.
+     * @param providers The set collecting the provider names.
+     * @throws IOException if the file could not be read.
+     */
+    private static void readProviders( InputStream in, Set providers )
+        throws IOException
+    {
+        BufferedReader reader = new BufferedReader( new InputStreamReader( in, "UTF-8" ) );
+        try
+        {
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                int comment = line.indexOf( '#' );
+                if ( comment >= 0 )
+                {
+                    line = line.substring( 0, comment );
+                }
+                line = line.trim();
+                if ( line.length() > 0 )
+                {
+                    providers.add( line );
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+    }
+
+    /**
+     * @param path The path of a jar entry.
+     * @return Whether the entry is left out of the merged archive
+     */
+    static boolean isExcluded( String path )
+    {
+        return !SELECTOR.isSelected( path );
+    }
+}
@@ -0,0 +1,171 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+
+/**
+ * A JBoss archive embedded in the packaged archive, built from a staged directory tree. When the outer archive is
+ * generated the nested archive is streamed straight into it, so it is never written to disk on its own; when only the
+ * exploded format is generated the tree is staged as an exploded nested deployment.
+ */
+public class NestedArchive
+{
+    /**
+     * The type of the nested archive: <code>sar</code>, <code>har</code> or <code>aop</code>.
+     */
+    private String type;
+
+    /**
+     * The staged directory tree holding the content of the nested archive, for example the classes directory of
+     * another module.
+     */
+    private File directory;
+
+    /**
+     * The path of the nested archive within the packaged archive. Defaults to the name of the directory with the
+     * extension of the type.
+     */
+    private String name;
+
+    /**
+     * The deployment descriptor of the nested archive. Defaults to the descriptor of the type found in the
+     * <code>META-INF</code> directory of the tree, as for the corresponding packaging goal.
+     */
+    private File deploymentDescriptorFile;
+
+    /**
+     * A comma separated list of Ant-style patterns of the files of the tree to leave out of the nested archive.
+     */
+    private String excludes;
+
+    /**
+     * @return The type of the nested archive
+     */
+    public String getType()
+    {
+        return type;
+    }
+
+    /**
+     * @param type The type of the nested archive
+     */
+    public void setType( String type )
+    {
+        this.type = type;
+    }
+
+    /**
+     * @return The directory tree holding the content of the nested archive
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * @param directory The directory tree holding the content of the nested archive
+     */
+    public void setDirectory( File directory )
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * @return The path of the nested archive within the packaged archive, may be null
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @param name The path of the nested archive within the packaged archive
+     */
+    public void setName( String name )
+    {
+        this.name = name;
+    }
+
+    /**
+     * @return The deployment descriptor of the nested archive, may be null
+     */
+    public File getDeploymentDescriptorFile()
+    {
+        return deploymentDescriptorFile;
+    }
+
+    /**
+     * @param deploymentDescriptorFile The deployment descriptor of the nested archive
+     */
+    public void setDeploymentDescriptorFile( File deploymentDescriptorFile )
+    {
+        this.deploymentDescriptorFile = deploymentDescriptorFile;
+    }
+
+    /**
+     * @return The exclude patterns, may be null
+     */
+    public String getExcludes()
+    {
+        return excludes;
+    }
+
+    /**
+     * @param excludes The exclude patterns
+     */
+    public void setExcludes( String excludes )
+    {
+        this.excludes = excludes;
+    }
+
+    /**
+     * Find the deployment descriptor of the nested archive, using the same defaults as the packaging goal of its type.
+     * 
+     * @return The descriptor, or null if there is none.
+     */
+    public File findDeploymentDescriptor()
+    {
+        if ( deploymentDescriptorFile != null )
+        {
+            return deploymentDescriptorFile;
+        }
+        File metaInf = new File( directory, "META-INF" );
+        if ( "har".equals( type ) )
+        {
+            return HarMojo.findDeploymentDescriptor( metaInf );
+        }
+        if ( "sar".equals( type ) )
+        {
+            return new File( metaInf, SarMojo.DEPLOYMENT_DESCRIPTOR_NAME );
+        }
+        if ( "aop".equals( type ) )
+        {
+            return new File( metaInf, AopMojo.DEPLOYMENT_DESCRIPTOR_NAME );
+        }
+        return null;
+    }
+
+    public String toString()
+    {
+        return type + ":" + directory;
+    }
+}
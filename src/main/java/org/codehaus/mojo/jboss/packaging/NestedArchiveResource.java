@@ -0,0 +1,274 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.URL;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.components.io.resources.AbstractPlexusIoResource;
+import org.codehaus.plexus.components.io.resources.PlexusIoResource;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A resource whose content is a zip archive of a directory tree, produced on the fly by a separate thread while the
+ * outer archive reads it. Only the pipe buffer is held in memory. The entries of the nested archive are stored
+ * without compression since the outer archive compresses them anyway.
+ */
+class NestedArchiveResource
+    extends AbstractPlexusIoResource
+{
+    /**
+     * The size of the pipe between the producing thread and the archiver.
+     */
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    /**
+     * The directory tree archived.
+     */
+    private final File directory;
+
+    /**
+     * The deployment descriptor to add when it is not part of the tree, may be null.
+     */
+    private final File descriptor;
+
+    /**
+     * The path of the descriptor in the nested archive.
+     */
+    private final String descriptorPath;
+
+    /**
+     * The selector of the files of the tree, may be null.
+     */
+    private final PathSelector selector;
+
+    /**
+     * Create a resource.
+     * 
+     * @param name The path of the nested archive within the outer archive.
+     * @param directory The directory tree archived.
+     * @param descriptor The deployment descriptor to add when it is not part of the tree, may be null.
+     * @param selector The selector of the files of the tree, may be null.
+     */
+    NestedArchiveResource( String name, File directory, File descriptor, PathSelector selector )
+    {
+        super( name, directory.lastModified(), PlexusIoResource.UNKNOWN_RESOURCE_SIZE, true, false, true );
+        this.directory = directory;
+        this.descriptor = descriptor;
+        this.descriptorPath = descriptor == null ? null : "META-INF/" + descriptor.getName();
+        this.selector = selector;
+    }
+
+    public URL getURL()
+    {
+        return null;
+    }
+
+    public InputStream getContents()
+        throws IOException
+    {
+        final PipedInputStream pipe = new PipedInputStream( PIPE_SIZE );
+        final PipedOutputStream out = new PipedOutputStream( pipe );
+        final ProducerInputStream in = new ProducerInputStream( pipe );
+        Thread producer = new Thread( "nested-archive-" + getName() )
+        {
+            public void run()
+            {
+                ZipOutputStream zip = new ZipOutputStream( out );
+                zip.setLevel( Deflater.NO_COMPRESSION );
+                try
+                {
+                    byte[] buffer = new byte[8192];
+                    boolean descriptorWritten =
+                        writeDirectory( zip, directory, "", selector == null ? null : selector.root(), buffer );
+                    if ( descriptor != null && !descriptorWritten )
+                    {
+                        writeFile( zip, descriptor, descriptorPath, buffer );
+                    }
+                    zip.finish();
+                }
+                catch ( Throwable t )
+                {
+                    in.setFailure( t );
+                }
+                finally
+                {
+                    IOUtil.close( zip );
+                }
+            }
+        };
+        producer.setDaemon( true );
+        producer.start();
+        return in;
+    }
+
+    /**
+     * Write the selected files of a directory.
+     * 
+     * @param zip The nested archive.
+     * @param dir The directory.
+     * @param prefix The path of the directory in the archive.
+     * @param position The position of the directory in the walk of the selector.
+     * @param buffer The copy buffer.
+     * @return Whether the deployment descriptor was found in the tree.
+     * @throws IOException if a file could not be written.
+     */
+    private boolean writeDirectory( ZipOutputStream zip, File dir, String prefix, PathSelector.Position position,
+                                    byte[] buffer )
+        throws IOException
+    {
+        boolean descriptorWritten = false;
+        File[] files = dir.listFiles();
+        if ( files == null )
+        {
+            return false;
+        }
+        for ( int i = 0; i < files.length; i++ )
+        {
+            String name = files[i].getName();
+            String path = prefix + name;
+            if ( files[i].isDirectory() )
+            {
+                PathSelector.Position child = selector == null ? null : selector.enter( position, name );
+                if ( selector == null || child != null )
+                {
+                    zip.putNextEntry( new ZipEntry( path + "/" ) );
+                    zip.closeEntry();
+                    descriptorWritten |= writeDirectory( zip, files[i], path + "/", child, buffer );
+                }
+            }
+            else if ( selector == null || selector.isSelected( position, name ) )
+            {
+                File source = files[i];
+                if ( path.equals( descriptorPath ) && descriptor != null )
+                {
+                    source = descriptor;
+                    descriptorWritten = true;
+                }
+                writeFile( zip, source, path, buffer );
+            }
+        }
+        return descriptorWritten;
+    }
+
+    /**
+     * Write a file into the nested archive.
+     * 
+     * @param zip The nested archive.
+     * @param file The file.
+     * @param path The path of the file in the archive.
+     * @param buffer The copy buffer.
+     * @throws IOException if the file could not be written.
+     */
+    private static void writeFile( ZipOutputStream zip, File file, String path, byte[] buffer )
+        throws IOException
+    {
+        ZipEntry entry = new ZipEntry( path );
+        entry.setTime( file.lastModified() );
+        zip.putNextEntry( entry );
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            for ( int read = in.read( buffer ); read != -1; read = in.read( buffer ) )
+            {
+                zip.write( buffer, 0, read );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+        zip.closeEntry();
+    }
+
+    /**
+     * The reading end of the pipe, reporting the failure of the producing thread to the archiver.
+     */
+    private static class ProducerInputStream
+        extends FilterInputStream
+    {
+        /**
+         * The failure of the producer, if any.
+         */
+        private volatile Throwable failure;
+
+        /**
+         * @param in The reading end of the pipe.
+         */
+        ProducerInputStream( InputStream in )
+        {
+            super( in );
+        }
+
+        /**
+         * @param failure The failure of the producer.
+         */
+        void setFailure( Throwable failure )
+        {
+            this.failure = failure;
+        }
+
+        public int read()
+            throws IOException
+        {
+            int result = super.read();
+            if ( result == -1 )
+            {
+                checkFailure();
+            }
+            return result;
+        }
+
+        public int read( byte[] b, int off, int len )
+            throws IOException
+        {
+            int result = super.read( b, off, len );
+            if ( result == -1 )
+            {
+                checkFailure();
+            }
+            return result;
+        }
+
+        /**
+         * @throws IOException if the producer failed
+         */
+        private void checkFailure()
+            throws IOException
+        {
+            if ( failure != null )
+            {
+                IOException e = new IOException( "Unable to build nested archive: " + failure.getMessage() );
+                e.initCause( failure );
+                throw e;
+            }
+        }
+    }
+}
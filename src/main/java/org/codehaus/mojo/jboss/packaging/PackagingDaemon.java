@@ -0,0 +1,503 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A long-lived process staging the classes and libraries of packaging requests sent by the packaging mojos. The
+ * daemon keeps in memory, across builds, the manifest of the files staged in each packaging directory, so unchanged
+ * files are not copied again, along with the compiled include and exclude patterns and the copy buffers, and its code
+ * stays compiled by the JIT.
+ * <p>
+ * The daemon listens on the loopback interface and publishes its port in a port file, with a random token each
+ * request must present and the version of the plugin it runs; the requests of another version are refused. The mojos
+ * stage in the build itself when the port file is missing or the daemon does not answer in time.
+ */
+public class PackagingDaemon
+{
+    /**
+     * The default port file, shared by the builds of the user.
+     */
+    public static final File DEFAULT_PORT_FILE =
+        new File( System.getProperty( "user.home" ), ".m2/jboss-packaging-daemon.properties" );
+
+    /**
+     * The number of packaging directories whose staging manifest is kept, the least recently staged are dropped.
+     */
+    private static final int MAX_STAGING_MANIFESTS = 32;
+
+    /**
+     * The number of compiled path selectors kept, the least recently used are dropped.
+     */
+    private static final int MAX_SELECTORS = 64;
+
+    /**
+     * The socket accepting the requests.
+     */
+    private final ServerSocket server;
+
+    /**
+     * The token the requests must present.
+     */
+    private final String token;
+
+    /**
+     * The pool providing the copy buffers of every request.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The manifests of the staged files, by packaging directory.
+     */
+    private final Map stagingManifests = new BoundedMap( MAX_STAGING_MANIFESTS );
+
+    /**
+     * The compiled path selectors, by include and exclude patterns.
+     */
+    private final Map selectors = new BoundedMap( MAX_SELECTORS );
+
+    /**
+     * The threads serving the connections.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Create a daemon listening on the loopback interface.
+     * 
+     * @param port The port to listen on, 0 for any free port.
+     * @param pool The pool providing the copy buffers.
+     * @throws IOException if the port could not be bound.
+     */
+    public PackagingDaemon( int port, BufferPool pool )
+        throws IOException
+    {
+        this.server = new ServerSocket( port, 50, InetAddress.getByName( null ) );
+        this.pool = pool;
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes( bytes );
+        this.token = FileDigester.toHex( bytes );
+    }
+
+    /**
+     * @return The port the daemon listens on
+     */
+    public int getPort()
+    {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Publish the port and the token of the daemon, in a file only readable by its owner.
+     * 
+     * @param portFile The port file.
+     * @throws IOException if the file could not be written.
+     */
+    public void writePortFile( File portFile )
+        throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty( "port", String.valueOf( getPort() ) );
+        properties.setProperty( "token", token );
+        properties.setProperty( "version", DaemonProtocol.VERSION );
+        properties.setProperty( "pluginVersion", DaemonProtocol.PLUGIN_VERSION );
+        portFile.getParentFile().mkdirs();
+        File temp = new File( portFile.getParentFile(), portFile.getName() + ".tmp" );
+        temp.delete();
+        temp.createNewFile();
+        temp.setReadable( false, false );
+        temp.setReadable( true, true );
+        OutputStream out = new FileOutputStream( temp );
+        try
+        {
+            properties.store( out, "JBoss packaging daemon" );
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+        portFile.delete();
+        if ( !temp.renameTo( portFile ) )
+        {
+            throw new IOException( "Unable to write port file " + portFile );
+        }
+    }
+
+    /**
+     * Serve requests until the daemon is stopped.
+     * 
+     * @throws IOException if the daemon could not accept connections.
+     */
+    public void run()
+        throws IOException
+    {
+        try
+        {
+            while ( !server.isClosed() )
+            {
+                final Socket socket;
+                try
+                {
+                    socket = server.accept();
+                }
+                catch ( SocketException e )
+                {
+                    if ( server.isClosed() )
+                    {
+                        break;
+                    }
+                    throw e;
+                }
+                executor.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        serve( socket );
+                    }
+                } );
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Stop accepting requests.
+     */
+    public void stop()
+    {
+        try
+        {
+            server.close();
+        }
+        catch ( IOException e )
+        {
+            // nothing left to release
+        }
+    }
+
+    /**
+     * Serve the requests of a connection, until the client closes it.
+     * 
+     * @param socket The connection.
+     */
+    private void serve( Socket socket )
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+            Session session = new Session();
+            while ( true )
+            {
+                Properties request;
+                try
+                {
+                    request = DaemonProtocol.read( in );
+                }
+                catch ( EOFException e )
+                {
+                    break;
+                }
+                DaemonProtocol.write( out, handle( request, session ) );
+            }
+        }
+        catch ( IOException e )
+        {
+            // the client went away, it stages the packaging itself
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch ( IOException e )
+            {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * Handle a request.
+     * 
+     * @param request The request.
+     * @param session The state of the connection of the request.
+     * @return The response.
+     */
+    Properties handle( Properties request, Session session )
+    {
+        Properties response = new Properties();
+        if ( !token.equals( request.getProperty( "token" ) ) )
+        {
+            return refuse( response, "Invalid token" );
+        }
+        if ( !DaemonProtocol.VERSION.equals( request.getProperty( "version" ) ) )
+        {
+            return refuse( response, "Unsupported protocol version " + request.getProperty( "version" ) );
+        }
+        if ( !DaemonProtocol.PLUGIN_VERSION.equals( request.getProperty( "pluginVersion" ) ) )
+        {
+            return refuse( response, "The daemon runs version " + DaemonProtocol.PLUGIN_VERSION
+                + " of the plugin, not " + request.getProperty( "pluginVersion" ) );
+        }
+        String command = request.getProperty( "command" );
+        if ( "ping".equals( command ) )
+        {
+            response.setProperty( "status", "ok" );
+        }
+        else if ( "stop".equals( command ) )
+        {
+            stop();
+            response.setProperty( "status", "ok" );
+        }
+        else if ( "stageClasses".equals( command ) || "stageLibraries".equals( command ) )
+        {
+            try
+            {
+                if ( "stageClasses".equals( command ) )
+                {
+                    session.start( request );
+                    session.engine.prepare();
+                    session.engine.stageClasses();
+                }
+                else
+                {
+                    if ( session.engine == null )
+                    {
+                        return error( response, "The classes were not staged over this connection" );
+                    }
+                    DaemonProtocol.readLibraries( request, session.engine.getRequest() );
+                    session.engine.stageLibraries();
+                    DaemonProtocol.writeResult( session.engine.getResult(), response );
+                }
+                session.engine.storeStagingDigests();
+                if ( session.recorder != null )
+                {
+                    DaemonProtocol.writeEvents( session.recorder, response );
+                }
+                response.setProperty( "status", "ok" );
+            }
+            catch ( IOException e )
+            {
+                return error( response, "Invalid request: " + e.getMessage() );
+            }
+            catch ( PackagingException e )
+            {
+                Throwable cause = e.getCause();
+                return error( response, cause == null ? e.getMessage() : e.getMessage() + ": " + cause );
+            }
+        }
+        else
+        {
+            return error( response, "Unknown command " + command );
+        }
+        return response;
+    }
+
+    /**
+     * The state of a connection: the engine staging the classes and then the libraries of a build, skipping the files
+     * staged by a previous build and unchanged since.
+     */
+    final class Session
+    {
+        /**
+         * The engine of the build, null until its classes are staged.
+         */
+        PackagingEngine engine;
+
+        /**
+         * The recorder of the events sent back to the build, null when the build has no listener.
+         */
+        DaemonProtocol.EventRecorder recorder;
+
+        /**
+         * Start staging a build.
+         * 
+         * @param message The request staging the classes of the build.
+         * @throws IOException if the message is not a valid request.
+         */
+        void start( Properties message )
+            throws IOException
+        {
+            PackagingRequest request = DaemonProtocol.readRequest( message );
+            request.setPathSelector( getSelector( request ) );
+            PackagingEvents events = new PackagingEvents();
+            recorder = null;
+            if ( Boolean.valueOf( message.getProperty( "recordEvents" ) ).booleanValue() )
+            {
+                recorder = new DaemonProtocol.EventRecorder();
+                events.addListener( recorder );
+            }
+            FileCopier copier = new FileCopier( pool, events, getStagingManifest( request.getPackagingDirectory() ) );
+            engine = new PackagingEngine( request, copier, events );
+        }
+    }
+
+    /**
+     * @param request The request.
+     * @return The compiled selector of the patterns of the request, null when there are none
+     */
+    private PathSelector getSelector( PackagingRequest request )
+    {
+        String key = request.getPackagingIncludes() + "\n" + request.getPackagingExcludes();
+        synchronized ( selectors )
+        {
+            if ( !selectors.containsKey( key ) )
+            {
+                selectors.put( key, request.getPathSelector() );
+            }
+            return (PathSelector) selectors.get( key );
+        }
+    }
+
+    /**
+     * @param packagingDirectory The packaging directory.
+     * @return The manifest of the files staged into the directory
+     */
+    private ChecksumManifest getStagingManifest( File packagingDirectory )
+    {
+        synchronized ( stagingManifests )
+        {
+            // the manifest of a deleted directory no longer describes any staged file
+            for ( Iterator iter = stagingManifests.keySet().iterator(); iter.hasNext(); )
+            {
+                if ( !( (File) iter.next() ).isDirectory() )
+                {
+                    iter.remove();
+                }
+            }
+            ChecksumManifest manifest = (ChecksumManifest) stagingManifests.get( packagingDirectory );
+            if ( manifest == null )
+            {
+                manifest = new ChecksumManifest();
+                stagingManifests.put( packagingDirectory, manifest );
+            }
+            return manifest;
+        }
+    }
+
+    /**
+     * @param response The response.
+     * @param message The description of the failure.
+     * @return The response, reporting the failure
+     */
+    private static Properties error( Properties response, String message )
+    {
+        response.setProperty( "status", "error" );
+        response.setProperty( "message", message );
+        return response;
+    }
+
+    /**
+     * @param response The response.
+     * @param message Why the request is refused.
+     * @return The response, refusing a request the build stages itself instead
+     */
+    private static Properties refuse( Properties response, String message )
+    {
+        response.setProperty( "status", "refused" );
+        response.setProperty( "message", message );
+        return response;
+    }
+
+    /**
+     * Run a daemon until the process is stopped.
+     * 
+     * @param args The port file, optionally followed by the port to listen on.
+     * @throws IOException if the daemon could not be started.
+     */
+    public static void main( String[] args )
+        throws IOException
+    {
+        final File portFile = args.length > 0 ? new File( args[0] ) : DEFAULT_PORT_FILE;
+        int port = args.length > 1 ? Integer.parseInt( args[1] ) : 0;
+        PackagingDaemon daemon = new PackagingDaemon( port, BufferPool.getSharedPool() );
+        daemon.writePortFile( portFile );
+        Runtime.getRuntime().addShutdownHook( new Thread()
+        {
+            public void run()
+            {
+                portFile.delete();
+            }
+        } );
+        System.out.println( "JBoss packaging daemon listening on port " + daemon.getPort() );
+        try
+        {
+            daemon.run();
+        }
+        finally
+        {
+            portFile.delete();
+        }
+    }
+
+    /**
+     * A map keeping its most recently accessed entries, up to a limit.
+     */
+    private static class BoundedMap
+        extends LinkedHashMap
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The number of entries kept.
+         */
+        private final int limit;
+
+        /**
+         * @param limit The number of entries kept.
+         */
+        BoundedMap( int limit )
+        {
+            super( 16, 0.75f, true );
+            this.limit = limit;
+        }
+
+        protected boolean removeEldestEntry( Map.Entry eldest )
+        {
+            return size() > limit;
+        }
+    }
+}
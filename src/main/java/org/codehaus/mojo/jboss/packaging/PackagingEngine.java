@@ -0,0 +1,772 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Builds a JBoss packaging from a {@link PackagingRequest}: stages the classes, the deployment descriptor, the
+ * libraries and the nested archives into the exploded packaging, then writes the archive. The engine only depends on
+ * plain files and the Plexus archivers, so it can be driven without Maven; the packaging mojos are adapters turning
+ * the project model into a request.
+ * <p>
+ * An engine holds the state of one packaging run. The buffers and the digest cache it uses are shared, so a
+ * long-lived process running many requests keeps them warm.
+ */
+public class PackagingEngine
+{
+    /**
+     * The inputs of the run.
+     */
+    private final PackagingRequest request;
+
+    /**
+     * The copier writing the staged files, recording their digests once the run is prepared when the request names
+     * staging digest algorithms.
+     */
+    private FileCopier copier;
+
+    /**
+     * The events notified of the progress of the run.
+     */
+    private final PackagingEvents events;
+
+    /**
+     * The outcome of the run.
+     */
+    private final PackagingResult result = new PackagingResult();
+
+    /**
+     * The flattened libraries, null unless the libraries are flattened.
+     */
+    private LibFlattener libFlattener;
+
+    /**
+     * Create an engine with the default shared buffers and no listener.
+     * 
+     * @param request The inputs of the run.
+     */
+    public PackagingEngine( PackagingRequest request )
+    {
+        this( request, new PackagingEvents() );
+    }
+
+    /**
+     * Create an engine using the buffers shared by this JVM.
+     * 
+     * @param request The inputs of the run.
+     * @param events The events notified of the progress of the run.
+     */
+    public PackagingEngine( PackagingRequest request, PackagingEvents events )
+    {
+        this( request, new FileCopier( BufferPool.getSharedPool(), events ), events );
+    }
+
+    /**
+     * Create an engine.
+     * 
+     * @param request The inputs of the run.
+     * @param copier The copier writing the staged files.
+     * @param events The events notified of the progress of the run.
+     */
+    public PackagingEngine( PackagingRequest request, FileCopier copier, PackagingEvents events )
+    {
+        this.request = request;
+        this.copier = copier;
+        this.events = events;
+    }
+
+    /**
+     * @return The inputs of the run
+     */
+    public PackagingRequest getRequest()
+    {
+        return request;
+    }
+
+    /**
+     * @return The outcome of the run
+     */
+    public PackagingResult getResult()
+    {
+        return result;
+    }
+
+    /**
+     * @return The copier writing the staged files
+     */
+    public FileCopier getFileCopier()
+    {
+        return copier;
+    }
+
+    /**
+     * @return The cache of the digests of the staged files
+     */
+    public DigestCache getDigestCache()
+    {
+        return DigestCache.getShared( new FileDigester( copier.getPool(), FileDigester.DEFAULT_ALGORITHM ),
+                                      request.getDigestCacheDirectory() );
+    }
+
+    /**
+     * Build the exploded packaging, running every staging step in order.
+     * 
+     * @return The outcome of the run.
+     * @throws PackagingException if the packaging could not be staged
+     */
+    public PackagingResult explode()
+        throws PackagingException
+    {
+        prepare();
+
+        long start = events.stageStarted( "classes" );
+        stageClasses();
+        events.stageFinished( "classes", start );
+
+        stageDescriptor();
+
+        start = events.stageStarted( "dependencies" );
+        stageLibraries();
+        events.stageFinished( "dependencies", start );
+
+        if ( request.isExplodedOnly() )
+        {
+            stageNestedArchives();
+        }
+        completeStaging();
+        return result;
+    }
+
+    /**
+     * Create the packaging and lib directories, and the manifest recording the digests of the staged files when the
+     * request names staging digest algorithms.
+     * 
+     * @throws PackagingException if a staging digest algorithm is not supported
+     */
+    public void prepare()
+        throws PackagingException
+    {
+        request.getPackagingDirectory().mkdirs();
+        request.getLibDirectory().mkdirs();
+        libFlattener = request.isFlattenLibs() ? new LibFlattener() : null;
+
+        String[] algorithms = request.getStagingDigestAlgorithms();
+        if ( algorithms != null && copier.getStagingDigests() == null )
+        {
+            StagingDigests digests;
+            try
+            {
+                digests = new StagingDigests( request.getPackagingDirectory(), algorithms );
+            }
+            catch ( IOException e )
+            {
+                throw new PackagingException( e.getMessage(), e );
+            }
+            digests.loadPrevious( request.getStagingDigestsFile() );
+            copier = copier.withDigests( digests );
+        }
+        result.setStagingDigests( copier.getStagingDigests() );
+    }
+
+    /**
+     * Write the staging manifest of the digests of the files staged so far, when the request names one.
+     * 
+     * @throws PackagingException if the manifest could not be written
+     */
+    public void storeStagingDigests()
+        throws PackagingException
+    {
+        StagingDigests digests = copier.getStagingDigests();
+        File file = request.getStagingDigestsFile();
+        if ( digests == null || file == null )
+        {
+            return;
+        }
+        try
+        {
+            digests.store( file );
+        }
+        catch ( IOException e )
+        {
+            throw new PackagingException( "Could not write the staging manifest " + file, e );
+        }
+    }
+
+    /**
+     * Add the digests of the files staged by another process during this run, such as the packaging daemon, read from
+     * the staging manifest it wrote.
+     */
+    public void mergeStagingDigests()
+    {
+        StagingDigests digests = copier.getStagingDigests();
+        if ( digests != null )
+        {
+            digests.merge( request.getStagingDigestsFile() );
+        }
+    }
+
+    /**
+     * Stage the classes, unless they are compiled in place.
+     * 
+     * @throws PackagingException if the classes could not be copied
+     */
+    public void stageClasses()
+        throws PackagingException
+    {
+        File classesDirectory = request.getClassesDirectory();
+        if ( classesDirectory == null || !classesDirectory.exists()
+            || classesDirectory.equals( request.getClassesTarget() ) )
+        {
+            return;
+        }
+        try
+        {
+            copier.copyDirectory( classesDirectory, request.getClassesTarget(), request.getPathSelector() );
+        }
+        catch ( IOException e )
+        {
+            throw new PackagingException( "Unable to copy classes directory", e );
+        }
+    }
+
+    /**
+     * Stage the deployment descriptor, interpolated when the request has a descriptor filter. An unfiltered
+     * descriptor is not copied over an existing one.
+     * 
+     * @throws PackagingException if there is no descriptor or it could not be copied
+     */
+    public void stageDescriptor()
+        throws PackagingException
+    {
+        File descriptor = request.getDeploymentDescriptor();
+        if ( descriptor == null || !descriptor.exists() )
+        {
+            throw new PackagingException( "Could not find descriptor file: " + descriptor );
+        }
+
+        File target = request.getDeploymentDescriptorTarget();
+        if ( request.getDescriptorFilter() != null )
+        {
+            filterDescriptor( descriptor, target );
+        }
+        else if ( !target.exists() )
+        {
+            target.getParentFile().mkdirs();
+            try
+            {
+                FileUtils.copyFile( descriptor, target );
+            }
+            catch ( IOException e )
+            {
+                throw new PackagingException( "Could not copy deployment descriptor", e );
+            }
+        }
+    }
+
+    /**
+     * Copy a descriptor into the packaging, interpolating its expressions when the request has a descriptor filter.
+     * The filtered descriptor is recorded in the descriptor manifest with the digest of the source and the fingerprint
+     * of the properties and project values it references, and is not rewritten while both are unchanged and the
+     * target was not modified.
+     * 
+     * @param source The descriptor.
+     * @param target The file to write.
+     * @throws PackagingException if the descriptor could not be copied
+     */
+    public void filterDescriptor( File source, File target )
+        throws PackagingException
+    {
+        ResourceFilter filter = request.getDescriptorFilter();
+        if ( filter == null )
+        {
+            try
+            {
+                copier.copy( source, target );
+            }
+            catch ( IOException e )
+            {
+                throw new PackagingException( "Could not copy descriptor " + source, e );
+            }
+            return;
+        }
+
+        try
+        {
+            File manifestFile = request.getDescriptorManifestFile();
+            if ( manifestFile == null )
+            {
+                filter.filter( source, target );
+                return;
+            }
+            String key = getDigestCache().getDigest( source ) + ":" + filter.getFingerprint( source );
+            String path = target.getAbsolutePath();
+            ChecksumManifest manifest = ChecksumManifest.load( manifestFile );
+            if ( target.isFile() && key.equals( manifest.getDigest( path, target ) ) )
+            {
+                return;
+            }
+            filter.filter( source, target );
+            manifest.put( path, target.length(), target.lastModified(), key );
+            manifest.store( manifestFile );
+        }
+        catch ( IOException e )
+        {
+            throw new PackagingException( "Could not filter descriptor " + source, e );
+        }
+    }
+
+    /**
+     * Stage the libraries of the request, then look for the classes provided by more than one staged source when
+     * requested.
+     * 
+     * @throws PackagingException if a library could not be staged or read
+     */
+    public void stageLibraries()
+        throws PackagingException
+    {
+        ClassConflictDetector detector = request.isDetectClassConflicts() ? new ClassConflictDetector() : null;
+        if ( detector != null && request.getClassesDirectory() != null )
+        {
+            detector.addSource( request.getClassesDirectory(), "classes" );
+        }
+
+        List libraries = request.getLibraries();
+        for ( int i = 0; i < libraries.size(); i++ )
+        {
+            PackagingRequest.Library library = (PackagingRequest.Library) libraries.get( i );
+            File file = library.getFile();
+            boolean notify = events.isEnabled();
+            if ( notify )
+            {
+                events.artifactStarted( library.getId() );
+            }
+            try
+            {
+                String digest = stageLibrary( library );
+                if ( digest != null )
+                {
+                    result.putLibraryDigest( library.getId(), digest );
+                }
+            }
+            catch ( Exception e )
+            {
+                throw new PackagingException( "Could not copy dependency " + library.getId(), e );
+            }
+            result.addLibrary( file.length() );
+            if ( notify )
+            {
+                events.artifactPackaged( library.getId(), file.length() );
+            }
+            if ( detector != null )
+            {
+                detector.addSource( file, library.getId() );
+            }
+        }
+
+        if ( detector != null )
+        {
+            try
+            {
+                result.setClassConflicts( detector.detect( request.getThreads() ) );
+            }
+            catch ( IOException e )
+            {
+                throw new PackagingException( "Could not detect class conflicts", e );
+            }
+        }
+    }
+
+    /**
+     * Stage a library: unpack it, merge it into the packaging root or copy it into the lib directory. When the
+     * digests of the libraries are recorded, a copied library is hashed as it is copied; the digests of the other
+     * libraries come from the digest cache.
+     * 
+     * @param library The library.
+     * @return The digest of the library, null unless the request records them.
+     * @throws Exception if the library could not be staged
+     */
+    String stageLibrary( PackagingRequest.Library library )
+        throws Exception
+    {
+        File file = library.getFile();
+        boolean copied = request.getLibUnpackDirectory() == null
+            && ( libFlattener == null || !LibFlattener.isFlattenable( file ) );
+        StagingDigests stagingDigests = copier.getStagingDigests();
+        if ( copied && request.isHashLibraries() && stagingDigests != null
+            && stagingDigests.hasAlgorithm( FileDigester.DEFAULT_ALGORITHM ) )
+        {
+            // the copy pipeline already hashes the library
+            File target = new File( request.getLibDirectory(), library.getName() );
+            copier.copy( file, target );
+            return stagingDigests.getDigest( target, FileDigester.DEFAULT_ALGORITHM );
+        }
+        if ( copied && request.isHashLibraries() )
+        {
+            long size = file.length();
+            long lastModified = file.lastModified();
+            MessageDigest digest = FileDigester.newDigest( FileDigester.DEFAULT_ALGORITHM );
+            if ( copier.copy( file, new File( request.getLibDirectory(), library.getName() ), digest ) == size )
+            {
+                String hex = FileDigester.toHex( digest.digest() );
+                getDigestCache().put( file, size, lastModified, hex );
+                return hex;
+            }
+            // the copy was skipped as up to date
+            return getDigestCache().getDigest( file );
+        }
+
+        if ( request.getLibUnpackDirectory() != null )
+        {
+            unpack( file, request.getLibUnpackDirectory() );
+        }
+        else if ( libFlattener != null && LibFlattener.isFlattenable( file ) )
+        {
+            if ( request.isExplodedOnly() )
+            {
+                libFlattener.extract( file, request.getPackagingDirectory(), request.getClassesDirectory(), copier );
+            }
+            else
+            {
+                libFlattener.add( file );
+            }
+        }
+        else
+        {
+            copier.copy( file, new File( request.getLibDirectory(), library.getName() ) );
+        }
+        return request.isHashLibraries() ? getDigestCache().getDigest( file ) : null;
+    }
+
+    /**
+     * Unpack every entry of a library into a directory, overwriting the files already there.
+     * 
+     * @param file The library.
+     * @param directory The directory.
+     * @throws IOException if the library could not be unpacked.
+     */
+    private void unpack( File file, File directory )
+        throws IOException
+    {
+        String root = directory.getCanonicalPath() + File.separator;
+        ZipFile zip = new ZipFile( file );
+        try
+        {
+            for ( Enumeration entries = zip.entries(); entries.hasMoreElements(); )
+            {
+                ZipEntry entry = (ZipEntry) entries.nextElement();
+                File target = new File( directory, entry.getName() );
+                if ( !target.getCanonicalPath().startsWith( root ) )
+                {
+                    throw new IOException( "Entry " + entry.getName() + " of " + file + " is outside of " + directory );
+                }
+                if ( entry.isDirectory() )
+                {
+                    target.mkdirs();
+                    continue;
+                }
+                InputStream in = zip.getInputStream( entry );
+                try
+                {
+                    copier.copy( in, target );
+                }
+                finally
+                {
+                    IOUtil.close( in );
+                }
+                if ( entry.getTime() != -1 )
+                {
+                    target.setLastModified( entry.getTime() );
+                }
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    /**
+     * Stage the nested archives as exploded nested deployments of the packaging directory.
+     * 
+     * @throws PackagingException if a nested archive could not be staged
+     */
+    public void stageNestedArchives()
+        throws PackagingException
+    {
+        for ( Iterator iter = request.getNestedArchives().entrySet().iterator(); iter.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) iter.next();
+            NestedArchive nested = (NestedArchive) entry.getValue();
+            File target = new File( request.getPackagingDirectory(), (String) entry.getKey() );
+            File descriptor = getNestedDescriptor( nested );
+            try
+            {
+                copier.copyDirectory( nested.getDirectory(), target, getNestedSelector( nested ) );
+                copier.copy( descriptor, new File( target, "META-INF/" + descriptor.getName() ) );
+            }
+            catch ( IOException e )
+            {
+                throw new PackagingException( "Unable to stage nested archive " + nested, e );
+            }
+        }
+    }
+
+    /**
+     * Finish the exploded packaging: merge the service provider files of the flattened libraries, remove the lib
+     * directory when nothing was staged into it and write the staging manifest.
+     * 
+     * @throws PackagingException if the service provider files could not be merged or the manifest written
+     */
+    public void completeStaging()
+        throws PackagingException
+    {
+        if ( libFlattener != null )
+        {
+            try
+            {
+                result.setMergedServices( libFlattener.mergeServices( request.getPackagingDirectory(),
+                                                                      request.getClassesDirectory() ) );
+            }
+            catch ( IOException e )
+            {
+                throw new PackagingException( "Could not merge service provider files", e );
+            }
+        }
+
+        File libDirectory = request.getLibDirectory();
+        if ( libDirectory.isDirectory() )
+        {
+            String[] files = libDirectory.list();
+
+            if ( files.length == 0 )
+            {
+                libDirectory.delete();
+            }
+        }
+        storeStagingDigests();
+    }
+
+    /**
+     * Add the content of the packaging to an archiver, leaving the archive to be written by the caller. When the
+     * request stores the libraries and there are neither overlays nor excludes, the jars of the lib directory are left
+     * out of the archiver; the caller appends them with the returned writer once the archive is written.
+     * 
+     * @param jarArchiver The archiver to use, each archive needs its own instance.
+     * @param overlays Directories added on top of the packaging directory, may be null.
+     * @param excludes Patterns of the packaging directory files to leave out, may be null.
+     * @return The writer of the libraries left out of the archiver, null when there are none.
+     * @throws PackagingException if a nested archive is not correctly configured
+     */
+    public StoredEntryWriter addArchiveContent( JarArchiver jarArchiver, File[] overlays, String[] excludes )
+        throws PackagingException
+    {
+        StoredEntryWriter storedLibraries = null;
+        if ( request.isStoreLibraries() && overlays == null && excludes == null )
+        {
+            storedLibraries = createStoredLibraries();
+            if ( storedLibraries != null )
+            {
+                excludes = new String[] { getPackagingPath( request.getLibDirectory() ) + "/*.jar" };
+            }
+        }
+
+        // the archiver skips duplicate paths, so overlays added first take precedence
+        if ( overlays != null )
+        {
+            for ( int i = 0; i < overlays.length; i++ )
+            {
+                if ( overlays[i] != null && overlays[i].isDirectory() )
+                {
+                    jarArchiver.addDirectory( overlays[i] );
+                }
+            }
+        }
+        for ( Iterator iter = request.getNestedArchives().entrySet().iterator(); iter.hasNext(); )
+        {
+            Map.Entry entry = (Map.Entry) iter.next();
+            String name = (String) entry.getKey();
+            NestedArchive nested = (NestedArchive) entry.getValue();
+            jarArchiver.addResource( new NestedArchiveResource( name, nested.getDirectory(),
+                                                                getNestedDescriptor( nested ),
+                                                                getNestedSelector( nested ) ), name,
+                                     jarArchiver.getDefaultFileMode() );
+        }
+        if ( excludes == null || excludes.length == 0 )
+        {
+            jarArchiver.addDirectory( request.getPackagingDirectory() );
+        }
+        else
+        {
+            jarArchiver.addDirectory( request.getPackagingDirectory(), null, excludes );
+        }
+        if ( libFlattener != null )
+        {
+            libFlattener.addTo( jarArchiver );
+        }
+        if ( request.getManifest() != null )
+        {
+            jarArchiver.setManifest( request.getManifest() );
+        }
+        return storedLibraries;
+    }
+
+    /**
+     * Create the writer of the jars of the lib directory, with the CRC32 recorded while they were staged.
+     * 
+     * @return The writer, null when the lib directory is outside of the packaging directory or holds no jar.
+     */
+    private StoredEntryWriter createStoredLibraries()
+    {
+        String libPath = getPackagingPath( request.getLibDirectory() );
+        File[] jars = request.getLibDirectory().listFiles();
+        if ( libPath == null || libPath.length() == 0 || jars == null )
+        {
+            return null;
+        }
+        StoredEntryWriter writer = new StoredEntryWriter();
+        StagingDigests digests = copier.getStagingDigests();
+        for ( int i = 0; i < jars.length; i++ )
+        {
+            if ( jars[i].isFile() && jars[i].getName().endsWith( ".jar" ) )
+            {
+                String crc = digests == null ? null : digests.getDigest( jars[i], Crc32Digest.ALGORITHM );
+                writer.add( libPath + "/" + jars[i].getName(), jars[i], crc == null ? -1 : Long.parseLong( crc, 16 ) );
+            }
+        }
+        return writer.size() == 0 ? null : writer;
+    }
+
+    /**
+     * @param file A file.
+     * @return The path of the file relative to the packaging directory, null when it is outside of it
+     */
+    private String getPackagingPath( File file )
+    {
+        URI path = request.getPackagingDirectory().toURI().relativize( file.toURI() );
+        if ( path.isAbsolute() )
+        {
+            return null;
+        }
+        String relative = path.getPath();
+        return relative.endsWith( "/" ) ? relative.substring( 0, relative.length() - 1 ) : relative;
+    }
+
+    /**
+     * Write the archive of the packaging directory.
+     * 
+     * @param jarArchiver The archiver to use.
+     * @param archiveFile The archive to write.
+     * @return The outcome of the run.
+     * @throws PackagingException if the archive could not be written
+     */
+    public PackagingResult createArchive( JarArchiver jarArchiver, File archiveFile )
+        throws PackagingException
+    {
+        StoredEntryWriter storedLibraries = addArchiveContent( jarArchiver, null, null );
+        jarArchiver.setDestFile( archiveFile );
+        try
+        {
+            jarArchiver.createArchive();
+            if ( storedLibraries != null )
+            {
+                storedLibraries.write( archiveFile );
+            }
+        }
+        catch ( Exception e )
+        {
+            throw new PackagingException( "Problem generating archive file.", e );
+        }
+        events.archiveWritten( archiveFile );
+        result.setArchiveFile( archiveFile );
+        return result;
+    }
+
+    /**
+     * Create the verifier of an archive of the packaging, requiring the deployment descriptor, when it is staged
+     * within the packaging directory, and the nested archives.
+     * 
+     * @param archiveFile The archive.
+     * @return The verifier.
+     */
+    public ArchiveVerifier createVerifier( File archiveFile )
+    {
+        ArchiveVerifier verifier = new ArchiveVerifier( archiveFile );
+        File target = request.getDeploymentDescriptorTarget();
+        String path = target == null ? null : getPackagingPath( target );
+        if ( path != null )
+        {
+            verifier.require( path );
+        }
+        for ( Iterator iter = request.getNestedArchives().keySet().iterator(); iter.hasNext(); )
+        {
+            verifier.require( (String) iter.next() );
+        }
+        return verifier;
+    }
+
+    /**
+     * Get the deployment descriptor of a nested archive, checking that it exists.
+     * 
+     * @param nested The nested archive.
+     * @return The descriptor.
+     * @throws PackagingException if there is no descriptor
+     */
+    private static File getNestedDescriptor( NestedArchive nested )
+        throws PackagingException
+    {
+        if ( nested.getDirectory() == null || !nested.getDirectory().isDirectory() )
+        {
+            throw new PackagingException( "Could not find nested archive directory: " + nested.getDirectory() );
+        }
+        File descriptor = nested.findDeploymentDescriptor();
+        if ( descriptor == null || !descriptor.exists() )
+        {
+            throw new PackagingException( "Could not find descriptor file of nested archive " + nested + ": "
+                + descriptor );
+        }
+        return descriptor;
+    }
+
+    /**
+     * @param nested The nested archive.
+     * @return The selector of the files of the nested archive, null to include everything
+     */
+    private static PathSelector getNestedSelector( NestedArchive nested )
+    {
+        return StringUtils.isEmpty( nested.getExcludes() ) ? null : PathSelector.fromLists( null,
+                                                                                        nested.getExcludes() );
+    }
+}
@@ -0,0 +1,174 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+
+/**
+ * Dispatches the progress events of a packaging build to the registered listeners. When no listener is registered
+ * each event costs a single field read, so callers only need to check {@link #isEnabled()} before building costly
+ * event arguments.
+ */
+public class PackagingEvents
+{
+    /**
+     * The listeners, replaced on each registration so dispatching needs no lock.
+     */
+    private volatile PackagingListener[] listeners = new PackagingListener[0];
+
+    /**
+     * Register a listener.
+     * 
+     * @param listener The listener.
+     */
+    public synchronized void addListener( PackagingListener listener )
+    {
+        PackagingListener[] updated = new PackagingListener[listeners.length + 1];
+        System.arraycopy( listeners, 0, updated, 0, listeners.length );
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * @return Whether any listener is registered
+     */
+    public boolean isEnabled()
+    {
+        return listeners.length > 0;
+    }
+
+    /**
+     * Notify the start of a stage.
+     * 
+     * @param stage The name of the stage.
+     * @return The start time to pass to {@link #stageFinished(String, long)}.
+     */
+    public long stageStarted( String stage )
+    {
+        PackagingListener[] current = listeners;
+        if ( current.length == 0 )
+        {
+            return 0;
+        }
+        for ( int i = 0; i < current.length; i++ )
+        {
+            current[i].stageStarted( stage );
+        }
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Notify the end of a stage.
+     * 
+     * @param stage The name of the stage.
+     * @param start The time returned by {@link #stageStarted(String)}.
+     */
+    public void stageFinished( String stage, long start )
+    {
+        PackagingListener[] current = listeners;
+        if ( current.length == 0 )
+        {
+            return;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        for ( int i = 0; i < current.length; i++ )
+        {
+            current[i].stageFinished( stage, elapsed );
+        }
+    }
+
+    /**
+     * Notify a staged file.
+     * 
+     * @param file The staged file.
+     * @param bytes The size of the file.
+     */
+    public void fileStaged( File file, long bytes )
+    {
+        PackagingListener[] current = listeners;
+        for ( int i = 0; i < current.length; i++ )
+        {
+            current[i].fileStaged( file, bytes );
+        }
+    }
+
+    /**
+     * Notify the start of the packaging of a dependency.
+     * 
+     * @param artifactId The id of the dependency.
+     */
+    public void artifactStarted( String artifactId )
+    {
+        PackagingListener[] current = listeners;
+        for ( int i = 0; i < current.length; i++ )
+        {
+            current[i].artifactStarted( artifactId );
+        }
+    }
+
+    /**
+     * Notify a packaged dependency.
+     * 
+     * @param artifactId The id of the dependency.
+     * @param bytes The size of the dependency file.
+     */
+    public void artifactPackaged( String artifactId, long bytes )
+    {
+        PackagingListener[] current = listeners;
+        for ( int i = 0; i < current.length; i++ )
+        {
+            current[i].artifactPackaged( artifactId, bytes );
+        }
+    }
+
+    /**
+     * Notify a written archive.
+     * 
+     * @param archive The archive.
+     */
+    public void archiveWritten( File archive )
+    {
+        PackagingListener[] current = listeners;
+        if ( current.length == 0 )
+        {
+            return;
+        }
+        long bytes = archive.length();
+        for ( int i = 0; i < current.length; i++ )
+        {
+            current[i].archiveWritten( archive, bytes );
+        }
+    }
+
+    /**
+     * Notify a skipped dependency.
+     * 
+     * @param artifactId The id of the dependency.
+     * @param reason Why the dependency was skipped.
+     */
+    public void artifactSkipped( String artifactId, String reason )
+    {
+        PackagingListener[] current = listeners;
+        for ( int i = 0; i < current.length; i++ )
+        {
+            current[i].artifactSkipped( artifactId, reason );
+        }
+    }
+}
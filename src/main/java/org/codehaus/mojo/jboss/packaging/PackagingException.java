@@ -0,0 +1,53 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Thrown by the {@link PackagingEngine} when the packaging could not be built.
+ */
+public class PackagingException
+    extends Exception
+{
+    /**
+     * The serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create an exception.
+     * 
+     * @param message The description of the failure.
+     */
+    public PackagingException( String message )
+    {
+        super( message );
+    }
+
+    /**
+     * Create an exception.
+     * 
+     * @param message The description of the failure.
+     * @param cause The cause of the failure.
+     */
+    public PackagingException( String message, Throwable cause )
+    {
+        super( message, cause );
+    }
+}
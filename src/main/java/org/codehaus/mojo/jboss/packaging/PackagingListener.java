@@ -0,0 +1,83 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+
+/**
+ * Receives the progress events of a packaging build. Listeners are called from the threads doing the work, possibly
+ * concurrently, and must return quickly.
+ */
+public interface PackagingListener
+{
+    /**
+     * A stage of the build started.
+     * 
+     * @param stage The name of the stage, such as <code>dependencies</code> or <code>archive</code>.
+     */
+    void stageStarted( String stage );
+
+    /**
+     * A stage of the build finished.
+     * 
+     * @param stage The name of the stage.
+     * @param elapsed The duration of the stage, in milliseconds.
+     */
+    void stageFinished( String stage, long elapsed );
+
+    /**
+     * A file was written into the staging tree.
+     * 
+     * @param file The staged file.
+     * @param bytes The size of the file.
+     */
+    void fileStaged( File file, long bytes );
+
+    /**
+     * The packaging of a dependency started.
+     * 
+     * @param artifactId The id of the dependency.
+     */
+    void artifactStarted( String artifactId );
+
+    /**
+     * A dependency was packaged, on the thread that notified its start.
+     * 
+     * @param artifactId The id of the dependency.
+     * @param bytes The size of the dependency file.
+     */
+    void artifactPackaged( String artifactId, long bytes );
+
+    /**
+     * An archive was written.
+     * 
+     * @param archive The archive.
+     * @param bytes The compressed size of the archive.
+     */
+    void archiveWritten( File archive, long bytes );
+
+    /**
+     * A dependency was not packaged.
+     * 
+     * @param artifactId The id of the dependency.
+     * @param reason Why the dependency was skipped.
+     */
+    void artifactSkipped( String artifactId, String reason );
+}
@@ -0,0 +1,621 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * The inputs of a {@link PackagingEngine} run: the directories and files to stage, where to stage them and how. A
+ * request only refers to plain files, so it can be built without Maven, for example by another build tool or by a
+ * long-lived deployment process.
+ */
+public class PackagingRequest
+{
+    /**
+     * The directory the exploded packaging is staged into.
+     */
+    private File packagingDirectory;
+
+    /**
+     * The compiled classes of the project, may be null.
+     */
+    private File classesDirectory;
+
+    /**
+     * The directory the classes are staged into, the packaging directory when null.
+     */
+    private File classesTarget;
+
+    /**
+     * A comma separated list of Ant-style patterns of the classes to stage, may be null.
+     */
+    private String packagingIncludes;
+
+    /**
+     * A comma separated list of Ant-style patterns of the classes not to stage, may be null.
+     */
+    private String packagingExcludes;
+
+    /**
+     * The selector compiled from the include and exclude patterns.
+     */
+    private PathSelector pathSelector;
+
+    /**
+     * The deployment descriptor, required.
+     */
+    private File deploymentDescriptor;
+
+    /**
+     * The file the deployment descriptor is staged to.
+     */
+    private File deploymentDescriptorTarget;
+
+    /**
+     * The filter interpolating the descriptors, null to copy them unchanged.
+     */
+    private ResourceFilter descriptorFilter;
+
+    /**
+     * The manifest recording the filtered descriptors, may be null.
+     */
+    private File descriptorManifestFile;
+
+    /**
+     * The directory the libraries are staged into.
+     */
+    private File libDirectory;
+
+    /**
+     * The libraries to stage, in order.
+     */
+    private final List libraries = new ArrayList();
+
+    /**
+     * Whether the jar libraries are merged into the root of the packaging.
+     */
+    private boolean flattenLibs;
+
+    /**
+     * The directory the libraries are unpacked into instead of being staged as files, may be null.
+     */
+    private File libUnpackDirectory;
+
+    /**
+     * Whether the digests of the staged libraries are recorded.
+     */
+    private boolean hashLibraries;
+
+    /**
+     * The digest algorithms computed on every staged file, null to compute none.
+     */
+    private String[] stagingDigestAlgorithms;
+
+    /**
+     * The per-build staging manifest recording the digests of the staged files, may be null.
+     */
+    private File stagingDigestsFile;
+
+    /**
+     * Whether the jars of the lib directory are stored uncompressed by a direct writer rather than by the archiver.
+     */
+    private boolean storeLibraries;
+
+    /**
+     * Whether only the exploded packaging is built, with no archive.
+     */
+    private boolean explodedOnly;
+
+    /**
+     * Whether the classes provided by more than one staged source are looked for.
+     */
+    private boolean detectClassConflicts;
+
+    /**
+     * The nested archives, by path within the packaging.
+     */
+    private final Map nestedArchives = new LinkedHashMap();
+
+    /**
+     * The manifest of the archive, may be null.
+     */
+    private File manifest;
+
+    /**
+     * The directory of the persistent digest cache, may be null.
+     */
+    private File digestCacheDirectory;
+
+    /**
+     * The number of threads of the parallel stages, the number of processors when not positive.
+     */
+    private int threads;
+
+    /**
+     * @return The directory the exploded packaging is staged into
+     */
+    public File getPackagingDirectory()
+    {
+        return packagingDirectory;
+    }
+
+    /**
+     * @param packagingDirectory The directory the exploded packaging is staged into
+     */
+    public void setPackagingDirectory( File packagingDirectory )
+    {
+        this.packagingDirectory = packagingDirectory;
+    }
+
+    /**
+     * @return The compiled classes of the project, may be null
+     */
+    public File getClassesDirectory()
+    {
+        return classesDirectory;
+    }
+
+    /**
+     * @param classesDirectory The compiled classes of the project
+     */
+    public void setClassesDirectory( File classesDirectory )
+    {
+        this.classesDirectory = classesDirectory;
+    }
+
+    /**
+     * @return The directory the classes are staged into
+     */
+    public File getClassesTarget()
+    {
+        return classesTarget == null ? packagingDirectory : classesTarget;
+    }
+
+    /**
+     * @param classesTarget The directory the classes are staged into, the packaging directory when null
+     */
+    public void setClassesTarget( File classesTarget )
+    {
+        this.classesTarget = classesTarget;
+    }
+
+    /**
+     * @return The comma separated list of Ant-style patterns of the classes to stage, may be null
+     */
+    public String getPackagingIncludes()
+    {
+        return packagingIncludes;
+    }
+
+    /**
+     * @param packagingIncludes A comma separated list of Ant-style patterns of the classes to stage
+     */
+    public void setPackagingIncludes( String packagingIncludes )
+    {
+        this.packagingIncludes = packagingIncludes;
+        this.pathSelector = null;
+    }
+
+    /**
+     * @return The comma separated list of Ant-style patterns of the classes not to stage, may be null
+     */
+    public String getPackagingExcludes()
+    {
+        return packagingExcludes;
+    }
+
+    /**
+     * @param packagingExcludes A comma separated list of Ant-style patterns of the classes not to stage
+     */
+    public void setPackagingExcludes( String packagingExcludes )
+    {
+        this.packagingExcludes = packagingExcludes;
+        this.pathSelector = null;
+    }
+
+    /**
+     * @return The selector of the staged classes, compiled from the include and exclude patterns on first use; null
+     *         when there are no patterns
+     */
+    public PathSelector getPathSelector()
+    {
+        if ( pathSelector == null
+            && ( !StringUtils.isEmpty( packagingIncludes ) || !StringUtils.isEmpty( packagingExcludes ) ) )
+        {
+            pathSelector = PathSelector.fromLists( packagingIncludes, packagingExcludes );
+        }
+        return pathSelector;
+    }
+
+    /**
+     * Use a selector compiled beforehand from the include and exclude patterns of the request.
+     * 
+     * @param pathSelector The selector of the staged classes
+     */
+    public void setPathSelector( PathSelector pathSelector )
+    {
+        this.pathSelector = pathSelector;
+    }
+
+    /**
+     * @return The deployment descriptor
+     */
+    public File getDeploymentDescriptor()
+    {
+        return deploymentDescriptor;
+    }
+
+    /**
+     * @param deploymentDescriptor The deployment descriptor
+     */
+    public void setDeploymentDescriptor( File deploymentDescriptor )
+    {
+        this.deploymentDescriptor = deploymentDescriptor;
+    }
+
+    /**
+     * @return The file the deployment descriptor is staged to
+     */
+    public File getDeploymentDescriptorTarget()
+    {
+        return deploymentDescriptorTarget;
+    }
+
+    /**
+     * @param deploymentDescriptorTarget The file the deployment descriptor is staged to
+     */
+    public void setDeploymentDescriptorTarget( File deploymentDescriptorTarget )
+    {
+        this.deploymentDescriptorTarget = deploymentDescriptorTarget;
+    }
+
+    /**
+     * @return The filter interpolating the descriptors, null to copy them unchanged
+     */
+    public ResourceFilter getDescriptorFilter()
+    {
+        return descriptorFilter;
+    }
+
+    /**
+     * @param descriptorFilter The filter interpolating the descriptors, null to copy them unchanged
+     */
+    public void setDescriptorFilter( ResourceFilter descriptorFilter )
+    {
+        this.descriptorFilter = descriptorFilter;
+    }
+
+    /**
+     * @return The manifest recording the filtered descriptors, may be null
+     */
+    public File getDescriptorManifestFile()
+    {
+        return descriptorManifestFile;
+    }
+
+    /**
+     * @param descriptorManifestFile The manifest recording the filtered descriptors
+     */
+    public void setDescriptorManifestFile( File descriptorManifestFile )
+    {
+        this.descriptorManifestFile = descriptorManifestFile;
+    }
+
+    /**
+     * @return The directory the libraries are staged into
+     */
+    public File getLibDirectory()
+    {
+        return libDirectory;
+    }
+
+    /**
+     * @param libDirectory The directory the libraries are staged into
+     */
+    public void setLibDirectory( File libDirectory )
+    {
+        this.libDirectory = libDirectory;
+    }
+
+    /**
+     * Add a library to stage.
+     * 
+     * @param id The identifier of the library in the events and reports.
+     * @param file The library file.
+     * @param name The name of the library in the lib directory.
+     */
+    public void addLibrary( String id, File file, String name )
+    {
+        libraries.add( new Library( id, file, name ) );
+    }
+
+    /**
+     * @return The libraries to stage, in order
+     */
+    public List getLibraries()
+    {
+        return Collections.unmodifiableList( libraries );
+    }
+
+    /**
+     * @return Whether the jar libraries are merged into the root of the packaging
+     */
+    public boolean isFlattenLibs()
+    {
+        return flattenLibs;
+    }
+
+    /**
+     * @param flattenLibs Whether the jar libraries are merged into the root of the packaging
+     */
+    public void setFlattenLibs( boolean flattenLibs )
+    {
+        this.flattenLibs = flattenLibs;
+    }
+
+    /**
+     * @return The directory the libraries are unpacked into, null to stage them as files
+     */
+    public File getLibUnpackDirectory()
+    {
+        return libUnpackDirectory;
+    }
+
+    /**
+     * @param libUnpackDirectory The directory the libraries are unpacked into, null to stage them as files
+     */
+    public void setLibUnpackDirectory( File libUnpackDirectory )
+    {
+        this.libUnpackDirectory = libUnpackDirectory;
+    }
+
+    /**
+     * @return The digest algorithms computed on every staged file, null when none are
+     */
+    public String[] getStagingDigestAlgorithms()
+    {
+        return stagingDigestAlgorithms;
+    }
+
+    /**
+     * @param stagingDigestAlgorithms The digest algorithms computed on every staged file while it is copied, such as
+     *            <code>SHA-256</code> or <code>CRC32C</code>; null or empty to compute none
+     */
+    public void setStagingDigestAlgorithms( String[] stagingDigestAlgorithms )
+    {
+        this.stagingDigestAlgorithms =
+            stagingDigestAlgorithms == null || stagingDigestAlgorithms.length == 0 ? null : stagingDigestAlgorithms;
+    }
+
+    /**
+     * @return The per-build staging manifest recording the digests of the staged files, may be null
+     */
+    public File getStagingDigestsFile()
+    {
+        return stagingDigestsFile;
+    }
+
+    /**
+     * @param stagingDigestsFile The per-build staging manifest recording the digests of the staged files, also read
+     *            for the digests of the files left in place since the previous build
+     */
+    public void setStagingDigestsFile( File stagingDigestsFile )
+    {
+        this.stagingDigestsFile = stagingDigestsFile;
+    }
+
+    /**
+     * @return Whether the jars of the lib directory are stored uncompressed by a direct writer
+     */
+    public boolean isStoreLibraries()
+    {
+        return storeLibraries;
+    }
+
+    /**
+     * @param storeLibraries Whether the jars of the lib directory are left out of the archiver and appended to the
+     *            archive as STORED entries, using the CRC32 recorded while staging when it is one of the staging
+     *            digest algorithms
+     */
+    public void setStoreLibraries( boolean storeLibraries )
+    {
+        this.storeLibraries = storeLibraries;
+    }
+
+    /**
+     * @return Whether the digests of the staged libraries are recorded
+     */
+    public boolean isHashLibraries()
+    {
+        return hashLibraries;
+    }
+
+    /**
+     * @param hashLibraries Whether the digests of the staged libraries are recorded, computed while the libraries
+     *            are copied
+     */
+    public void setHashLibraries( boolean hashLibraries )
+    {
+        this.hashLibraries = hashLibraries;
+    }
+
+    /**
+     * @return Whether only the exploded packaging is built
+     */
+    public boolean isExplodedOnly()
+    {
+        return explodedOnly;
+    }
+
+    /**
+     * @param explodedOnly Whether only the exploded packaging is built
+     */
+    public void setExplodedOnly( boolean explodedOnly )
+    {
+        this.explodedOnly = explodedOnly;
+    }
+
+    /**
+     * @return Whether the classes provided by more than one staged source are looked for
+     */
+    public boolean isDetectClassConflicts()
+    {
+        return detectClassConflicts;
+    }
+
+    /**
+     * @param detectClassConflicts Whether the classes provided by more than one staged source are looked for
+     */
+    public void setDetectClassConflicts( boolean detectClassConflicts )
+    {
+        this.detectClassConflicts = detectClassConflicts;
+    }
+
+    /**
+     * Add a nested archive.
+     * 
+     * @param name The path of the nested archive within the packaging.
+     * @param nested The nested archive.
+     */
+    public void addNestedArchive( String name, NestedArchive nested )
+    {
+        nestedArchives.put( name, nested );
+    }
+
+    /**
+     * @return The nested archives, by path within the packaging
+     */
+    public Map getNestedArchives()
+    {
+        return Collections.unmodifiableMap( nestedArchives );
+    }
+
+    /**
+     * @return The manifest of the archive, may be null
+     */
+    public File getManifest()
+    {
+        return manifest;
+    }
+
+    /**
+     * @param manifest The manifest of the archive
+     */
+    public void setManifest( File manifest )
+    {
+        this.manifest = manifest;
+    }
+
+    /**
+     * @return The directory of the persistent digest cache, may be null
+     */
+    public File getDigestCacheDirectory()
+    {
+        return digestCacheDirectory;
+    }
+
+    /**
+     * @param digestCacheDirectory The directory of the persistent digest cache
+     */
+    public void setDigestCacheDirectory( File digestCacheDirectory )
+    {
+        this.digestCacheDirectory = digestCacheDirectory;
+    }
+
+    /**
+     * @return The number of threads of the parallel stages
+     */
+    public int getThreads()
+    {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @param threads The number of threads of the parallel stages, the number of processors when not positive
+     */
+    public void setThreads( int threads )
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * A library staged into the packaging.
+     */
+    public static final class Library
+    {
+        /**
+         * The identifier of the library.
+         */
+        private final String id;
+
+        /**
+         * The library file.
+         */
+        private final File file;
+
+        /**
+         * The name of the library in the lib directory.
+         */
+        private final String name;
+
+        /**
+         * @param id The identifier of the library.
+         * @param file The library file.
+         * @param name The name of the library in the lib directory.
+         */
+        Library( String id, File file, String name )
+        {
+            this.id = id;
+            this.file = file;
+            this.name = name;
+        }
+
+        /**
+         * @return The identifier of the library
+         */
+        public String getId()
+        {
+            return id;
+        }
+
+        /**
+         * @return The library file
+         */
+        public File getFile()
+        {
+            return file;
+        }
+
+        /**
+         * @return The name of the library in the lib directory
+         */
+        public String getName()
+        {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link PackagingEngine} run.
+ */
+public class PackagingResult
+{
+    /**
+     * The number of libraries staged.
+     */
+    private int libraryCount;
+
+    /**
+     * The total size of the libraries staged.
+     */
+    private long libraryBytes;
+
+    /**
+     * The digests of the staged libraries, by library identifier, in staging order.
+     */
+    private final Map libraryDigests = new LinkedHashMap();
+
+    /**
+     * The classes provided by more than one staged source, by pair of sources.
+     */
+    private Map classConflicts = Collections.EMPTY_MAP;
+
+    /**
+     * The number of service provider files merged from flattened libraries.
+     */
+    private int mergedServices;
+
+    /**
+     * The archive written, null when only the exploded packaging was built.
+     */
+    private File archiveFile;
+
+    /**
+     * The digests of the staged files, null when none were computed.
+     */
+    private StagingDigests stagingDigests;
+
+    /**
+     * @return The number of libraries staged
+     */
+    public int getLibraryCount()
+    {
+        return libraryCount;
+    }
+
+    /**
+     * @return The total size of the libraries staged
+     */
+    public long getLibraryBytes()
+    {
+        return libraryBytes;
+    }
+
+    /**
+     * Record a staged library.
+     * 
+     * @param bytes The size of the library.
+     */
+    void addLibrary( long bytes )
+    {
+        libraryCount++;
+        libraryBytes += bytes;
+    }
+
+    /**
+     * Record libraries staged elsewhere.
+     * 
+     * @param count The number of libraries.
+     * @param bytes The total size of the libraries.
+     */
+    void addLibraries( int count, long bytes )
+    {
+        libraryCount += count;
+        libraryBytes += bytes;
+    }
+
+    /**
+     * @return The digests of the staged libraries, in hexadecimal, by library identifier in staging order; empty
+     *         unless the request asked for them
+     */
+    public Map getLibraryDigests()
+    {
+        return Collections.unmodifiableMap( libraryDigests );
+    }
+
+    /**
+     * Record the digest of a staged library.
+     * 
+     * @param id The identifier of the library.
+     * @param digest The digest, in hexadecimal.
+     */
+    void putLibraryDigest( String id, String digest )
+    {
+        libraryDigests.put( id, digest );
+    }
+
+    /**
+     * @return The classes provided by more than one staged source, as lists of class names keyed by the description
+     *         of the pair of sources; empty when no conflict was found or conflicts were not looked for
+     */
+    public Map getClassConflicts()
+    {
+        return classConflicts;
+    }
+
+    /**
+     * @param classConflicts The classes provided by more than one staged source.
+     */
+    void setClassConflicts( Map classConflicts )
+    {
+        this.classConflicts = classConflicts;
+    }
+
+    /**
+     * @return The number of service provider files merged from flattened libraries
+     */
+    public int getMergedServices()
+    {
+        return mergedServices;
+    }
+
+    /**
+     * @param mergedServices The number of service provider files merged from flattened libraries.
+     */
+    void setMergedServices( int mergedServices )
+    {
+        this.mergedServices = mergedServices;
+    }
+
+    /**
+     * @return The archive written, null when only the exploded packaging was built
+     */
+    public File getArchiveFile()
+    {
+        return archiveFile;
+    }
+
+    /**
+     * @param archiveFile The archive written.
+     */
+    void setArchiveFile( File archiveFile )
+    {
+        this.archiveFile = archiveFile;
+    }
+
+    /**
+     * @return The digests of the staged files, computed while they were copied; null unless the request named
+     *         staging digest algorithms
+     */
+    public StagingDigests getStagingDigests()
+    {
+        return stagingDigests;
+    }
+
+    /**
+     * @param stagingDigests The digests of the staged files.
+     */
+    void setStagingDigests( StagingDigests stagingDigests )
+    {
+        this.stagingDigests = stagingDigests;
+    }
+}
@@ -21,19 +21,10 @@ package org.codehaus.mojo.jboss.packaging;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-import org.apache.maven.artifact.Artifact;
-import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.MojoExecutionException;
-import org.apache.maven.shared.filtering.MavenFilteringException;
-import org.apache.maven.shared.filtering.MavenResourcesExecution;
-import org.apache.maven.shared.filtering.MavenResourcesFiltering;
-import org.codehaus.plexus.archiver.UnArchiver;
-import org.codehaus.plexus.archiver.manager.ArchiverManager;
-import org.codehaus.plexus.util.FileUtils;
 
 /**
  * Builds a deployable JBoss Process Archive.
@@ -53,19 +44,6 @@ public class ParMojo
      */
     private static final String ARTIFACT_TYPE = "jboss-par";
 
-    /**
-     * Component that determines how to extract archive files.
-     * 
-     * @component
-     */
-    private ArchiverManager archiverManager;
-
-    /**
-     * @component role="org.apache.maven.shared.filtering.MavenResourcesFiltering" role-hint="default"
-     * @required
-     */
-    private MavenResourcesFiltering mavenResourcesFiltering;
-
     /**
      * The resources to include in the packaged archive. Specifying this overrides using jbpmDirectory and
      * jpdlDirectory.
@@ -74,28 +52,6 @@ public class ParMojo
      */
     private List resources;
 
-    /**
-     * The character encoding of the resource files.
-     * 
-     * @parameter expression="${encoding}" default-value="${project.build.sourceEncoding}"
-     */
-    private String encoding;
-
-    /**
-     * @parameter expression="${session}"
-     * @readonly
-     * @required
-     */
-    private MavenSession session;
-
-    /**
-     * The filters used when copying the resource files.  By default this
-     * will use the resource filters specified in the POM.
-     * 
-     * @parameter default-value="${project.build.filters}"
-     */
-    private List filters;
-
     /**
      * The location of the jbpm deployment descriptor file (processdefinition.xml) If it is present in
      * src/main/resources then it will automatically be included. Otherwise this parameter must be set.
@@ -184,37 +140,21 @@ public class ParMojo
             }
         }
 
-        MavenResourcesExecution resourcesExec =
-            new MavenResourcesExecution( resources, getPackagingDirectory(), getProject(), encoding, filters,
-                                         Collections.EMPTY_LIST, session );
-        try
-        {
-            mavenResourcesFiltering.filterResources( resourcesExec );
-        }
-        catch ( MavenFilteringException e )
-        {
-            throw new MojoExecutionException( e.getMessage(), e );
-        }
-    }
-
-    /**
-     * Overrides the default implementation so classes are packaged under a subdirectory.
-     */
-    protected void packageClasses()
-        throws Exception
-    {
-        FileUtils.copyDirectoryStructure( getClassesDirectory(), packagingClassesDirectory );
+        int filtered = getResourceFilter().filter( resources, getProject().getBasedir(), getPackagingDirectory(),
+                                                      getPackagingThreads() );
+        getLog().debug( "Interpolated " + filtered + " resource files" );
     }
 
     /**
-     * Overrides the default implementation to explode the depdencies into the classes directory.
+     * Overrides the default request so classes are packaged under a subdirectory, and the dependencies exploded into
+     * it.
      */
-    protected void packageLib( Artifact artifact, String name )
-        throws Exception
+    protected PackagingRequest createPackagingRequest()
+        throws MojoExecutionException
     {
-        UnArchiver unArchiver = archiverManager.getUnArchiver( artifact.getFile() );
-        unArchiver.setSourceFile( artifact.getFile() );
-        unArchiver.setDestDirectory( packagingClassesDirectory );
-        unArchiver.extract();
+        PackagingRequest request = super.createPackagingRequest();
+        request.setClassesTarget( packagingClassesDirectory );
+        request.setLibUnpackDirectory( packagingClassesDirectory );
+        return request;
     }
-}
\ No newline at end of file
+}
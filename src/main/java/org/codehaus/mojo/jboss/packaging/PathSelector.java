@@ -0,0 +1,438 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Selects files with Ant-style include and exclude patterns while a directory tree is being walked. The patterns are
+ * compiled into a trie of path segments: literal segments are looked up by name, wildcard segments are precompiled and
+ * <code>**</code> matches any number of directories. The walk keeps the set of trie nodes reached so far, so each
+ * file name is matched once rather than every pattern being matched against every full path, and a directory whose
+ * whole subtree is excluded (or that no include can reach into) is never entered.
+ */
+public class PathSelector
+{
+    /**
+     * The compiled include patterns.
+     */
+    private final Node includes;
+
+    /**
+     * The compiled exclude patterns, null when there are none.
+     */
+    private final Node excludes;
+
+    /**
+     * Create a selector.
+     * 
+     * @param includes The include patterns, everything is included when null or empty.
+     * @param excludes The exclude patterns, may be null or empty.
+     */
+    public PathSelector( String[] includes, String[] excludes )
+    {
+        this.includes = compile( includes == null || includes.length == 0 ? new String[] { "**" } : includes );
+        this.excludes = excludes == null || excludes.length == 0 ? null : compile( excludes );
+    }
+
+    /**
+     * Create a selector from comma separated lists of patterns.
+     * 
+     * @param includes The include patterns, everything is included when null or empty.
+     * @param excludes The exclude patterns, may be null or empty.
+     * @return The selector.
+     */
+    public static PathSelector fromLists( String includes, String excludes )
+    {
+        return new PathSelector( split( includes ), split( excludes ) );
+    }
+
+    /**
+     * @return The position of the root of the walked tree
+     */
+    public Position root()
+    {
+        return new Position( closure( new Node[] { includes } ), excludes == null ? null
+                        : closure( new Node[] { excludes } ) );
+    }
+
+    /**
+     * Move into a subdirectory.
+     * 
+     * @param position The position of the current directory.
+     * @param name The name of the subdirectory.
+     * @return The position of the subdirectory, or null when nothing below it can be selected.
+     */
+    public Position enter( Position position, String name )
+    {
+        Node[] included = advance( position.included, name );
+        if ( included.length == 0 )
+        {
+            return null;
+        }
+        Node[] excluded = position.excluded == null ? null : advance( position.excluded, name );
+        if ( excluded != null )
+        {
+            for ( int i = 0; i < excluded.length; i++ )
+            {
+                if ( excluded[i].anyDepth && excluded[i].terminal )
+                {
+                    return null;
+                }
+            }
+            if ( excluded.length == 0 )
+            {
+                excluded = null;
+            }
+        }
+        return new Position( included, excluded );
+    }
+
+    /**
+     * Check whether a file of the current directory is selected.
+     * 
+     * @param position The position of the current directory.
+     * @param name The name of the file.
+     * @return Whether the file is selected.
+     */
+    public boolean isSelected( Position position, String name )
+    {
+        if ( !isTerminal( advance( position.included, name ) ) )
+        {
+            return false;
+        }
+        return position.excluded == null || !isTerminal( advance( position.excluded, name ) );
+    }
+
+    /**
+     * Check whether a relative path, using <code>/</code> as separator, is selected.
+     * 
+     * @param path The relative path.
+     * @return Whether the path is selected.
+     */
+    public boolean isSelected( String path )
+    {
+        String[] segments = StringUtils.split( path, "/" );
+        Position position = root();
+        for ( int i = 0; i < segments.length - 1 && position != null; i++ )
+        {
+            position = enter( position, segments[i] );
+        }
+        return position != null && segments.length > 0 && isSelected( position, segments[segments.length - 1] );
+    }
+
+    /**
+     * @param nodes A set of nodes.
+     * @return Whether any node of the set ends a pattern.
+     */
+    private static boolean isTerminal( Node[] nodes )
+    {
+        for ( int i = 0; i < nodes.length; i++ )
+        {
+            if ( nodes[i].terminal )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consume a path segment.
+     * 
+     * @param nodes The nodes reached so far.
+     * @param name The segment.
+     * @return The nodes reached after the segment.
+     */
+    private static Node[] advance( Node[] nodes, String name )
+    {
+        List next = new ArrayList( 4 );
+        for ( int i = 0; i < nodes.length; i++ )
+        {
+            Node node = nodes[i];
+            if ( node.anyDepth )
+            {
+                addNode( next, node );
+            }
+            Node literal = (Node) node.literals.get( name );
+            if ( literal != null )
+            {
+                addNode( next, literal );
+            }
+            for ( int j = 0; j < node.wildcards.size(); j++ )
+            {
+                Node wildcard = (Node) node.wildcards.get( j );
+                if ( wildcard.pattern.matcher( name ).matches() )
+                {
+                    addNode( next, wildcard );
+                }
+            }
+        }
+        return closure( (Node[]) next.toArray( new Node[next.size()] ) );
+    }
+
+    /**
+     * Add a node to a set unless already present.
+     * 
+     * @param nodes The set of nodes.
+     * @param node The node to add.
+     */
+    private static void addNode( List nodes, Node node )
+    {
+        if ( !nodes.contains( node ) )
+        {
+            nodes.add( node );
+        }
+    }
+
+    /**
+     * Add the nodes reachable by letting <code>**</code> match no segment at all.
+     * 
+     * @param nodes A set of nodes.
+     * @return The set with the nodes reachable without consuming a segment.
+     */
+    private static Node[] closure( Node[] nodes )
+    {
+        List result = null;
+        for ( int i = 0; i < ( result == null ? nodes.length : result.size() ); i++ )
+        {
+            Node node = result == null ? nodes[i] : (Node) result.get( i );
+            Node anyDepth = node.anyDepthChild;
+            if ( anyDepth != null )
+            {
+                if ( result == null )
+                {
+                    result = new ArrayList( nodes.length + 2 );
+                    for ( int j = 0; j < nodes.length; j++ )
+                    {
+                        result.add( nodes[j] );
+                    }
+                }
+                addNode( result, anyDepth );
+            }
+        }
+        if ( result == null )
+        {
+            return nodes;
+        }
+        return (Node[]) result.toArray( new Node[result.size()] );
+    }
+
+    /**
+     * Compile patterns into a trie.
+     * 
+     * @param patterns The patterns.
+     * @return The root of the trie.
+     */
+    private static Node compile( String[] patterns )
+    {
+        Node root = new Node( false, null );
+        for ( int i = 0; i < patterns.length; i++ )
+        {
+            String pattern = patterns[i].trim().replace( '\\', '/' );
+            if ( pattern.endsWith( "/" ) )
+            {
+                pattern += "**";
+            }
+            String[] segments = StringUtils.split( pattern, "/" );
+            Node node = root;
+            for ( int j = 0; j < segments.length; j++ )
+            {
+                node = node.child( segments[j] );
+            }
+            node.terminal = true;
+        }
+        return root;
+    }
+
+    /**
+     * Convert a wildcard expression into a regular expression.
+     * 
+     * @param glob The expression using the <code>*</code> and <code>?</code> wildcards.
+     * @return The compiled expression.
+     */
+    static Pattern compileGlob( String glob )
+    {
+        StringBuffer regex = new StringBuffer( glob.length() + 8 );
+        StringBuffer literal = new StringBuffer();
+        for ( int i = 0; i < glob.length(); i++ )
+        {
+            char c = glob.charAt( i );
+            if ( c == '*' || c == '?' )
+            {
+                if ( literal.length() > 0 )
+                {
+                    regex.append( Pattern.quote( literal.toString() ) );
+                    literal.setLength( 0 );
+                }
+                regex.append( c == '*' ? ".*" : "." );
+            }
+            else
+            {
+                literal.append( c );
+            }
+        }
+        if ( literal.length() > 0 )
+        {
+            regex.append( Pattern.quote( literal.toString() ) );
+        }
+        return Pattern.compile( regex.toString() );
+    }
+
+    /**
+     * Split a comma separated list of patterns.
+     * 
+     * @param patterns The list, may be null.
+     * @return The patterns.
+     */
+    static String[] split( String patterns )
+    {
+        if ( StringUtils.isEmpty( patterns ) )
+        {
+            return new String[0];
+        }
+        String[] result = StringUtils.split( patterns, "," );
+        for ( int i = 0; i < result.length; i++ )
+        {
+            result[i] = result[i].trim();
+        }
+        return result;
+    }
+
+    /**
+     * The state of a walk: the trie nodes reached by the path of the current directory.
+     */
+    public static final class Position
+    {
+        /**
+         * The include nodes reached.
+         */
+        private final Node[] included;
+
+        /**
+         * The exclude nodes reached, null when no exclude can match below this directory.
+         */
+        private final Node[] excluded;
+
+        /**
+         * @param included The include nodes reached.
+         * @param excluded The exclude nodes reached.
+         */
+        Position( Node[] included, Node[] excluded )
+        {
+            this.included = included;
+            this.excluded = excluded;
+        }
+    }
+
+    /**
+     * A node of the pattern trie, matching a single path segment.
+     */
+    private static final class Node
+    {
+        /**
+         * Whether this node is a <code>**</code> segment, matching any number of path segments.
+         */
+        private final boolean anyDepth;
+
+        /**
+         * The compiled wildcard segment, null for literal and <code>**</code> segments.
+         */
+        private final Pattern pattern;
+
+        /**
+         * The children with a literal segment, by name.
+         */
+        private final Map literals = new HashMap();
+
+        /**
+         * The children with a wildcard segment.
+         */
+        private final List wildcards = new ArrayList();
+
+        /**
+         * The children with a wildcard segment, by segment, used while compiling.
+         */
+        private final Map wildcardsByGlob = new HashMap();
+
+        /**
+         * The <code>**</code> child, if any.
+         */
+        private Node anyDepthChild;
+
+        /**
+         * Whether a pattern ends at this node.
+         */
+        private boolean terminal;
+
+        /**
+         * @param anyDepth Whether the node is a <code>**</code> segment.
+         * @param pattern The compiled wildcard segment.
+         */
+        Node( boolean anyDepth, Pattern pattern )
+        {
+            this.anyDepth = anyDepth;
+            this.pattern = pattern;
+        }
+
+        /**
+         * Get or create the child for a segment.
+         * 
+         * @param segment The pattern segment.
+         * @return The child node.
+         */
+        Node child( String segment )
+        {
+            if ( segment.equals( "**" ) )
+            {
+                if ( anyDepthChild == null )
+                {
+                    anyDepthChild = new Node( true, null );
+                }
+                return anyDepthChild;
+            }
+            if ( segment.indexOf( '*' ) < 0 && segment.indexOf( '?' ) < 0 )
+            {
+                Node child = (Node) literals.get( segment );
+                if ( child == null )
+                {
+                    child = new Node( false, null );
+                    literals.put( segment, child );
+                }
+                return child;
+            }
+            Node child = (Node) wildcardsByGlob.get( segment );
+            if ( child == null )
+            {
+                child = new Node( false, compileGlob( segment ) );
+                wildcards.add( child );
+                wildcardsByGlob.put( segment, child );
+            }
+            return child;
+        }
+    }
+}
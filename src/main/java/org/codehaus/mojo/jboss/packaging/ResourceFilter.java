@@ -0,0 +1,588 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.model.Resource;
+import org.codehaus.plexus.interpolation.InterpolationException;
+import org.codehaus.plexus.interpolation.PrefixAwareRecursionInterceptor;
+import org.codehaus.plexus.interpolation.PrefixedObjectValueSource;
+import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
+import org.codehaus.plexus.interpolation.ValueSource;
+import org.codehaus.plexus.interpolation.multi.MultiDelimiterInterpolatorFilterReader;
+import org.codehaus.plexus.interpolation.multi.MultiDelimiterStringSearchInterpolator;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Copies resource files into the staging directory, interpolating the <code>${...}</code> and <code>@...@</code>
+ * expressions of the filtered ones. The files are processed in parallel. A filtered file is first scanned for the
+ * start of an expression through a pooled buffer, and copied unchanged when it contains none; otherwise it is
+ * interpolated as a stream, so the memory used does not depend on the size of the file. Files with a non-filtered
+ * extension, images by default, are always copied unchanged.
+ */
+public class ResourceFilter
+{
+    /**
+     * The expression delimiters.
+     */
+    private static final LinkedHashSet DELIMITERS = new LinkedHashSet( Arrays.asList( new String[] { "${*}", "@" } ) );
+
+    /**
+     * The prefixes of the expressions resolved against the project.
+     */
+    private static final List PROJECT_PREFIXES = Arrays.asList( new String[] { "project.", "pom." } );
+
+    /**
+     * The extensions of the files never filtered, as in the resources plugin.
+     */
+    public static final List DEFAULT_NON_FILTERED_FILE_EXTENSIONS =
+        Arrays.asList( new String[] { "jpg", "jpeg", "gif", "bmp", "png" } );
+
+    /**
+     * The expressions resolved against the project, in either delimiter.
+     */
+    private static final Pattern PROJECT_EXPRESSION =
+        Pattern.compile( "\\$\\{(?:project|pom)\\.[^}]*\\}|@(?:project|pom)\\.[^@\\s]*@" );
+
+    /**
+     * The size of the character buffer used when interpolating.
+     */
+    private static final int CHAR_BUFFER_SIZE = 8192;
+
+    /**
+     * The copier providing the buffers and copying the files without expressions.
+     */
+    private final FileCopier copier;
+
+    /**
+     * The character encoding of the resource files, null for the platform encoding.
+     */
+    private final String encoding;
+
+    /**
+     * Whether the encoding keeps ASCII characters as single bytes, so expressions can be found in the raw bytes.
+     */
+    private final boolean scannable;
+
+    /**
+     * The sources of the expression values, highest precedence first, shared by all the threads.
+     */
+    private final List valueSources = new ArrayList();
+
+    /**
+     * The description of the value sources, in order of precedence, from which the fingerprint is computed.
+     */
+    private final List sourceDescriptions = new ArrayList();
+
+    /**
+     * The lower case extensions of the files copied unchanged even when filtering is enabled.
+     */
+    private final Set nonFilteredFileExtensions = new TreeSet( DEFAULT_NON_FILTERED_FILE_EXTENSIONS );
+
+    /**
+     * Whether expressions are resolved against a project.
+     */
+    private boolean projectSource;
+
+    /**
+     * The fingerprint of the value sources, computed on first use.
+     */
+    private String fingerprint;
+
+    /**
+     * Create a filter.
+     * 
+     * @param copier The copier providing the buffers.
+     * @param encoding The character encoding of the resource files, null for the platform encoding.
+     */
+    public ResourceFilter( FileCopier copier, String encoding )
+    {
+        this.copier = copier;
+        this.encoding = encoding == null || encoding.length() == 0 ? null : encoding;
+        this.scannable = this.encoding == null || !this.encoding.toUpperCase().startsWith( "UTF-16" )
+            && !this.encoding.toUpperCase().startsWith( "UTF-32" );
+    }
+
+    /**
+     * Add properties to resolve expressions against, with a lower precedence than those added before.
+     * 
+     * @param properties The properties.
+     */
+    public void addProperties( Properties properties )
+    {
+        valueSources.add( new PropertiesBasedValueSource( properties ) );
+        sourceDescriptions.add( new TreeMap( properties ) );
+        fingerprint = null;
+    }
+
+    /**
+     * Add extensions of files to copy unchanged even when filtering is enabled, besides the default ones.
+     * 
+     * @param extensions The extensions, without the leading dot, ignoring case.
+     */
+    public void addNonFilteredFileExtensions( List extensions )
+    {
+        for ( Iterator iter = extensions.iterator(); iter.hasNext(); )
+        {
+            nonFilteredFileExtensions.add( String.valueOf( iter.next() ).toLowerCase() );
+        }
+        fingerprint = null;
+    }
+
+    /**
+     * Create a filter resolving expressions against some properties first, then against the sources of this filter.
+     * 
+     * @param overrides The properties taking precedence.
+     * @return The new filter.
+     */
+    public ResourceFilter derive( Properties overrides )
+    {
+        ResourceFilter filter = new ResourceFilter( copier, encoding );
+        filter.addProperties( overrides );
+        filter.valueSources.addAll( valueSources );
+        filter.sourceDescriptions.addAll( sourceDescriptions );
+        filter.projectSource = projectSource;
+        filter.nonFilteredFileExtensions.addAll( nonFilteredFileExtensions );
+        return filter;
+    }
+
+    /**
+     * Add an object whose properties resolve the expressions starting with <code>project.</code> or
+     * <code>pom.</code>, with a lower precedence than the sources added before.
+     * 
+     * @param project The project.
+     */
+    public void addProject( Object project )
+    {
+        valueSources.add( new SynchronizedValueSource( new PrefixedObjectValueSource( PROJECT_PREFIXES, project,
+                                                                                      true ) ) );
+        sourceDescriptions.add( String.valueOf( project ) );
+        projectSource = true;
+        fingerprint = null;
+    }
+
+    /**
+     * Get a fingerprint of the values the expressions resolve to: a digest of all the properties in order of
+     * precedence and of the identity of the project. Two filters with the same fingerprint give the same output for
+     * the same file when it has no project expression; the project is only identified by its coordinates, so
+     * {@link #getFingerprint(File)} also covers the values of the project expressions of a file.
+     * 
+     * @return The fingerprint, as hexadecimal digits.
+     * @throws IOException if the digest algorithm is not available.
+     */
+    public synchronized String getFingerprint()
+        throws IOException
+    {
+        if ( fingerprint == null )
+        {
+            MessageDigest digest = FileDigester.newDigest( FileDigester.DEFAULT_ALGORITHM );
+            digest.update( String.valueOf( encoding ).getBytes( "UTF-8" ) );
+            digest.update( (byte) 0 );
+            digest.update( nonFilteredFileExtensions.toString().getBytes( "UTF-8" ) );
+            for ( Iterator iter = sourceDescriptions.iterator(); iter.hasNext(); )
+            {
+                digest.update( (byte) 0 );
+                digest.update( String.valueOf( iter.next() ).getBytes( "UTF-8" ) );
+            }
+            fingerprint = FileDigester.toHex( digest.digest() );
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Get a fingerprint of the values the expressions of a file resolve to: the fingerprint of the filter, combined
+     * with the resolved values of the <code>project.</code> and <code>pom.</code> expressions the file contains. Two
+     * filters with the same fingerprint for a file give the same output for it.
+     * 
+     * @param source The file.
+     * @return The fingerprint, as hexadecimal digits.
+     * @throws IOException if the file could not be read or an expression could not be resolved.
+     */
+    public String getFingerprint( File source )
+        throws IOException
+    {
+        String fingerprint = getFingerprint();
+        if ( !projectSource || isNonFiltered( source ) )
+        {
+            return fingerprint;
+        }
+        StringBuffer expressions = new StringBuffer();
+        Matcher matcher = PROJECT_EXPRESSION.matcher( FileUtils.fileRead( source, encoding ) );
+        while ( matcher.find() )
+        {
+            expressions.append( matcher.group() ).append( '\n' );
+        }
+        if ( expressions.length() == 0 )
+        {
+            return fingerprint;
+        }
+        String values;
+        try
+        {
+            values = createInterpolator().interpolate( expressions.toString(),
+                                                       new PrefixAwareRecursionInterceptor( PROJECT_PREFIXES, true ) );
+        }
+        catch ( InterpolationException e )
+        {
+            IOException ioe = new IOException( "Unable to resolve the expressions of " + source );
+            ioe.initCause( e );
+            throw ioe;
+        }
+        MessageDigest digest = FileDigester.newDigest( FileDigester.DEFAULT_ALGORITHM );
+        digest.update( fingerprint.getBytes( "UTF-8" ) );
+        digest.update( (byte) 0 );
+        digest.update( expressions.toString().getBytes( "UTF-8" ) );
+        digest.update( (byte) 0 );
+        digest.update( values.getBytes( "UTF-8" ) );
+        return FileDigester.toHex( digest.digest() );
+    }
+
+    /**
+     * Copy resources into a directory, in parallel.
+     * 
+     * @param resources The resources, as {@link Resource} instances. Later resources overwrite the files of earlier
+     *            ones.
+     * @param basedir The directory the relative resource directories are resolved against.
+     * @param outputDirectory The directory to copy into, holding the relative target paths of the resources.
+     * @param threads The number of threads.
+     * @return The number of files interpolated.
+     * @throws IOException if a file could not be copied.
+     */
+    public int filter( List resources, File basedir, File outputDirectory, int threads )
+        throws IOException
+    {
+        Map tasks = new LinkedHashMap();
+        for ( Iterator iter = resources.iterator(); iter.hasNext(); )
+        {
+            Resource resource = (Resource) iter.next();
+            File directory = resolve( basedir, resource.getDirectory() );
+            if ( !directory.isDirectory() )
+            {
+                continue;
+            }
+            File target = resource.getTargetPath() == null ? outputDirectory
+                            : resolve( outputDirectory, resource.getTargetPath() );
+            List excludes = new ArrayList( resource.getExcludes() );
+            excludes.addAll( FileUtils.getDefaultExcludesAsList() );
+            PathSelector selector =
+                new PathSelector( (String[]) resource.getIncludes().toArray( new String[0] ),
+                                  (String[]) excludes.toArray( new String[0] ) );
+            collect( directory, target, selector, selector.root(), resource.isFiltering(), tasks );
+        }
+
+        if ( tasks.isEmpty() )
+        {
+            return 0;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, Math.min( threads, tasks.size() ) ) );
+        try
+        {
+            List futures = new ArrayList( tasks.size() );
+            for ( Iterator iter = tasks.entrySet().iterator(); iter.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) iter.next();
+                final File target = (File) entry.getKey();
+                final File source = (File) ( (Object[]) entry.getValue() )[0];
+                final boolean filtering = ( (Boolean) ( (Object[]) entry.getValue() )[1] ).booleanValue();
+                futures.add( executor.submit( new Callable()
+                {
+                    public Object call()
+                        throws Exception
+                    {
+                        if ( filtering )
+                        {
+                            return Boolean.valueOf( filter( source, target ) );
+                        }
+                        copier.copy( source, target );
+                        return Boolean.FALSE;
+                    }
+                } ) );
+            }
+            int count = 0;
+            for ( Iterator iter = futures.iterator(); iter.hasNext(); )
+            {
+                if ( ( (Boolean) ( (Future) iter.next() ).get() ).booleanValue() )
+                {
+                    count++;
+                }
+            }
+            return count;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while filtering resources" );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            IOException ioe = new IOException( "Unable to filter resources" );
+            ioe.initCause( e.getCause() );
+            throw ioe;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Copy a file, interpolating its expressions unless it has a non-filtered extension.
+     * 
+     * @param source The file to copy.
+     * @param target The file to write.
+     * @return Whether the file contained expressions and was interpolated, rather than copied unchanged.
+     * @throws IOException if the file could not be copied.
+     */
+    public boolean filter( File source, File target )
+        throws IOException
+    {
+        if ( isNonFiltered( source ) || scannable && !containsExpression( source ) )
+        {
+            copier.copy( source, target );
+            return false;
+        }
+
+        File parent = target.getParentFile();
+        if ( parent != null && !parent.isDirectory() && !parent.mkdirs() )
+        {
+            throw new IOException( "Unable to create directory " + parent );
+        }
+        Reader reader = null;
+        Writer writer = null;
+        try
+        {
+            FileInputStream in = new FileInputStream( source );
+            reader = encoding == null ? new InputStreamReader( in ) : new InputStreamReader( in, encoding );
+            reader = new MultiDelimiterInterpolatorFilterReader( reader, createInterpolator(),
+                                                                 new PrefixAwareRecursionInterceptor( PROJECT_PREFIXES,
+                                                                                                      true ) )
+                .setDelimiterSpecs( DELIMITERS );
+            FileOutputStream out = new FileOutputStream( target );
+            writer = encoding == null ? new OutputStreamWriter( out ) : new OutputStreamWriter( out, encoding );
+            char[] buffer = new char[CHAR_BUFFER_SIZE];
+            for ( int n = reader.read( buffer ); n != -1; n = reader.read( buffer ) )
+            {
+                writer.write( buffer, 0, n );
+            }
+        }
+        finally
+        {
+            IOUtil.close( reader );
+            IOUtil.close( writer );
+        }
+        return true;
+    }
+
+    /**
+     * Create an interpolator over the shared value sources. Interpolators cache their answers and are not thread safe,
+     * so each file gets its own.
+     * 
+     * @return The interpolator.
+     */
+    private MultiDelimiterStringSearchInterpolator createInterpolator()
+    {
+        MultiDelimiterStringSearchInterpolator interpolator = new MultiDelimiterStringSearchInterpolator();
+        interpolator.setDelimiterSpecs( DELIMITERS );
+        for ( Iterator iter = valueSources.iterator(); iter.hasNext(); )
+        {
+            interpolator.addValueSource( (ValueSource) iter.next() );
+        }
+        return interpolator;
+    }
+
+    /**
+     * @param file A file.
+     * @return Whether the extension of the file is one of the non-filtered ones.
+     */
+    boolean isNonFiltered( File file )
+    {
+        String name = file.getName();
+        int dot = name.lastIndexOf( '.' );
+        return dot != -1 && nonFilteredFileExtensions.contains( name.substring( dot + 1 ).toLowerCase() );
+    }
+
+    /**
+     * Check whether a file contains the start of an expression, <code>${</code> or <code>@</code>.
+     * 
+     * @param file The file.
+     * @return Whether the file may contain an expression.
+     * @throws IOException if the file could not be read.
+     */
+    boolean containsExpression( File file )
+        throws IOException
+    {
+        ByteBuffer buffer;
+        try
+        {
+            buffer = copier.getPool().acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for a buffer" );
+        }
+        FileInputStream in = null;
+        try
+        {
+            in = new FileInputStream( file );
+            FileChannel channel = in.getChannel();
+            byte previous = 0;
+            while ( channel.read( buffer ) != -1 )
+            {
+                buffer.flip();
+                while ( buffer.hasRemaining() )
+                {
+                    byte b = buffer.get();
+                    if ( b == '@' || b == '{' && previous == '$' )
+                    {
+                        return true;
+                    }
+                    previous = b;
+                }
+                buffer.clear();
+            }
+            return false;
+        }
+        finally
+        {
+            copier.getPool().release( buffer );
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * Collect the selected files of a directory tree.
+     * 
+     * @param directory The directory.
+     * @param target The directory to copy into.
+     * @param selector The selector of the files.
+     * @param position The position of the directory in the selector.
+     * @param filtering Whether the files are filtered.
+     * @param tasks The map collecting the source file and filtering flag by target file.
+     */
+    private static void collect( File directory, File target, PathSelector selector, PathSelector.Position position,
+                                 boolean filtering, Map tasks )
+    {
+        File[] files = directory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+        for ( int i = 0; i < files.length; i++ )
+        {
+            String name = files[i].getName();
+            if ( files[i].isDirectory() )
+            {
+                PathSelector.Position child = selector.enter( position, name );
+                if ( child != null )
+                {
+                    collect( files[i], new File( target, name ), selector, child, filtering, tasks );
+                }
+            }
+            else if ( selector.isSelected( position, name ) )
+            {
+                File file = new File( target, name );
+                tasks.remove( file );
+                tasks.put( file, new Object[] { files[i], Boolean.valueOf( filtering ) } );
+            }
+        }
+    }
+
+    /**
+     * @param basedir The base directory.
+     * @param path A path, absolute or relative to the base directory.
+     * @return The resolved file
+     */
+    private static File resolve( File basedir, String path )
+    {
+        File file = new File( path );
+        return file.isAbsolute() || basedir == null ? file : new File( basedir, path );
+    }
+
+    /**
+     * Serializes the lookups of a value source which is not thread safe.
+     */
+    private static class SynchronizedValueSource
+        implements ValueSource
+    {
+        /**
+         * The value source.
+         */
+        private final ValueSource delegate;
+
+        /**
+         * @param delegate The value source
+         */
+        SynchronizedValueSource( ValueSource delegate )
+        {
+            this.delegate = delegate;
+        }
+
+        public synchronized Object getValue( String expression )
+        {
+            return delegate.getValue( expression );
+        }
+
+        public synchronized List getFeedback()
+        {
+            return delegate.getFeedback();
+        }
+
+        public synchronized void clearFeedback()
+        {
+            delegate.clearFeedback();
+        }
+    }
+}
@@ -46,4 +46,13 @@ public class SarInPlaceExplodedMojo
         buildExplodedPackaging();
     }
 
+    /**
+     * This goal only generates the exploded format.
+     * 
+     * @return true
+     */
+    public boolean isExplodedOnly()
+    {
+        return true;
+    }
 }
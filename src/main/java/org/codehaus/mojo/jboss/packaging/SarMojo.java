@@ -38,6 +38,11 @@ public class SarMojo
      */
     private static final String ARTIFACT_TYPE = "jboss-sar";
 
+    /**
+     * The name of the deployment descriptor.
+     */
+    static final String DEPLOYMENT_DESCRIPTOR_NAME = "jboss-service.xml";
+
     /**
      * The location of the jboss deployment descriptor file (jboss-service.xml) If it is present in
      * src/main/resources/META-INF then it will automatically be included. Otherwise this parameter must be set.
@@ -0,0 +1,395 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * The per-build staging manifest: the size and digests of every file staged, by path relative to the packaging
+ * directory. The digests are computed by the {@link FileCopier} on the bytes it copies, so a staged file is never read
+ * again to be hashed. The manifest is stored as a text file with one tab separated line per file, headed by the list
+ * of algorithms; the manifest of the previous build provides the digests of the files whose copy was skipped as up to
+ * date.
+ */
+public class StagingDigests
+{
+    /**
+     * The encoding of the manifest file.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The prefix of the header line listing the algorithms.
+     */
+    private static final String HEADER = "#path\tsize\tlastModified\t";
+
+    /**
+     * The packaging directory the paths are relative to.
+     */
+    private final String root;
+
+    /**
+     * The digest algorithms, in column order.
+     */
+    private final String[] algorithms;
+
+    /**
+     * The files staged by this build, by relative path.
+     */
+    private final Map entries = new TreeMap();
+
+    /**
+     * The files staged by the previous build, by relative path.
+     */
+    private final Map previous = new HashMap();
+
+    /**
+     * Create an empty manifest.
+     * 
+     * @param root The packaging directory the paths are relative to.
+     * @param algorithms The digest algorithms.
+     * @throws IOException if an algorithm is not supported.
+     */
+    public StagingDigests( File root, String[] algorithms )
+        throws IOException
+    {
+        this.root = root.getAbsolutePath() + File.separator;
+        this.algorithms = (String[]) algorithms.clone();
+        newDigests();
+    }
+
+    /**
+     * @return The digest algorithms, in column order
+     */
+    public String[] getAlgorithms()
+    {
+        return (String[]) algorithms.clone();
+    }
+
+    /**
+     * @param algorithm A digest algorithm.
+     * @return Whether the manifest records the digests of the algorithm
+     */
+    public boolean hasAlgorithm( String algorithm )
+    {
+        return indexOf( algorithm ) >= 0;
+    }
+
+    /**
+     * @return New message digests for each algorithm, in column order
+     * @throws IOException if an algorithm is not supported.
+     */
+    public MessageDigest[] newDigests()
+        throws IOException
+    {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        for ( int i = 0; i < algorithms.length; i++ )
+        {
+            digests[i] = FileDigester.newDigest( algorithms[i] );
+        }
+        return digests;
+    }
+
+    /**
+     * Record a staged file.
+     * 
+     * @param file The staged file.
+     * @param size The number of bytes written.
+     * @param digests The digests updated with the bytes written, as returned by {@link #newDigests()}.
+     */
+    public void record( File file, long size, MessageDigest[] digests )
+    {
+        String[] values = new String[digests.length];
+        for ( int i = 0; i < digests.length; i++ )
+        {
+            values[i] = FileDigester.toHex( digests[i].digest() );
+        }
+        Entry entry = new Entry( size, file.lastModified(), values );
+        synchronized ( entries )
+        {
+            entries.put( getPath( file ), entry );
+        }
+    }
+
+    /**
+     * Carry over the entry of a file left in place since the previous build.
+     * 
+     * @param file The staged file.
+     * @return Whether the previous build recorded the file with its current size and modification time.
+     */
+    public boolean retain( File file )
+    {
+        String path = getPath( file );
+        synchronized ( entries )
+        {
+            Entry entry = (Entry) previous.get( path );
+            if ( entry == null || entry.size != file.length() || entry.lastModified != file.lastModified() )
+            {
+                return false;
+            }
+            entries.put( path, entry );
+            return true;
+        }
+    }
+
+    /**
+     * Get the digest of a staged file, if the file did not change since it was recorded.
+     * 
+     * @param file The staged file.
+     * @param algorithm The digest algorithm.
+     * @return The digest in hexadecimal, null if the file or the algorithm is not recorded or the file changed.
+     */
+    public String getDigest( File file, String algorithm )
+    {
+        int index = indexOf( algorithm );
+        Entry entry;
+        synchronized ( entries )
+        {
+            entry = (Entry) entries.get( getPath( file ) );
+        }
+        if ( entry == null || index < 0 || entry.size != file.length() || entry.lastModified != file.lastModified() )
+        {
+            return null;
+        }
+        return entry.digests[index];
+    }
+
+    /**
+     * Get the digest of a staged file.
+     * 
+     * @param path The path of the file relative to the packaging directory.
+     * @param algorithm The digest algorithm.
+     * @return The digest in hexadecimal, null if the file or the algorithm is not recorded.
+     */
+    public String getDigest( String path, String algorithm )
+    {
+        int index = indexOf( algorithm );
+        Entry entry;
+        synchronized ( entries )
+        {
+            entry = (Entry) entries.get( path );
+        }
+        return entry == null || index < 0 ? null : entry.digests[index];
+    }
+
+    /**
+     * @return The relative paths of the files staged by this build, in order
+     */
+    public String[] getPaths()
+    {
+        synchronized ( entries )
+        {
+            return (String[]) entries.keySet().toArray( new String[entries.size()] );
+        }
+    }
+
+    /**
+     * Read the manifest of the previous build, used to retain the entries of the files not copied again. A missing or
+     * unreadable file, or one recorded with other algorithms, is ignored.
+     * 
+     * @param file The manifest file.
+     */
+    public void loadPrevious( File file )
+    {
+        read( file, previous );
+    }
+
+    /**
+     * Add the entries of a manifest written during this build by another process, such as the packaging daemon.
+     * 
+     * @param file The manifest file.
+     */
+    public void merge( File file )
+    {
+        read( file, entries );
+    }
+
+    /**
+     * Write the manifest. The file is replaced atomically where the platform allows it.
+     * 
+     * @param file The manifest file.
+     * @throws IOException if the manifest could not be written.
+     */
+    public void store( File file )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        File temp = new File( file.getParentFile(), file.getName() + ".tmp" );
+        Writer writer = new OutputStreamWriter( new FileOutputStream( temp ), ENCODING );
+        try
+        {
+            writer.write( HEADER + StringUtils.join( algorithms, "\t" ) + "\n" );
+            synchronized ( entries )
+            {
+                for ( Iterator iter = entries.entrySet().iterator(); iter.hasNext(); )
+                {
+                    Map.Entry mapEntry = (Map.Entry) iter.next();
+                    Entry entry = (Entry) mapEntry.getValue();
+                    writer.write( mapEntry.getKey() + "\t" + entry.size + "\t" + entry.lastModified + "\t"
+                        + StringUtils.join( entry.digests, "\t" ) + "\n" );
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close( writer );
+        }
+        if ( !temp.renameTo( file ) )
+        {
+            file.delete();
+            if ( !temp.renameTo( file ) )
+            {
+                throw new IOException( "Unable to write manifest " + file );
+            }
+        }
+    }
+
+    /**
+     * Read the entries of a manifest file recorded with the same algorithms.
+     * 
+     * @param file The manifest file.
+     * @param target The map receiving the entries.
+     */
+    private void read( File file, Map target )
+    {
+        if ( file == null || !file.isFile() )
+        {
+            return;
+        }
+        Map read = new HashMap();
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), ENCODING ) );
+            String header = reader.readLine();
+            if ( header == null || !header.startsWith( HEADER )
+                || !Arrays.equals( algorithms, StringUtils.split( header.substring( HEADER.length() ), "\t" ) ) )
+            {
+                return;
+            }
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                String[] fields = StringUtils.split( line, "\t" );
+                if ( fields.length == algorithms.length + 3 )
+                {
+                    String[] digests = new String[algorithms.length];
+                    System.arraycopy( fields, 3, digests, 0, digests.length );
+                    read.put( fields[0], new Entry( Long.parseLong( fields[1] ), Long.parseLong( fields[2] ),
+                                                    digests ) );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            return;
+        }
+        catch ( NumberFormatException e )
+        {
+            return;
+        }
+        finally
+        {
+            IOUtil.close( reader );
+        }
+        synchronized ( entries )
+        {
+            target.putAll( read );
+        }
+    }
+
+    /**
+     * @param file A staged file.
+     * @return The path of the file relative to the packaging directory, with forward slashes
+     */
+    private String getPath( File file )
+    {
+        String path = file.getAbsolutePath();
+        if ( path.startsWith( root ) )
+        {
+            path = path.substring( root.length() );
+        }
+        return path.replace( File.separatorChar, '/' );
+    }
+
+    /**
+     * @param algorithm A digest algorithm.
+     * @return The column of the algorithm, -1 if it is not recorded
+     */
+    private int indexOf( String algorithm )
+    {
+        for ( int i = 0; i < algorithms.length; i++ )
+        {
+            if ( algorithms[i].equalsIgnoreCase( algorithm ) )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A staged file.
+     */
+    private static final class Entry
+    {
+        /**
+         * The size of the file.
+         */
+        private final long size;
+
+        /**
+         * The modification time of the file.
+         */
+        private final long lastModified;
+
+        /**
+         * The digests of the file, in hexadecimal, in column order.
+         */
+        private final String[] digests;
+
+        /**
+         * @param size The size of the file.
+         * @param lastModified The modification time of the file.
+         * @param digests The digests of the file, in hexadecimal, in column order.
+         */
+        Entry( long size, long lastModified, String[] digests )
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digests = digests;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Appends files to a written archive as STORED entries, using the CRC recorded when the files were staged. The
+ * entries of the archive are copied in their compressed form and each file is then copied as is, so completing the
+ * archive costs a sequential copy: nothing is inflated, deflated or checksummed again.
+ */
+public class StoredEntryWriter
+{
+    /**
+     * The names of the entries to append, in order.
+     */
+    private final List names = new ArrayList();
+
+    /**
+     * The files to append, in order.
+     */
+    private final List files = new ArrayList();
+
+    /**
+     * The CRC of the files to append, -1 when unknown.
+     */
+    private final List crcs = new ArrayList();
+
+    /**
+     * The number of entries whose CRC was computed by the writer.
+     */
+    private int computed;
+
+    /**
+     * Add a file to append.
+     * 
+     * @param name The name of the entry.
+     * @param file The file.
+     * @param crc The CRC32 of the file, -1 when unknown.
+     */
+    public void add( String name, File file, long crc )
+    {
+        names.add( name );
+        files.add( file );
+        crcs.add( new Long( crc ) );
+    }
+
+    /**
+     * @return The number of files to append
+     */
+    public int size()
+    {
+        return names.size();
+    }
+
+    /**
+     * @return The number of entries whose CRC was not known and had to be computed
+     */
+    public int getComputed()
+    {
+        return computed;
+    }
+
+    /**
+     * Append the files to an archive. The archive is rewritten next to itself then replaced. An entry already in the
+     * archive is kept and the file of the same name skipped.
+     * 
+     * @param archive The archive.
+     * @return The number of bytes appended.
+     * @throws IOException if the archive could not be written.
+     */
+    public long write( File archive )
+        throws IOException
+    {
+        File temp = new File( archive.getParentFile(), archive.getName() + ".tmp" );
+        long bytes = 0;
+        ZipFile zip = new ZipFile( archive );
+        ZipArchiveOutputStream out = null;
+        try
+        {
+            out = new ZipArchiveOutputStream( temp );
+            for ( Enumeration entries = zip.getEntriesInPhysicalOrder(); entries.hasMoreElements(); )
+            {
+                ZipArchiveEntry entry = (ZipArchiveEntry) entries.nextElement();
+                InputStream in = zip.getRawInputStream( entry );
+                try
+                {
+                    out.addRawArchiveEntry( entry, in );
+                }
+                finally
+                {
+                    IOUtil.close( in );
+                }
+            }
+            for ( int i = 0; i < names.size(); i++ )
+            {
+                String name = (String) names.get( i );
+                if ( zip.getEntry( name ) == null )
+                {
+                    bytes += append( out, name, (File) files.get( i ), ( (Long) crcs.get( i ) ).longValue() );
+                }
+            }
+            out.finish();
+        }
+        finally
+        {
+            IOUtil.close( out );
+            ZipFile.closeQuietly( zip );
+        }
+        if ( !archive.delete() || !temp.renameTo( archive ) )
+        {
+            throw new IOException( "Unable to replace " + archive );
+        }
+        return bytes;
+    }
+
+    /**
+     * Append a file as a STORED entry.
+     * 
+     * @param out The archive to write.
+     * @param name The name of the entry.
+     * @param file The file.
+     * @param crc The CRC32 of the file, -1 when unknown.
+     * @return The size of the file.
+     * @throws IOException if the file could not be appended.
+     */
+    private long append( ZipArchiveOutputStream out, String name, File file, long crc )
+        throws IOException
+    {
+        if ( crc < 0 )
+        {
+            crc = checksum( file );
+            computed++;
+        }
+        ZipArchiveEntry entry = new ZipArchiveEntry( name );
+        entry.setMethod( ZipArchiveEntry.STORED );
+        entry.setSize( file.length() );
+        entry.setCompressedSize( file.length() );
+        entry.setCrc( crc );
+        entry.setTime( file.lastModified() );
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            out.addRawArchiveEntry( entry, in );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+        return file.length();
+    }
+
+    /**
+     * @param file A file.
+     * @return The CRC32 of the file
+     * @throws IOException if the file could not be read.
+     */
+    private static long checksum( File file )
+        throws IOException
+    {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            for ( int count = in.read( buffer ); count != -1; count = in.read( buffer ) )
+            {
+                crc.update( buffer, 0, count );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,367 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Synchronizes an exploded packaging directory with a deployment directory, such as a mounted JBoss deploy
+ * directory. Only the files added or changed since the last synchronization are copied and the files removed from the
+ * packaging directory are deleted. Checksum manifests of both directories are kept between runs, so files whose size
+ * and modification time did not change are never hashed again. Each file is written next to its target and renamed
+ * into place, and the deployment descriptors of <code>META-INF</code> are synchronized last, so a deployment scanner
+ * never picks up a partial update.
+ * 
+ * @goal sync
+ * @threadSafe
+ * @since 2.3
+ */
+public class SyncMojo
+    extends AbstractMojo
+{
+    /**
+     * The suffix of the temporary files written into the deployment directory.
+     */
+    private static final String TEMP_SUFFIX = ".jboss-sync";
+
+    /**
+     * The exploded packaging directory to synchronize from.
+     * 
+     * @parameter default-value="${project.build.directory}/${project.build.finalName}"
+     */
+    private File packagingDirectory;
+
+    /**
+     * The directory to synchronize, for example <code>${jboss.home}/server/default/deploy/my.sar</code>.
+     * 
+     * @parameter expression="${deployDirectory}"
+     * @required
+     */
+    private File deployDirectory;
+
+    /**
+     * The directory holding the checksum manifests kept between runs.
+     * 
+     * @parameter default-value="${project.build.directory}/jboss-sync"
+     */
+    private File manifestDirectory;
+
+    /**
+     * Whether to also delete files of the deployment directory which were not copied by this goal.
+     * 
+     * @parameter default-value="false" expression="${deleteExtraneous}"
+     */
+    private boolean deleteExtraneous;
+
+    /**
+     * The number of threads hashing and copying files. Defaults to the number of available processors.
+     * 
+     * @parameter default-value="0" expression="${packagingThreads}"
+     */
+    private int packagingThreads;
+
+    /**
+     * The digester of the synchronized files.
+     */
+    private FileDigester digester;
+
+    /**
+     * The copier of the synchronized files.
+     */
+    private FileCopier copier;
+
+    /**
+     * The manifest of the packaging directory at the previous run.
+     */
+    private ChecksumManifest previousSource;
+
+    /**
+     * The manifest of the packaging directory.
+     */
+    private ChecksumManifest source;
+
+    /**
+     * The manifest of the deployment directory.
+     */
+    private ChecksumManifest target;
+
+    /**
+     * Whether the deployment directory was never synchronized, so existing files are hashed before being replaced.
+     */
+    private boolean firstSync;
+
+    /**
+     * Main execution for the goal.
+     * 
+     * @throws MojoExecutionException if the directories could not be synchronized
+     */
+    public void execute()
+        throws MojoExecutionException
+    {
+        if ( !packagingDirectory.isDirectory() )
+        {
+            throw new MojoExecutionException( "Could not find packaging directory: " + packagingDirectory );
+        }
+        if ( deployDirectory.equals( packagingDirectory ) )
+        {
+            throw new MojoExecutionException( "The deploy directory must differ from the packaging directory" );
+        }
+
+        getLog().info( "Synchronizing " + packagingDirectory + " to " + deployDirectory );
+
+        BufferPool pool = BufferPool.getSharedPool();
+        digester = new FileDigester( pool, FileDigester.DEFAULT_ALGORITHM );
+        copier = new FileCopier( pool );
+
+        File sourceManifestFile = new File( manifestDirectory, "source.manifest" );
+        File targetManifestFile = new File( manifestDirectory, "target.manifest" );
+        previousSource = ChecksumManifest.load( sourceManifestFile );
+        source = new ChecksumManifest();
+        target = ChecksumManifest.load( targetManifestFile );
+        if ( !deployDirectory.getAbsolutePath().equals( target.getProperty() ) )
+        {
+            target = new ChecksumManifest();
+        }
+        target.setProperty( deployDirectory.getAbsolutePath() );
+        firstSync = target.isEmpty();
+
+        List paths = new ArrayList();
+        listFiles( packagingDirectory, "", paths );
+        // the descriptors trigger the redeployment, so they are synchronized once everything else is in place
+        List contents = new ArrayList( paths.size() );
+        List descriptors = new ArrayList();
+        for ( int i = 0; i < paths.size(); i++ )
+        {
+            String path = (String) paths.get( i );
+            ( isDescriptor( path ) ? descriptors : contents ).add( path );
+        }
+
+        int copied;
+        int deleted;
+        ExecutorService executor =
+            Executors.newFixedThreadPool( packagingThreads > 0 ? packagingThreads
+                            : Runtime.getRuntime().availableProcessors() );
+        try
+        {
+            copied = syncFiles( executor, contents );
+            deleted = deleteRemoved( new HashSet( paths ) );
+            copied += syncFiles( executor, descriptors );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        try
+        {
+            source.store( sourceManifestFile );
+            target.store( targetManifestFile );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Unable to write synchronization manifests", e );
+        }
+
+        getLog().info( "Copied " + copied + " files, deleted " + deleted + ", " + ( paths.size() - copied )
+            + " up to date" );
+    }
+
+    /**
+     * @param path The relative path of a file.
+     * @return Whether the file is a deployment descriptor, a XML file of the <code>META-INF</code> directory
+     */
+    private static boolean isDescriptor( String path )
+    {
+        return path.startsWith( "META-INF/" ) && path.indexOf( '/', "META-INF/".length() ) < 0
+            && path.endsWith( ".xml" );
+    }
+
+    /**
+     * Copy in parallel the files which differ from their copy in the deployment directory.
+     * 
+     * @param executor The executor running the copies.
+     * @param paths The relative paths of the files.
+     * @return The number of files copied.
+     * @throws MojoExecutionException if a file could not be copied
+     */
+    private int syncFiles( ExecutorService executor, List paths )
+        throws MojoExecutionException
+    {
+        List futures = new ArrayList( paths.size() );
+        for ( int i = 0; i < paths.size(); i++ )
+        {
+            final String path = (String) paths.get( i );
+            futures.add( executor.submit( new Callable()
+            {
+                public Object call()
+                    throws Exception
+                {
+                    return Boolean.valueOf( syncFile( path ) );
+                }
+            } ) );
+        }
+        int copied = 0;
+        for ( int i = 0; i < futures.size(); i++ )
+        {
+            if ( ( (Boolean) AbstractPackagingMojo.await( (Future) futures.get( i ) ) ).booleanValue() )
+            {
+                copied++;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Copy a file if it differs from its copy in the deployment directory. The file is written next to its target
+     * then renamed, so a deployment scanner never sees a partially written file.
+     * 
+     * @param path The relative path of the file.
+     * @return Whether the file was copied.
+     * @throws IOException if the file could not be copied.
+     */
+    private boolean syncFile( String path )
+        throws IOException
+    {
+        File sourceFile = new File( packagingDirectory, path );
+        String digest = previousSource.getDigest( path, sourceFile );
+        if ( digest == null )
+        {
+            digest = digester.digest( sourceFile );
+        }
+        source.put( path, sourceFile.length(), sourceFile.lastModified(), digest );
+
+        File targetFile = new File( deployDirectory, path );
+        String targetDigest = target.getDigest( path, targetFile );
+        if ( targetDigest == null && firstSync && targetFile.isFile() )
+        {
+            targetDigest = digester.digest( targetFile );
+        }
+        boolean copy = !digest.equals( targetDigest );
+        if ( copy )
+        {
+            File temp = new File( targetFile.getParentFile(), "." + targetFile.getName() + TEMP_SUFFIX );
+            copier.copy( sourceFile, temp );
+            if ( !temp.renameTo( targetFile ) )
+            {
+                // platforms which cannot rename over an existing file
+                targetFile.delete();
+                if ( !temp.renameTo( targetFile ) )
+                {
+                    temp.delete();
+                    throw new IOException( "Unable to replace " + targetFile );
+                }
+            }
+        }
+        target.put( path, targetFile.length(), targetFile.lastModified(), digest );
+        return copy;
+    }
+
+    /**
+     * Delete the files of the deployment directory which are no longer in the packaging directory.
+     * 
+     * @param sourcePaths The relative paths of the files of the packaging directory.
+     * @return The number of files deleted.
+     */
+    private int deleteRemoved( Set sourcePaths )
+    {
+        Set candidates = new LinkedHashSet();
+        String[] tracked = target.getPaths();
+        for ( int i = 0; i < tracked.length; i++ )
+        {
+            if ( !sourcePaths.contains( tracked[i] ) )
+            {
+                candidates.add( tracked[i] );
+                target.remove( tracked[i] );
+            }
+        }
+        if ( deleteExtraneous )
+        {
+            List existing = new ArrayList();
+            listFiles( deployDirectory, "", existing );
+            for ( int i = 0; i < existing.size(); i++ )
+            {
+                if ( !sourcePaths.contains( existing.get( i ) ) )
+                {
+                    candidates.add( existing.get( i ) );
+                }
+            }
+        }
+
+        int deleted = 0;
+        for ( Iterator iter = candidates.iterator(); iter.hasNext(); )
+        {
+            File file = new File( deployDirectory, (String) iter.next() );
+            if ( file.isFile() && file.delete() )
+            {
+                getLog().debug( "Deleted " + file );
+                deleted++;
+                // remove the directories left empty
+                for ( File dir = file.getParentFile(); !dir.equals( deployDirectory ) && dir.delete(); )
+                {
+                    dir = dir.getParentFile();
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * List the files of a directory tree.
+     * 
+     * @param dir The directory.
+     * @param prefix The relative path of the directory, with a trailing separator.
+     * @param paths The list receiving the relative paths of the files.
+     */
+    private static void listFiles( File dir, String prefix, List paths )
+    {
+        File[] files = dir.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+        for ( int i = 0; i < files.length; i++ )
+        {
+            String path = prefix + files[i].getName();
+            if ( files[i].isDirectory() )
+            {
+                listFiles( files[i], path + "/", paths );
+            }
+            else
+            {
+                paths.add( path );
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.codehaus.mojo.jboss.packaging;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * A classified variant of the packaged archive, written from the common packaging directory with its own overlays,
+ * excludes and properties, for example the archive of one deployment environment.
+ */
+public class Variant
+{
+    /**
+     * The classifier of the variant archive, required.
+     */
+    private String classifier;
+
+    /**
+     * Directories whose content is added on top of the packaging directory, the first overlay providing a path wins.
+     */
+    private File[] overlays;
+
+    /**
+     * A comma separated list of Ant-style patterns of the packaging directory files left out of this variant.
+     */
+    private String excludes;
+
+    /**
+     * Properties resolving the expressions of the deployment descriptors of this variant, taking precedence over the
+     * properties of the build.
+     */
+    private Properties properties;
+
+    /**
+     * @return The classifier of the variant archive
+     */
+    public String getClassifier()
+    {
+        return classifier;
+    }
+
+    /**
+     * @param classifier The classifier of the variant archive
+     */
+    public void setClassifier( String classifier )
+    {
+        this.classifier = classifier;
+    }
+
+    /**
+     * @return The overlay directories, may be null
+     */
+    public File[] getOverlays()
+    {
+        return overlays;
+    }
+
+    /**
+     * @param overlays The overlay directories
+     */
+    public void setOverlays( File[] overlays )
+    {
+        this.overlays = overlays;
+    }
+
+    /**
+     * @return The exclude patterns, may be null
+     */
+    public String getExcludes()
+    {
+        return excludes;
+    }
+
+    /**
+     * @param excludes The exclude patterns
+     */
+    public void setExcludes( String excludes )
+    {
+        this.excludes = excludes;
+    }
+
+    /**
+     * @return The properties of the variant, may be null
+     */
+    public Properties getProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * @param properties The properties of the variant
+     */
+    public void setProperties( Properties properties )
+    {
+        this.properties = properties;
+    }
+
+    public String toString()
+    {
+        return classifier;
+    }
+}